@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/** A Bloom filter over strings: a fixed array of bits in which each added
+ *  string sets HASHES bits.  mightContain never answers false for an
+ *  added string, and answers true for other strings with a probability
+ *  of about 1% at BITS_PER_KEY bits per added string.
+ *
+ *  @author SuuTou
+ */
+class BloomFilter {
+
+    /** Number of bits allotted to each added string. */
+    static final int BITS_PER_KEY = 10;
+    /** Number of bits set by each added string. */
+    static final int HASHES = 7;
+
+    /** A filter holding KEYS, sized for them. */
+    BloomFilter(Collection<String> keys) {
+        int bits = Math.max(64, keys.size() * BITS_PER_KEY);
+        this.bits = new byte[(bits + 7) / 8];
+        for (String key : keys) {
+            add(key);
+        }
+    }
+
+    /** A filter whose bit array is BITS, as returned by bits(). */
+    BloomFilter(byte[] bits) {
+        this.bits = bits;
+    }
+
+    /** Add KEY to this filter. */
+    void add(String key) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = bits.length * 8L;
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+            bits[(int) (bit >>> 3)] |= 1 << (bit & 7);
+        }
+    }
+
+    /** Return false if KEY was certainly never added to this filter, and
+     *  true if it probably was. */
+    boolean mightContain(String key) {
+        if (bits.length == 0) {
+            return true;
+        }
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = bits.length * 8L;
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % size;
+            if ((bits[(int) (bit >>> 3)] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the bit array of this filter.  An empty array denotes a
+     *  filter that might contain anything. */
+    byte[] bits() {
+        return bits;
+    }
+
+    /** Return the 64-bit FNV-1a hash of the UTF-8 bytes of KEY. */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** The bits of this filter. */
+    private final byte[] bits;
+}
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.*;
+
+/** The work of replacing the files of one commit in the working directory
+ *  by those of another, worked out in full before any file is touched.
+ *  A plan sorts the files of the two commits into those to add, modify
+ *  and delete, and execute() carries it out in phases: a check that no
+ *  untracked file, at any depth, would be overwritten, a pass over the
+ *  stat cache leaving out files that already hold the right blob, the
+ *  deletions, and finally the writes themselves, spread over a bounded
+ *  pool of threads.  Deleting first clears the way for a file that
+ *  replaces a directory of tracked files, or for a directory that
+ *  replaces a tracked file; empty directories where files must go are
+ *  deleted too.  A Listener is told the files, bytes and time
+ *  taken by each phase as it ends.
+ *
+ *  @author SuuTou
+ */
+class CheckoutPlan {
+
+    /** The phases of execute(), in order. */
+    enum Phase { CHECK, STAT, DELETE, WRITE }
+
+    /** Receives progress and metrics from execute(). */
+    interface Listener {
+        /** Called when PHASE ends, having handled FILES files and BYTES
+         *  bytes in NANOS nanoseconds. */
+        void phaseDone(Phase phase, int files, long bytes, long nanos);
+
+        /** Called as each file is written, with the FILES files and BYTES
+         *  bytes written so far out of TOTAL files to write.  Called from
+         *  the writing threads. */
+        default void written(int files, long bytes, int total) {
+        }
+    }
+
+    /** Number of threads writing files. */
+    static final int THREADS =
+        Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** A plan for replacing CURRENT, the files of the current commit, by
+     *  NEXT, those of the target commit, both mapping file names to blob
+     *  ids. */
+    CheckoutPlan(Map<String, String> current, Map<String, String> next) {
+        for (Map.Entry<String, String> e : next.entrySet()) {
+            String old = current.get(e.getKey());
+            if (old == null) {
+                added.add(e.getKey());
+            } else if (!old.equals(e.getValue())) {
+                modified.add(e.getKey());
+            }
+        }
+        for (String name : current.keySet()) {
+            if (!next.containsKey(name)) {
+                deleted.add(name);
+            }
+        }
+        this.current = current;
+        this.next = next;
+    }
+
+    /** Return the names of the files added by this plan. */
+    List<String> added() {
+        return added;
+    }
+
+    /** Return the names of the files given new contents by this plan. */
+    List<String> modified() {
+        return modified;
+    }
+
+    /** Return the names of the files deleted by this plan. */
+    List<String> deleted() {
+        return deleted;
+    }
+
+    /** Carry out this plan in directory DIR, whose untracked files are
+     *  those in neither the current commit nor STAGED, consulting and
+     *  updating CACHE, and reporting to LISTENER.  If LINK, hard-link
+     *  rather than copy files where possible.  Throws a GitletException,
+     *  before changing anything, if an untracked file would be
+     *  overwritten. */
+    void execute(File dir, Map<String, String> staged, StatCache cache,
+                 boolean link, Listener listener) {
+        long start = System.nanoTime();
+        for (String name : added) {
+            if (!staged.containsKey(name)
+                && untrackedInTheWay(dir, name, staged)) {
+                throw error("There is an untracked file in the way; "
+                            + "delete it, or add and commit it first.");
+            }
+        }
+        listener.phaseDone(Phase.CHECK, added.size(), 0,
+                           System.nanoTime() - start);
+
+        start = System.nanoTime();
+        List<String> toWrite = new ArrayList<>();
+        for (String name : next.keySet()) {
+            if (!cache.matches(join(dir, name), next.get(name))) {
+                toWrite.add(name);
+            }
+        }
+        listener.phaseDone(Phase.STAT, next.size(), 0,
+                           System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (String name : deleted) {
+            restrictedDelete(dir, name);
+            cache.forget(name);
+        }
+        for (String name : added) {
+            File file = join(dir, name);
+            if (file.isDirectory()) {
+                deleteEmpty(file);
+            }
+        }
+        listener.phaseDone(Phase.DELETE, deleted.size(), 0,
+                           System.nanoTime() - start);
+
+        start = System.nanoTime();
+        long bytes = write(dir, toWrite, link, listener);
+        for (String name : toWrite) {
+            cache.record(join(dir, name), next.get(name));
+        }
+        listener.phaseDone(Phase.WRITE, toWrite.size(), bytes,
+                           System.nanoTime() - start);
+    }
+
+    /** Return true iff writing file NAME, which is not in the current
+     *  commit, in DIR would overwrite an untracked file: one that is in
+     *  neither the current commit nor STAGED.  That is either the file
+     *  itself, a file under a directory standing where it must go, or a
+     *  file standing where one of the directories leading to it must go.
+     *  A directory holding only files of the current commit is not in the
+     *  way, since they are deleted first. */
+    private boolean untrackedInTheWay(File dir, String name,
+                                      Map<String, String> staged) {
+        File file = join(dir, name);
+        if (file.isDirectory() ? !onlyTracked(file, name) : file.exists()) {
+            return true;
+        }
+        for (int slash = name.indexOf('/'); slash >= 0;
+             slash = name.indexOf('/', slash + 1)) {
+            String prefix = name.substring(0, slash);
+            if (join(dir, prefix).isFile() && !current.containsKey(prefix)
+                && !staged.containsKey(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff every file under DIR, the directory NAME of the
+     *  working directory, is in the current commit. */
+    private boolean onlyTracked(File dir, String name) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return true;
+        }
+        for (File file : files) {
+            String path = name + "/" + file.getName();
+            if (file.isDirectory() ? !onlyTracked(file, path)
+                : !current.containsKey(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Delete DIR and the directories within it, provided they hold no
+     *  files. */
+    private static void deleteEmpty(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteEmpty(file);
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    /** Write the files NAMES in DIR from their blobs, hard-linking them if
+     *  LINK, on a pool of THREADS threads whose queue of pending files is
+     *  bounded, so that the thread planning the writes runs one itself
+     *  whenever the pool falls behind.  Report each file to LISTENER, and
+     *  return the number of bytes written. */
+    private long write(File dir, List<String> names, boolean link,
+                       Listener listener) {
+        AtomicInteger files = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                                   new ArrayBlockingQueue<>(2 * THREADS),
+                                   new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<?>> writes = new ArrayList<>();
+        try {
+            for (String name : names) {
+                writes.add(pool.submit(() -> {
+                    File file = join(dir, name);
+                    Repository.OBJECTS.checkout(next.get(name), file, link);
+                    listener.written(files.incrementAndGet(),
+                                     bytes.addAndGet(file.length()),
+                                     names.size());
+                }));
+            }
+            for (Future<?> w : writes) {
+                w.get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return bytes.get();
+    }
+
+    /** Files of the current and target commits. */
+    private final Map<String, String> current, next;
+    /** Files only in the target commit. */
+    private final List<String> added = new ArrayList<>();
+    /** Files in both commits with different blobs. */
+    private final List<String> modified = new ArrayList<>();
+    /** Files only in the current commit. */
+    private final List<String> deleted = new ArrayList<>();
+}
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Harness.*;
+
+/** Compares the space taken on disk, and the speed of adding and checking
+ *  out, by successive versions of a large file stored as chunks and as
+ *  whole objects.  Usage:
+ *      java gitlet.ChunkSpeedTest [MEGABYTES [VERSIONS]]
+ *  writes, in a temporary directory, VERSIONS (default 8) versions of a
+ *  file of about MEGABYTES (default 32), each made from the last by a few
+ *  small insertions, deletions and overwrites at random places, and adds
+ *  each to a fresh ObjectStore that chunks large files and to one that
+ *  does not.  For a random binary file and for a text file, it reports
+ *  the bytes on disk taken by the first version and added by each later
+ *  one, and the megabytes per second added and checked out.  Each
+ *  version checked out is compared, untimed, with the one added, and the
+ *  run fails at the first that differs.
+ *  @author SuuTou
+ */
+public class ChunkSpeedTest {
+
+    /** Run the comparison as described in the class comment, with ARGS
+     *  giving the optional sizes. */
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Random random = new Random(61);
+        int size = megabytes << 20;
+        byte[] binary = new byte[size];
+        random.nextBytes(binary);
+        byte[] text = new byte[size];
+        for (int k = 0; k < size; ) {
+            byte[] file = SyntheticRepo.contents(random);
+            int len = Math.min(file.length, size - k);
+            System.arraycopy(file, 0, text, k, len);
+            k += len;
+        }
+
+        File dir = Files.createTempDirectory("gitlet-chunk").toFile();
+        try {
+            for (int round = 0; round < 2; round += 1) {
+                System.out.printf("Round %d:%n", round + 1);
+                measure("binary", binary, versions, true,
+                        new File(dir, round + "-binary-chunked"));
+                measure("binary", binary, versions, false,
+                        new File(dir, round + "-binary-whole"));
+                measure("text", text, versions, true,
+                        new File(dir, round + "-text-chunked"));
+                measure("text", text, versions, false,
+                        new File(dir, round + "-text-whole"));
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Add VERSIONS versions of the file NAME, starting with ORIGINAL, to
+     *  a new ObjectStore under DIR that stores them as chunks iff CHUNKED,
+     *  check each out, and report the space and time taken. */
+    private static void measure(String name, byte[] original, int versions,
+                                boolean chunked, File dir) throws Exception {
+        dir.mkdirs();
+        ObjectStore store = new ObjectStore(new File(dir, "objects"));
+        if (!chunked) {
+            store.setChunkThreshold(Long.MAX_VALUE);
+        }
+        Path file = new File(dir, "file").toPath();
+        File target = new File(dir, "checkout");
+        Random random = new Random(versions);
+        byte[] contents = original;
+        List<Long> growth = new ArrayList<>();
+        long bytes = 0;
+        double add = 0, checkout = 0;
+        for (int v = 0; v < versions; v += 1) {
+            if (v > 0) {
+                contents = edit(contents, random);
+            }
+            Files.write(file, contents);
+            long before = diskUsage(store.directory());
+            long start = System.nanoTime();
+            String id = store.put(file);
+            add += seconds(start);
+            growth.add(diskUsage(store.directory()) - before);
+            start = System.nanoTime();
+            store.checkout(id, target, false);
+            checkout += seconds(start);
+            check(Arrays.equals(Files.readAllBytes(target.toPath()),
+                                contents),
+                  "%s version %d checked out wrongly", name, v + 1);
+            bytes += contents.length;
+        }
+        long later = 0;
+        for (int v = 1; v < growth.size(); v += 1) {
+            later += growth.get(v);
+        }
+        System.out.printf("  %-6s %-7s first %8.1f MB, later %8.3f MB each"
+                          + " %8.1f MB/s add %8.1f MB/s checkout%n", name,
+                          chunked ? "chunked" : "whole", growth.get(0) / 1e6,
+                          versions > 1 ? later / 1e6 / (versions - 1) : 0.0,
+                          bytes / add / 1e6, bytes / checkout / 1e6);
+    }
+
+    /** Return CONTENTS after EDITS small changes at places drawn from
+     *  RANDOM. */
+    private static byte[] edit(byte[] contents, Random random) {
+        byte[] result = contents;
+        for (int e = 0; e < EDITS; e += 1) {
+            int at = random.nextInt(result.length - EDIT_LENGTH);
+            byte[] patch = new byte[1 + random.nextInt(EDIT_LENGTH)];
+            random.nextBytes(patch);
+            byte[] next;
+            switch (e % 3) {
+            case 0:
+                next = new byte[result.length + patch.length];
+                System.arraycopy(result, 0, next, 0, at);
+                System.arraycopy(patch, 0, next, at, patch.length);
+                System.arraycopy(result, at, next, at + patch.length,
+                                 result.length - at);
+                break;
+            case 1:
+                next = new byte[result.length - patch.length];
+                System.arraycopy(result, 0, next, 0, at);
+                System.arraycopy(result, at + patch.length, next, at,
+                                 next.length - at);
+                break;
+            default:
+                next = result.clone();
+                System.arraycopy(patch, 0, next, at, patch.length);
+                break;
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    /** Return the total length of the files under DIR. */
+    private static long diskUsage(File dir) {
+        long result = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                result += file.isDirectory() ? diskUsage(file)
+                    : file.length();
+            }
+        }
+        return result;
+    }
+
+    /** Number of changes made to each version to get the next. */
+    private static final int EDITS = 6;
+    /** Longest change. */
+    private static final int EDIT_LENGTH = 100;
+}
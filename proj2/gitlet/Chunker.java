@@ -0,0 +1,133 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Splits a stream into chunks at points chosen by its contents, so that
+ *  an edit to a large file changes only the chunks it touches: inserting
+ *  or deleting bytes shifts every later byte, but not the places where
+ *  later chunks end, as fixed-size blocks would.  A file stored as
+ *  chunks is kept as one object per distinct chunk, plus a list of them,
+ *  so versions of a file that share most of their chunks share most of
+ *  their storage.
+ *
+ *  Boundaries are found with a Gear rolling hash, as in FastCDC: each
+ *  byte shifts the hash left by one bit and adds a random value chosen
+ *  by that byte, so that the top bits of the hash depend on only the
+ *  last 64 bytes read.  A chunk ends where the top AVERAGE_BITS bits are
+ *  all zero, which happens on average every 2**AVERAGE_BITS bytes, but
+ *  never before MIN_CHUNK bytes nor after MAX_CHUNK.
+ *
+ *  A chunk list, the data of an object stored as chunks, is a sequence of
+ *      <id> <length>
+ *  giving the 20-byte id and int length of each chunk in order.
+ *
+ *  @author SuuTou
+ */
+class Chunker {
+
+    /** Shortest chunk, but for the last. */
+    static final int MIN_CHUNK = 1 << 14;
+    /** Log base 2 of the average chunk length. */
+    static final int AVERAGE_BITS = 16;
+    /** Longest chunk. */
+    static final int MAX_CHUNK = 1 << 18;
+    /** Length of each entry of a chunk list. */
+    static final int ENTRY = UID_LENGTH / 2 + 4;
+
+    /** A chunker reading IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Read the next chunk into the array returned by chunk() and return
+     *  its length, or 0 at the end of the stream. */
+    int next() throws IOException {
+        if (limit - pos < MAX_CHUNK && !eof) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < buffer.length && !eof) {
+                int n = in.read(buffer, limit, buffer.length - limit);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    limit += n;
+                }
+            }
+        }
+        int length = boundary(buffer, pos, Math.min(limit - pos, MAX_CHUNK));
+        System.arraycopy(buffer, pos, chunk, 0, length);
+        pos += length;
+        return length;
+    }
+
+    /** Return the array holding the chunk last read by next. */
+    byte[] chunk() {
+        return chunk;
+    }
+
+    /** Return the length of the chunk starting at DATA[START], where N
+     *  bytes are available: the position after the first boundary at
+     *  least MIN_CHUNK bytes in, or N if there is none. */
+    static int boundary(byte[] data, int start, int n) {
+        if (n <= MIN_CHUNK) {
+            return n;
+        }
+        long h = 0;
+        for (int i = MIN_CHUNK - WINDOW; i < MIN_CHUNK; i += 1) {
+            h = (h << 1) + GEAR[data[start + i] & 0xff];
+        }
+        for (int i = MIN_CHUNK; i < n; i += 1) {
+            h = (h << 1) + GEAR[data[start + i] & 0xff];
+            if ((h & MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the ids of the chunks in the chunk list LIST. */
+    static List<String> ids(byte[] list) {
+        List<String> result = new ArrayList<>(list.length / ENTRY);
+        byte[] raw = new byte[UID_LENGTH / 2];
+        for (int k = 0; k + ENTRY <= list.length; k += ENTRY) {
+            System.arraycopy(list, k, raw, 0, raw.length);
+            result.add(PackFile.toHex(raw));
+        }
+        return result;
+    }
+
+    /** Number of bytes on which the top bits of the hash depend. */
+    private static final int WINDOW = 64;
+    /** Bits of the hash that must be zero at a boundary. */
+    private static final long MASK = -1L << (64 - AVERAGE_BITS);
+    /** Random value added to the hash for each byte value, the same in
+     *  every run so that chunks match across repositories. */
+    private static final long[] GEAR = new long[256];
+    static {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int b = 0; b < GEAR.length; b += 1) {
+            x += 0x9E3779B97F4A7C15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[b] = z ^ (z >>> 31);
+        }
+    }
+
+    /** The stream chunked. */
+    private final InputStream in;
+    /** Bytes read from IN and not yet returned, in [POS, LIMIT). */
+    private final byte[] buffer = new byte[2 * MAX_CHUNK];
+    /** Bounds of the unreturned bytes in BUFFER. */
+    private int pos, limit;
+    /** True once IN is exhausted. */
+    private boolean eof;
+    /** The chunk last returned. */
+    private final byte[] chunk = new byte[MAX_CHUNK];
+}
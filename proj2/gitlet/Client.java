@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** A thin client for the gitlet Daemon.  Usage is exactly as for Main:
+ *      java gitlet.Client ARGS
+ *  If a daemon is serving the repository in the current directory, ARGS
+ *  are forwarded to it and its output is copied to the standard output;
+ *  otherwise the command is run in this process by Main.  Only a failure
+ *  to connect counts as there being no daemon: once the request may have
+ *  been sent, the command is never run a second time here, lest a
+ *  command the daemon already ran, such as add, be repeated.  The client
+ *  touches only a few small classes, so it starts much faster than a
+ *  Main that loads the whole of gitlet.
+ *
+ *  @author SuuTou
+ */
+public class Client {
+
+    /** Forward ARGS to the daemon, or run them here if there is none. */
+    public static void main(String[] args) {
+        String dir = System.getProperty("user.dir");
+        File socket = new File(new File(dir, ".gitlet"), Daemon.SOCKET);
+        SocketChannel channel = socket.exists() ? connect(socket) : null;
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        try (channel) {
+            Daemon.writeRequest(channel, dir, args);
+            InputStream reply = Channels.newInputStream(channel);
+            reply.transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            System.out.flush();
+            System.err.println("Lost contact with the gitlet daemon: "
+                               + excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return a channel connected to the daemon listening on SOCKET, or
+     *  null if none is. */
+    private static SocketChannel connect(File socket) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket.toPath()));
+            return channel;
+        } catch (IOException excp) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    /* Ignore: there is no daemon to talk to anyway. */
+                }
+            }
+            return null;
+        }
+    }
+}
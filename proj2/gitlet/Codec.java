@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Compact binary encodings of gitlet's persistent structures, used in
+ *  place of Java serialization.  Each encoding starts with a four-byte
+ *  magic number naming the structure and a version byte, and is
+ *  canonical: equal structures always encode to the same bytes, so that
+ *  ids computed from the encodings are stable.  Trees encode themselves
+ *  (see Tree), but are recognized here for DumpObj.
+ *
+ *  A commit is encoded as
+ *      "GCMT" <version> <timestamp> <message> <parents> <tree>
+ *  and a staging area as
+ *      "GSTG" <version> <files> <count> <name>*
+ *  where <timestamp> is a long in milliseconds, <parents> is a count
+ *  followed by that many ids, <tree> is the id of the commit's Tree,
+ *  <files> is a count followed by that many (name, id) pairs in sorted
+ *  order, strings are a length followed by their UTF-8 bytes, ids are 20
+ *  raw bytes, and counts and lengths are ints.
+ *
+ *  Only the current version of each encoding is read.  The version byte
+ *  serves to reject any other, rather than misread it: in particular,
+ *  version 1 commits, which listed their files in place of <tree>, are
+ *  not readable by this code.
+ *
+ *  @author SuuTou
+ */
+class Codec {
+
+    /** Magic number of an encoded Commit. */
+    static final String COMMIT_MAGIC = "GCMT";
+    /** Magic number of an encoded StagingArea. */
+    static final String STAGING_MAGIC = "GSTG";
+    /** Current version of the commit encoding. */
+    private static final int COMMIT_VERSION = 2;
+    /** Current version of the staging area encoding. */
+    private static final int STAGING_VERSION = 1;
+
+    /** Return the encoding of COMMIT. */
+    static byte[] encode(Commit commit) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, COMMIT_MAGIC, COMMIT_VERSION);
+            out.writeLong(commit.timestamp().getTime());
+            writeString(out, commit.message());
+            out.writeInt(commit.parents().size());
+            for (String parent : commit.parents()) {
+                writeId(out, parent);
+            }
+            writeId(out, commit.tree());
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the Commit encoded in BYTES. */
+    static Commit decodeCommit(byte[] bytes) {
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(bytes))) {
+            readHeader(in, COMMIT_MAGIC, COMMIT_VERSION);
+            Date timestamp = new Date(in.readLong());
+            String message = readString(in);
+            int count = in.readInt();
+            List<String> parents = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                parents.add(readId(in));
+            }
+            return new Commit(message, timestamp, parents, readId(in));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt commit");
+        }
+    }
+
+    /** Return the encoding of STAGE. */
+    static byte[] encode(StagingArea stage) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, STAGING_MAGIC, STAGING_VERSION);
+            writeFiles(out, stage.added());
+            out.writeInt(stage.removed().size());
+            for (String name : stage.removed()) {
+                writeString(out, name);
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding staging area.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the StagingArea encoded in BYTES. */
+    static StagingArea decodeStagingArea(byte[] bytes) {
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(bytes))) {
+            readHeader(in, STAGING_MAGIC, STAGING_VERSION);
+            StagingArea stage = new StagingArea();
+            for (Map.Entry<String, String> e : readFiles(in).entrySet()) {
+                stage.add(e.getKey(), e.getValue());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                stage.remove(readString(in));
+            }
+            return stage;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt staging area");
+        }
+    }
+
+    /** Return true iff BYTES start with the magic number of one of the
+     *  encodings defined here. */
+    static boolean isEncoded(byte[] bytes) {
+        return magicOf(bytes) != null;
+    }
+
+    /** Return true iff BYTES are an encoded commit. */
+    static boolean isCommit(byte[] bytes) {
+        return COMMIT_MAGIC.equals(magicOf(bytes));
+    }
+
+    /** Return the structure encoded in BYTES, whatever its kind, for
+     *  debugging with DumpObj. */
+    static Dumpable decode(byte[] bytes) {
+        String magic = magicOf(bytes);
+        if (COMMIT_MAGIC.equals(magic)) {
+            return decodeCommit(bytes);
+        } else if (STAGING_MAGIC.equals(magic)) {
+            return decodeStagingArea(bytes);
+        } else if (Tree.MAGIC.equals(magic)) {
+            return new Tree(bytes);
+        }
+        throw new IllegalArgumentException("unknown encoding");
+    }
+
+    /** Return the magic number at the start of BYTES if it is one of
+     *  ours, and otherwise null. */
+    private static String magicOf(byte[] bytes) {
+        if (bytes.length < 4) {
+            return null;
+        }
+        String magic = new String(bytes, 0, 4, StandardCharsets.US_ASCII);
+        if (magic.equals(COMMIT_MAGIC) || magic.equals(STAGING_MAGIC)
+            || magic.equals(Tree.MAGIC)) {
+            return magic;
+        }
+        return null;
+    }
+
+    /** Write MAGIC and VERSION to OUT. */
+    private static void writeHeader(DataOutputStream out, String magic,
+                                    int version)
+        throws IOException {
+        out.writeBytes(magic);
+        out.writeByte(version);
+    }
+
+    /** Read a header from IN, checking that it holds MAGIC and the
+     *  version EXPECTED. */
+    private static void readHeader(DataInputStream in, String magic,
+                                   int expected)
+        throws IOException {
+        byte[] head = new byte[magic.length()];
+        in.readFully(head);
+        if (!magic.equals(new String(head, StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("not a gitlet " + magic);
+        }
+        int version = in.readByte();
+        if (version != expected) {
+            throw new IllegalArgumentException("unsupported version "
+                                               + version + " of " + magic);
+        }
+    }
+
+    /** Write FILES, a map from names to ids, to OUT in sorted order. */
+    private static void writeFiles(DataOutputStream out,
+                                   Map<String, String> files)
+        throws IOException {
+        SortedMap<String, String> sorted =
+            files instanceof SortedMap
+            && ((SortedMap<String, String>) files).comparator() == null
+            ? (SortedMap<String, String>) files : new TreeMap<>(files);
+        out.writeInt(sorted.size());
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            writeString(out, e.getKey());
+            writeId(out, e.getValue());
+        }
+    }
+
+    /** Return a map from names to ids read from IN. */
+    private static TreeMap<String, String> readFiles(DataInputStream in)
+        throws IOException {
+        TreeMap<String, String> result = new TreeMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i += 1) {
+            String name = readString(in);
+            result.put(name, readId(in));
+        }
+        return result;
+    }
+
+    /** Write S to OUT as its length in UTF-8 bytes followed by those
+     *  bytes. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return a string written by writeString from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write the hex id ID to OUT as 20 raw bytes. */
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(PackFile.fromHex(id));
+    }
+
+    /** Return an id written by writeId from IN. */
+    static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[UID_LENGTH / 2];
+        in.readFully(raw);
+        return PackFile.toHex(raw);
+    }
+}
@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static gitlet.Harness.*;
+
+/** Compares the time and space taken by Codec's encoding of commits with
+ *  those of Java serialization.  Usage:
+ *      java gitlet.CodecSpeedTest [COMMITS [FILES]]
+ *  encodes and decodes COMMITS (default 100000) synthetic commits, each
+ *  tracking FILES (default 20) files, both ways, and exits with an error
+ *  if either way decodes a commit differently.
+ *  @author SuuTou
+ */
+public class CodecSpeedTest {
+
+    /** Run the comparison as described in the class comment, with
+     *  ARGS giving the optional counts. */
+    public static void main(String[] args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<Commit> history = makeHistory(commits, files);
+
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            long serialBytes = 0;
+            List<byte[]> serialized = new ArrayList<>(commits);
+            for (Commit commit : history) {
+                byte[] bytes = Utils.serialize(commit);
+                serialBytes += bytes.length;
+                serialized.add(bytes);
+            }
+            double serialWrite = millis(start);
+            List<Commit> decoded = new ArrayList<>(commits);
+            start = System.nanoTime();
+            for (byte[] bytes : serialized) {
+                decoded.add(Utils.deserialize(bytes, Commit.class));
+            }
+            double serialRead = millis(start);
+            verify(history, decoded, "serialization");
+
+            start = System.nanoTime();
+            long codecBytes = 0;
+            List<byte[]> encoded = new ArrayList<>(commits);
+            for (Commit commit : history) {
+                byte[] bytes = Codec.encode(commit);
+                codecBytes += bytes.length;
+                encoded.add(bytes);
+            }
+            double codecWrite = millis(start);
+            decoded.clear();
+            start = System.nanoTime();
+            for (byte[] bytes : encoded) {
+                decoded.add(Codec.decodeCommit(bytes));
+            }
+            double codecRead = millis(start);
+            verify(history, decoded, "codec");
+
+            System.out.printf("Round %d, %d commits of %d files:%n",
+                              round + 1, commits, files);
+            System.out.printf("  serialization: %8.1f ms write, %8.1f ms "
+                              + "read, %6.1f bytes/commit%n", serialWrite,
+                              serialRead, serialBytes / (double) commits);
+            System.out.printf("  codec:         %8.1f ms write, %8.1f ms "
+                              + "read, %6.1f bytes/commit%n", codecWrite,
+                              codecRead, codecBytes / (double) commits);
+        }
+    }
+
+    /** Return a linear history of N commits, each tracking FILES files,
+     *  one of which changes per commit. */
+    private static List<Commit> makeHistory(int n, int files) {
+        Random random = new Random(61);
+        TreeMap<String, String> blobs = new TreeMap<>();
+        for (int f = 0; f < files; f += 1) {
+            blobs.put("file" + f + ".txt", randomId(random));
+        }
+        List<Commit> result = new ArrayList<>(n);
+        String parent = null;
+        for (int i = 0; i < n; i += 1) {
+            blobs.put("file" + random.nextInt(files) + ".txt",
+                      randomId(random));
+            List<String> parents = new ArrayList<>();
+            if (parent != null) {
+                parents.add(parent);
+            }
+            Commit commit = new Commit("commit number " + i,
+                                       new Date(1_600_000_000_000L + i),
+                                       parents, blobs);
+            result.add(commit);
+            parent = commit.id();
+        }
+        return result;
+    }
+
+    /** Exit with an error unless each of the commits DECODED by METHOD has
+     *  the contents of the corresponding commit of HISTORY. */
+    private static void verify(List<Commit> history, List<Commit> decoded,
+                               String method) {
+        check(decoded.size() == history.size(), "%s lost commits", method);
+        for (int i = 0; i < history.size(); i += 1) {
+            Commit a = history.get(i), b = decoded.get(i);
+            check(a.message().equals(b.message())
+                  && a.timestamp().equals(b.timestamp())
+                  && a.parents().equals(b.parents())
+                  && a.tree().equals(b.tree()),
+                  "%s decodes commit %d differently", method, i);
+        }
+    }
+
+    /** Return a random 40-digit hex id drawn from RANDOM. */
+    private static String randomId(Random random) {
+        byte[] raw = new byte[Utils.UID_LENGTH / 2];
+        random.nextBytes(raw);
+        return PackFile.toHex(raw);
+    }
+}
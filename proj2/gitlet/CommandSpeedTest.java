@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import static gitlet.Harness.*;
+import static gitlet.Utils.*;
+
+/** Measures the throughput and allocation rate of gitlet's commands on a
+ *  synthetic repository, to catch performance regressions that the
+ *  correctness tests in testing/ cannot.  Usage:
+ *      java gitlet.CommandSpeedTest [FILES [COMMITS [SECONDS]]]
+ *  builds, in a temporary directory, a SyntheticRepo of FILES (default
+ *  2000) files and a main line of COMMITS (default 1000) commits with a
+ *  merged topic branch every ten, then runs each operation in-process,
+ *  repeatedly for SECONDS (default 2) seconds after a warm-up of a
+ *  quarter of that, and reports operations per second, time per
+ *  operation and bytes allocated per second and per operation.  Their
+ *  output is discarded.
+ *
+ *  The operations are the commands, through Main.run, and, for commands
+ *  this gitlet does not have yet, the work at their core, done through
+ *  Repository and friends:
+ *      log        "log", and "log --max-count=10", which should take
+ *                 the same time however long the history, and
+ *                 "log -- FILE"
+ *      global-log "global-log"
+ *      status     compare the working files with the head's, through the
+ *                 stat cache, and list the working directory
+ *      find       "find" of a commit message
+ *      diff       "diff" of two versions of a file
+ *      merge      find the split point of "master" and "topic", and the
+ *                 files each side changed, renamed or copied since
+ *      checkout   "checkout -- FILE" and "checkout BRANCH", alternating
+ *                 between "master" and a branch far behind it
+ *      commit     make a commit of one changed file on the head, by
+ *                 updating its tree, and move the branch
+ *      add        rewrite a file and "add" it
+ *  Allocation is counted on all live threads; the parallel checkout
+ *  workers that finish during a measurement are missed.
+ *  @author SuuTou
+ */
+public class CommandSpeedTest {
+
+    /** Run the benchmark as described in the class comment, with ARGS
+     *  giving the optional sizes; or, if ARGS starts with "run", run it in
+     *  the current directory, which must be empty. */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("run")) {
+            run(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Double.parseDouble(args[3]));
+            return;
+        }
+        String files = args.length > 0 ? args[0] : "2000";
+        String commits = args.length > 1 ? args[1] : "1000";
+        String seconds = args.length > 2 ? args[2] : "2";
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            List<String> command = new ArrayList<>(List.of(
+                new File(System.getProperty("java.home"), "bin/java")
+                    .getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                CommandSpeedTest.class.getName(),
+                "run", files, commits, seconds));
+            int status = new ProcessBuilder(command).directory(dir)
+                .inheritIO().start().waitFor();
+            if (status != 0) {
+                System.exit(status);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Build a repository of FILES files and COMMITS commits in the
+     *  current directory and time each operation for SECONDS seconds. */
+    private static void run(int files, int commits, double seconds) {
+        long start = System.nanoTime();
+        SyntheticRepo.generate(files, commits, TOPIC_EVERY, 61);
+        System.out.printf("Built %d files, %d commits in %.1f s.%n", files,
+                          commits, seconds(start));
+        String head = Repository.branchHead("master");
+        String old = Repository.branchHead("old");
+        String file = SyntheticRepo.fileName(0);
+        String[] versions = {
+            Commit.load(old).blobs().get(file),
+            Commit.load(head).blobs().get(file),
+        };
+        Random random = new Random(62);
+
+        time("log", seconds, i -> command("log"));
+        time("log -n 10", seconds, i -> command("log", "--max-count=10"));
+        time("log -- file", seconds, i -> command("log", "--", file));
+        time("global-log", seconds, i -> command("global-log"));
+        time("status", seconds, i -> status());
+        time("find", seconds, i -> command("find", "commit 7"));
+        time("diff", seconds, i -> command("diff", versions[0],
+                                           versions[1]));
+        time("merge", seconds, i -> merge("master", "topic"));
+        time("checkout file", seconds, i -> command("checkout", "--",
+                                                    file));
+        time("checkout branch", seconds,
+             i -> command("checkout", i % 2 == 0 ? "old" : "master"));
+        if (!Repository.currentBranch().equals("master")) {
+            command("checkout", "master");
+        }
+        time("commit", seconds, i -> commit(i, random));
+        time("add", seconds, i -> {
+            String name = SyntheticRepo.fileName(i % files);
+            writeContents(join(Repository.CWD, name),
+                          SyntheticRepo.contents(random));
+            command("add", name);
+        });
+    }
+
+    /** Run OP(0), OP(1), ... for a quarter of SECONDS seconds to warm up,
+     *  and then for SECONDS seconds, and report its speed as NAME. */
+    private static void time(String name, double seconds, IntConsumer op) {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        int i = 0;
+        long warm = System.nanoTime() + (long) (seconds * 0.25e9);
+        while (System.nanoTime() < warm) {
+            op.accept(i);
+            i += 1;
+        }
+        long bytes = allocated();
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        int ops = 0;
+        while (ops < MIN_OPS || System.nanoTime() < end) {
+            op.accept(i);
+            i += 1;
+            ops += 1;
+        }
+        double secs = seconds(start);
+        bytes = Math.max(allocated() - bytes, 0);
+        System.setOut(stdout);
+        System.out.printf("  %-16s %9.1f ops/s %9.3f ms/op %8.1f MB/s "
+                          + "%10.1f KB/op%n", name, ops / secs,
+                          secs * 1e3 / ops, bytes / secs / 1e6,
+                          bytes / 1e3 / ops);
+    }
+
+    /** Run the gitlet command ARGS in-process. */
+    private static void command(String... args) {
+        Main.run(args);
+    }
+
+    /** Do the work of "status": read the staging area, find the changed
+     *  tracked files, and list the working directory. */
+    private static void status() {
+        StagingArea.load(Repository.STAGING_FILE);
+        Repository.changedFiles(Commit.load(Repository.headCommit())
+                                .blobs());
+        plainFilenamesIn(Repository.CWD);
+    }
+
+    /** Do the planning of a merge of branch OTHER into branch CURRENT:
+     *  find their split point and the files each changed, renamed or
+     *  copied since. */
+    private static void merge(String current, String other) {
+        String ours = Repository.branchHead(current);
+        String theirs = Repository.branchHead(other);
+        String split = Repository.splitPoint(ours, theirs);
+        String base = Commit.load(split).tree();
+        Repository.renames(base, Commit.load(ours).tree());
+        Repository.renames(base, Commit.load(theirs).tree());
+    }
+
+    /** Commit a new version of one file, drawn from RANDOM, onto the
+     *  current branch, as commit number I. */
+    private static void commit(int i, Random random) {
+        Transaction txn = new Transaction(Repository.GITLET_DIR);
+        String branch = txn.readString(Repository.HEAD_FILE);
+        String head = txn.readString(join(Repository.BRANCHES_DIR, branch));
+        String blob = Repository.OBJECTS.put(SyntheticRepo.contents(random));
+        String tree = Tree.update(Commit.load(head).tree(),
+                                  Map.of(SyntheticRepo.fileName(0), blob));
+        String id = new Commit("benchmark " + i, new Date(), List.of(head),
+                               tree).save();
+        Repository.updateRefs(txn, branch, id, new StagingArea());
+    }
+
+    /** Return the bytes allocated so far by all live threads. */
+    private static long allocated() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes
+                 : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+    /** Number of main-line commits between topic branches. */
+    private static final int TOPIC_EVERY = 10;
+    /** Fewest operations timed, however long they take. */
+    private static final int MIN_OPS = 5;
+}
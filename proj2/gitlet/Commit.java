@@ -1,26 +1,146 @@
 package gitlet;
 
-// TODO: any imports you need here
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
-import java.util.Date; // TODO: You'll likely use this in this class
-
-/** Represents a gitlet commit object.
- *  TODO: It's a good idea to give a description here of what else this Class
- *  does at a high level.
+/** Represents a gitlet commit object: a snapshot of the tracked files,
+ *  each named by the id of the blob holding its contents, together with
+ *  the commit's message, time and parents.  Commits are stored in the
+ *  object store in the binary form defined by Codec, and the SHA-1 hash
+ *  of that form is the commit's id.  The snapshot itself is stored as a
+ *  Tree, of which the encoded commit holds only the id.
  *
- *  @author TODO
+ *  @author SuuTou
  */
-public class Commit {
-    /**
-     * TODO: add instance variables here.
-     *
-     * List all instance variables of the Commit class here with a useful
-     * comment above them describing what that variable represents and how that
-     * variable is used. We've provided one example for `message`.
-     */
+public class Commit implements Dumpable {
+
+    /** A commit made at TIMESTAMP with message MESSAGE, parent ids
+     *  PARENTS (first parent first), and tracking the files in BLOBS,
+     *  a map from file names to blob ids. */
+    Commit(String message, Date timestamp, List<String> parents,
+           Map<String, String> blobs) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parents = List.copyOf(parents);
+        this.files = new TreeMap<>(blobs);
+        this.blobs = this.files;
+    }
+
+    /** A commit made at TIMESTAMP with message MESSAGE, parent ids
+     *  PARENTS (first parent first), and tracking the files in the stored
+     *  tree with id TREE. */
+    Commit(String message, Date timestamp, List<String> parents,
+           String tree) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.parents = List.copyOf(parents);
+        this.tree = tree;
+    }
+
+    /** Bound on the bytes of encoded commits whose decoded forms are
+     *  cached. */
+    static final long CACHE_BYTES = 16L << 20;
+
+    /** Return the commit with id ID from the repository's object store,
+     *  decoding it only if it is not already cached. */
+    static Commit load(String id) {
+        Commit result = CACHE.get(id);
+        if (result == null) {
+            byte[] bytes = Repository.OBJECTS.read(id);
+            result = Codec.decodeCommit(bytes);
+            CACHE.put(id, result, bytes.length);
+        }
+        return result;
+    }
+
+    /** Write this commit and, if it was made from a map of files, its
+     *  trees to the repository's object store, record it in the commit
+     *  graph and commit index, and return its id. */
+    String save() {
+        if (files != null) {
+            tree = Tree.write(files, true);
+        }
+        String id = Repository.OBJECTS.put(Codec.encode(this));
+        Repository.commitGraph().add(id, this);
+        Repository.commitIndex().add(id, this);
+        return id;
+    }
+
+    /** Return the id of this commit. */
+    String id() {
+        return Utils.sha1(Codec.encode(this));
+    }
+
+    /** Return the message of this commit. */
+    String message() {
+        return message;
+    }
+
+    /** Return the time at which this commit was made. */
+    Date timestamp() {
+        return timestamp;
+    }
+
+    /** Return the ids of the parents of this commit, first parent
+     *  first. */
+    List<String> parents() {
+        return parents;
+    }
+
+    /** Return the id of the tree of the files tracked by this commit. */
+    String tree() {
+        if (tree == null) {
+            tree = Tree.write(files, false);
+        }
+        return tree;
+    }
+
+    /** Return the files tracked by this commit, mapped to their blob
+     *  ids.  For a stored commit, the first call reads its trees. */
+    Map<String, String> blobs() {
+        if (blobs == null) {
+            blobs = Tree.flatten(tree);
+        }
+        return Collections.unmodifiableSortedMap(blobs);
+    }
+
+    /** Return the cache of decoded commits used by load. */
+    static ObjectCache<Commit> cache() {
+        return CACHE;
+    }
+
+    @Override
+    public void dump() {
+        System.out.printf("message: %s%ntimestamp: %s%nparents: %s%n"
+                          + "tree: %s%n", message, timestamp, parents,
+                          tree());
+    }
+
+    /** Version of the serialized form, which only DumpObj and the
+     *  serialization baseline of CodecSpeedTest still use. */
+    private static final long serialVersionUID = 1L;
+
+    /** Recently loaded commits, keyed by id. */
+    private static final ObjectCache<Commit> CACHE =
+        new ObjectCache<>(CACHE_BYTES, CACHE_BYTES);
 
     /** The message of this Commit. */
     private String message;
-
-    /* TODO: fill in the rest of this class. */
+    /** The time at which this Commit was made. */
+    private Date timestamp;
+    /** Ids of this Commit's parents: none for the initial commit, two for
+     *  a merge, with the branch merged into first. */
+    private List<String> parents;
+    /** Id of the tree of this Commit's files, or null until computed for
+     *  a Commit made from a map of files. */
+    private String tree;
+    /** The files this Commit was made from, mapped to the ids of their
+     *  blobs, or null for a Commit made from a tree. */
+    private TreeMap<String, String> files;
+    /** Files tracked by this Commit, mapped to the ids of their blobs, or
+     *  null until first asked for. */
+    private TreeMap<String, String> blobs;
 }
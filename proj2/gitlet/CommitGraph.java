@@ -0,0 +1,625 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** A cache of the shape of the commit history, so that ancestry questions
+ *  can be answered without reading and decoding commits.  Each commit has
+ *  a fixed-size record holding its id, the positions of its (at most two)
+ *  parents' records, its generation number (one more than the largest
+ *  generation of its parents, or 1 for the initial commit) and its
+ *  timestamp.  Since a commit is always recorded after its parents,
+ *  records form a topological order, and new commits are simply appended.
+ *  In a shallow repository, commits on the Shallow boundary are recorded
+ *  as having no parents, so no walk over the graph crosses it.
+ *
+ *  The file is
+ *      "GCGR" <version> <count> <record>*
+ *  with each record being a 20-byte id, two int parent positions (-1 if
+ *  absent), an int generation and a long timestamp in milliseconds.  It is
+ *  memory-mapped for reading, and remapped only when a record past the
+ *  end of the current mapping is wanted, so appending many commits costs
+ *  one mapping rather than one each.  A record is written before the
+ *  count that covers it, so a crash mid-append leaves only ignored
+ *  trailing bytes.  Records are appended only under the repository's
+ *  RefLock, after first reading those other processes have appended, so
+ *  concurrent gitlet commands never write the same slot; readers take no
+ *  lock, and never see a record before the count covering it.  Should
+ *  the file be rebuilt, as by gc --prune-history, positions in it lose
+ *  their meaning, so the iterations this graph has handed out end early
+ *  rather than wander through the new file.
+ *
+ *  Commits are found by id in a lookup table kept beside the graph, in a
+ *  file of the same name with "-lookup" appended:
+ *      "GCGL" <version> <covered> <last id> <fan-out> <entry>*
+ *  which indexes the first COVERED records.  The fan-out is 256 ints,
+ *  the Kth being the number of entries whose id starts with a byte of at
+ *  most K, and each entry is a 20-byte id and the int position of its
+ *  record, in increasing order of id, so a lookup is a binary search
+ *  within one fan-out bucket of the mapped table.  Records appended
+ *  since are indexed in memory, and once there are more than MAX_TAIL of
+ *  them, the table is rewritten (atomically, under the lock) to cover
+ *  them too; so opening the graph costs no more than decoding MAX_TAIL
+ *  ids, however long the history.  A table whose last id is not that of
+ *  record COVERED - 1 belongs to a rebuilt file and is ignored.
+ *
+ *  @author SuuTou
+ */
+class CommitGraph {
+
+    /** Format version written in the header. */
+    private static final int VERSION = 1;
+    /** Length of the header in bytes. */
+    private static final int HEADER = 4 + 4 + 4;
+    /** Length in bytes of a binary id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Length of each record in bytes. */
+    private static final int RECORD = ID_BYTES + 4 + 4 + 4 + 8;
+    /** Offset of the count in the header. */
+    private static final int COUNT_OFFSET = 8;
+    /** Length of the lookup table's header in bytes. */
+    private static final int LOOKUP_HEADER = 4 + 4 + 4 + ID_BYTES;
+    /** Number of fan-out buckets in the lookup table. */
+    private static final int FANOUT = 256;
+    /** Offset of the first entry in the lookup table. */
+    private static final int ENTRIES = LOOKUP_HEADER + 4 * FANOUT;
+    /** Length of each lookup table entry in bytes. */
+    private static final int ENTRY = ID_BYTES + 4;
+    /** Most records left out of the lookup table before it is
+     *  rewritten. */
+    static final int MAX_TAIL = 1024;
+
+    /** The commit graph kept in FILE, which is created if need be, of a
+     *  history cut off at the boundary GRAFTS. */
+    CommitGraph(File file, Shallow grafts) {
+        this.file = file;
+        this.lookupFile = new File(file.getPath() + "-lookup");
+        this.grafts = grafts;
+        remap();
+        openLookup();
+        if (count - covered > MAX_TAIL) {
+            RefLock lock = RefLock.tryAcquire(file.getParentFile());
+            if (lock != null) {
+                try {
+                    catchUp();
+                    writeLookup();
+                } finally {
+                    lock.close();
+                }
+            }
+        }
+    }
+
+    /** Return true iff the commit ID has been recorded. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /** Record COMMIT, whose id is ID, after its parents, reading any
+     *  parents not yet recorded from the object store. */
+    void add(String id, Commit commit) {
+        if (contains(id)) {
+            return;
+        }
+        for (String parent : grafts.parents(id, commit)) {
+            position(parent);
+        }
+        append(id, commit);
+    }
+
+    /** Return the ids of the parents of commit ID, first parent first. */
+    List<String> parents(String id) {
+        int k = position(id);
+        List<String> result = new ArrayList<>(2);
+        for (int p : parentPositions(k)) {
+            result.add(idAt(p));
+        }
+        return result;
+    }
+
+    /** Return the generation number of commit ID. */
+    int generation(String id) {
+        return generationAt(position(id));
+    }
+
+    /** Return the timestamp, in milliseconds, of commit ID. */
+    long timestamp(String id) {
+        int k = position(id);
+        return mapped(k).getLong(offset(k) + ID_BYTES + 12);
+    }
+
+    /** Stop every iteration handed out by this graph, which is no longer
+     *  to be used because its file is about to be rebuilt. */
+    void discard() {
+        epoch += 1;
+    }
+
+    /** Return the ids of commit ID and its first-parent ancestors, newest
+     *  first, as a lazy iteration, which ends early if the graph's file is
+     *  rebuilt meanwhile. */
+    Iterable<String> firstParents(String id) {
+        int start = position(id);
+        int started = epoch;
+        return () -> new Iterator<>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0 && epoch == started;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String result = idAt(next);
+                next = mapped(next).getInt(offset(next) + ID_BYTES);
+                return result;
+            }
+        };
+    }
+
+    /** Return the ids of all recorded commits, most recently recorded
+     *  first, as a lazy iteration over the records present when it
+     *  starts, which ends early if the graph's file is rebuilt
+     *  meanwhile. */
+    Iterable<String> all() {
+        int start = count - 1;
+        int started = epoch;
+        return () -> new Iterator<>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0 && epoch == started;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                next -= 1;
+                return idAt(next + 1);
+            }
+        };
+    }
+
+    /** Return true iff commit ANCESTOR is commit DESCENDANT or one of its
+     *  ancestors.  The search never descends below ANCESTOR's
+     *  generation. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = position(ancestor);
+        int start = position(descendant);
+        int floor = generationAt(target);
+        boolean[] seen = new boolean[count];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(start);
+        while (!work.isEmpty()) {
+            int k = work.pop();
+            if (k == target) {
+                return true;
+            }
+            if (seen[k] || generationAt(k) <= floor) {
+                continue;
+            }
+            seen[k] = true;
+            for (int p : parentPositions(k)) {
+                work.push(p);
+            }
+        }
+        return false;
+    }
+
+    /** Return the id of a latest common ancestor of commits A and B (the
+     *  split point of a merge).  Commits are visited in decreasing order
+     *  of generation, marking each with the side(s) it is reachable from;
+     *  since every ancestor of a commit has a smaller generation, a commit
+     *  has all its marks by the time it is visited, and the first commit
+     *  marked from both sides is not an ancestor of any other common
+     *  ancestor.  Returns null if A and B share no history. */
+    String splitPoint(String a, String b) {
+        final int fromA = 1;
+        final int fromB = 2;
+        int ka = position(a);
+        int kb = position(b);
+        byte[] marks = new byte[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (x, y) -> generationAt(y) - generationAt(x));
+        marks[ka] |= fromA;
+        marks[kb] |= fromB;
+        queue.add(ka);
+        if (kb != ka) {
+            queue.add(kb);
+        }
+        while (!queue.isEmpty()) {
+            int k = queue.poll();
+            if (marks[k] == (fromA | fromB)) {
+                return idAt(k);
+            }
+            for (int p : parentPositions(k)) {
+                if (marks[p] == 0) {
+                    queue.add(p);
+                }
+                marks[p] |= marks[k];
+            }
+        }
+        return null;
+    }
+
+    /** Return the ids of the commits reachable from WANT but from none of
+     *  HAVES, parents before children, adding to COMMON the ids of their
+     *  parents that are reachable from HAVES (the commits the two sides
+     *  share at the edge of what is missing).  As in splitPoint, commits
+     *  are visited in decreasing order of generation, each marked with the
+     *  side(s) it is reachable from, and the walk ends as soon as every
+     *  commit still queued is known to be had, so its cost grows with the
+     *  number of missing commits rather than with the length of the
+     *  history. */
+    List<String> missing(String want, Collection<String> haves,
+                         Collection<String> common) {
+        final int wanted = 1;
+        final int had = 2;
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+            (x, y) -> generationAt(y) - generationAt(x));
+        int pending = 0;
+        for (String id : haves) {
+            int k = position(id);
+            if (marks.put(k, had) == null) {
+                queue.add(k);
+            }
+        }
+        int start = position(want);
+        if (marks.putIfAbsent(start, wanted) == null) {
+            queue.add(start);
+            pending += 1;
+        }
+        ArrayList<Integer> found = new ArrayList<>();
+        while (pending > 0) {
+            int k = queue.poll();
+            int mark = marks.get(k);
+            if ((mark & had) == 0) {
+                pending -= 1;
+                found.add(k);
+            }
+            for (int p : parentPositions(k)) {
+                Integer old = marks.get(p);
+                int now = (old == null ? 0 : old) | mark;
+                marks.put(p, now);
+                if (old == null) {
+                    queue.add(p);
+                    if ((now & had) == 0) {
+                        pending += 1;
+                    }
+                } else if ((old & had) == 0 && (now & had) != 0) {
+                    pending -= 1;
+                }
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (int k : found) {
+            result.add(idAt(k));
+            for (int p : parentPositions(k)) {
+                if ((marks.get(p) & had) != 0) {
+                    common.add(idAt(p));
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** Return the position of the record for commit ID, first recording
+     *  it and any unrecorded ancestors, read from the object store, if
+     *  need be.  Ancestors are imported with an explicit stack, so long
+     *  histories cannot overflow the call stack. */
+    private int position(String id) {
+        int k = find(id);
+        if (k >= 0) {
+            return k;
+        }
+        ArrayDeque<String> work = new ArrayDeque<>();
+        HashMap<String, Commit> loaded = new HashMap<>();
+        work.push(id);
+        while (!work.isEmpty()) {
+            String top = work.peek();
+            if (contains(top)) {
+                work.pop();
+                continue;
+            }
+            Commit commit = loaded.get(top);
+            if (commit == null) {
+                commit = Commit.load(top);
+                loaded.put(top, commit);
+            }
+            boolean ready = true;
+            for (String parent : grafts.parents(top, commit)) {
+                if (!contains(parent)) {
+                    work.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                work.pop();
+                append(top, commit);
+                loaded.remove(top);
+            }
+        }
+        return find(id);
+    }
+
+    /** Return the position of the record for commit ID, or -1 if it has
+     *  not been recorded. */
+    private int find(String id) {
+        Integer k = tail.get(id);
+        if (k != null) {
+            return k;
+        }
+        if (lookup == null) {
+            return -1;
+        }
+        byte[] raw = PackFile.fromHex(id);
+        int bucket = raw[0] & 0xff;
+        int lo = bucket == 0 ? 0
+            : lookup.getInt(LOOKUP_HEADER + 4 * (bucket - 1));
+        int hi = lookup.getInt(LOOKUP_HEADER + 4 * bucket);
+        byte[] probe = new byte[ID_BYTES];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            lookup.get(ENTRIES + mid * ENTRY, probe);
+            int c = Arrays.compareUnsigned(probe, raw);
+            if (c == 0) {
+                return lookup.getInt(ENTRIES + mid * ENTRY + ID_BYTES);
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Append a record for COMMIT, with id ID, whose parents are all
+     *  recorded. */
+    private void append(String id, Commit commit) {
+        RefLock lock = RefLock.acquire(file.getParentFile());
+        try {
+            catchUp();
+            if (contains(id)) {
+                return;
+            }
+            List<String> parents = grafts.parents(id, commit);
+            int p1 = parents.size() > 0 ? position(parents.get(0)) : -1;
+            int p2 = parents.size() > 1 ? position(parents.get(1)) : -1;
+            int generation = 1;
+            for (int p : new int[] { p1, p2 }) {
+                if (p >= 0) {
+                    generation = Math.max(generation, generationAt(p) + 1);
+                }
+            }
+            ByteBuffer record = ByteBuffer.allocate(RECORD);
+            record.put(PackFile.fromHex(id));
+            record.putInt(p1).putInt(p2).putInt(generation);
+            record.putLong(commit.timestamp().getTime());
+            record.flip();
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(count + 1).flip();
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                     StandardOpenOption.WRITE)) {
+                channel.write(record, offset(count));
+                channel.write(header, COUNT_OFFSET);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            tail.put(id, count);
+            count += 1;
+            if (count - covered > MAX_TAIL) {
+                writeLookup();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Bring this view of the graph up to date with the records other
+     *  processes have appended, starting afresh if the file has been
+     *  rebuilt (as by gc --prune-history). */
+    private void catchUp() {
+        int known = count;
+        String last = known > 0 ? idAt(known - 1) : null;
+        remap();
+        if (count < known || last != null && !last.equals(idAt(known - 1))) {
+            epoch += 1;
+            openLookup();
+            return;
+        }
+        for (int k = known; k < count; k += 1) {
+            tail.put(idAt(k), k);
+        }
+    }
+
+    /** Map the lookup table, unless it is missing or was made for a
+     *  rebuilt file, and index the records it does not cover in TAIL. */
+    private void openLookup() {
+        lookup = null;
+        covered = 0;
+        tail.clear();
+        if (lookupFile.length() >= ENTRIES) {
+            try (FileChannel channel = FileChannel.open(lookupFile.toPath(),
+                     StandardOpenOption.READ)) {
+                lookup = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                     channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            byte[] magic = new byte[4];
+            lookup.get(0, magic);
+            int n = lookup.getInt(8);
+            byte[] last = new byte[ID_BYTES];
+            lookup.get(12, last);
+            if ("GCGL".equals(new String(magic, StandardCharsets.US_ASCII))
+                && lookup.getInt(4) == VERSION && n > 0 && n <= count
+                && lookup.capacity() >= ENTRIES + (long) n * ENTRY
+                && PackFile.toHex(last).equals(idAt(n - 1))) {
+                covered = n;
+            } else {
+                lookup = null;
+            }
+        }
+        for (int k = covered; k < count; k += 1) {
+            tail.put(idAt(k), k);
+        }
+    }
+
+    /** Rewrite the lookup table to cover every record, and map it.  Must
+     *  be called under the lock, with this view of the graph up to
+     *  date. */
+    private void writeLookup() {
+        byte[][] ids = new byte[count][ID_BYTES];
+        Integer[] order = new Integer[count];
+        int[] fanout = new int[FANOUT];
+        for (int k = 0; k < count; k += 1) {
+            mapped(k).get(offset(k), ids[k]);
+            order[k] = k;
+            fanout[ids[k][0] & 0xff] += 1;
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(ids[x], ids[y]));
+        ByteBuffer table = ByteBuffer.allocate(ENTRIES + count * ENTRY);
+        table.put("GCGL".getBytes(StandardCharsets.US_ASCII));
+        table.putInt(VERSION).putInt(count).put(ids[count - 1]);
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            table.putInt(total);
+        }
+        for (int k : order) {
+            table.put(ids[k]).putInt(k);
+        }
+        writeContentsAtomically(lookupFile, (Object) table.array());
+        openLookup();
+    }
+
+    /** Map the file into memory, creating it (under the lock) if it does
+     *  not exist, and set COUNT from its header. */
+    private void remap() {
+        mapFile();
+        count = Math.min(map.getInt(COUNT_OFFSET),
+                         (map.capacity() - HEADER) / RECORD);
+    }
+
+    /** Map the whole file into memory as it is now, creating it (under
+     *  the lock) if it does not exist. */
+    private void mapFile() {
+        if (file.length() < HEADER) {
+            RefLock lock = RefLock.acquire(file.getParentFile());
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (channel.size() < HEADER) {
+                    lookupFile.delete();
+                    ByteBuffer header = ByteBuffer.allocate(HEADER);
+                    header.put("GCGR".getBytes(StandardCharsets.US_ASCII));
+                    header.putInt(VERSION).putInt(0).flip();
+                    channel.truncate(0);
+                    channel.write(header, 0);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                lock.close();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                 StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[4];
+        map.get(0, magic);
+        if (!"GCGR".equals(new String(magic, StandardCharsets.US_ASCII))
+            || map.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a gitlet commit graph");
+        }
+    }
+
+    /** Return the mapping of the file, first remapping it if record K,
+     *  appended since, lies beyond its end. */
+    private MappedByteBuffer mapped(int k) {
+        if (offset(k) + RECORD > map.capacity()) {
+            mapFile();
+        }
+        return map;
+    }
+
+    /** Return the offset in the file of record K. */
+    private static int offset(int k) {
+        return HEADER + k * RECORD;
+    }
+
+    /** Return the id in record K. */
+    private String idAt(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        mapped(k).get(offset(k), raw);
+        return PackFile.toHex(raw);
+    }
+
+    /** Return the positions of the parents of record K. */
+    private int[] parentPositions(int k) {
+        MappedByteBuffer records = mapped(k);
+        int p1 = records.getInt(offset(k) + ID_BYTES);
+        int p2 = records.getInt(offset(k) + ID_BYTES + 4);
+        if (p1 < 0) {
+            return new int[0];
+        } else if (p2 < 0) {
+            return new int[] { p1 };
+        }
+        return new int[] { p1, p2 };
+    }
+
+    /** Return the generation number in record K. */
+    private int generationAt(int k) {
+        return mapped(k).getInt(offset(k) + ID_BYTES + 8);
+    }
+
+    /** File holding the graph. */
+    private final File file;
+    /** File holding the lookup table. */
+    private final File lookupFile;
+    /** The shallow boundary, whose commits are recorded without
+     *  parents. */
+    private final Shallow grafts;
+    /** Memory map of FILE. */
+    private MappedByteBuffer map;
+    /** Number of records in FILE. */
+    private int count;
+    /** Number of times FILE has been found rebuilt, or this graph
+     *  discarded; iterations end once it changes. */
+    private int epoch;
+    /** Memory map of the lookup table, or null if there is none. */
+    private MappedByteBuffer lookup;
+    /** Number of records the lookup table covers. */
+    private int covered;
+    /** Positions of the records the lookup table does not cover, keyed by
+     *  commit id. */
+    private final HashMap<String, Integer> tail = new HashMap<>();
+}
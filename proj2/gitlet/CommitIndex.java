@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/** Indices over all commits that let find and path-limited log skip
+ *  commits without reading them.  For each commit it keeps a BloomFilter
+ *  of the files whose blobs differ from those of its first parent, and it
+ *  keeps an inverted index from commit messages to the ids of the commits
+ *  bearing them.  Both are built incrementally, one entry per commit as
+ *  the commit is saved.
+ *
+ *  Each index is an append-only file of records: for changed paths, a
+ *  commit id followed by the length and bytes of its filter (empty for
+ *  commits changing more than MAX_CHANGED_PATHS files, which are then
+ *  always examined); for messages, a commit id followed by its message.
+ *  Records are appended only under the repository's RefLock, after first
+ *  reading any that other processes have appended, so no commit is
+ *  indexed twice; a record cut short by a crash is dropped by the next
+ *  process to take the lock.  A commit's message is written and synced
+ *  before its filter, and only the filter marks it as indexed, so a
+ *  crash between the two leaves a commit that find still reports, that
+ *  path-limited log reads as it would one with no filter, and that add,
+ *  if asked again, completes with its filter alone.  Nothing is read
+ *  until the index is first consulted, so opening it costs nothing for
+ *  commands that never do.
+ *
+ *  @author SuuTou
+ */
+class CommitIndex {
+
+    /** Commits changing more files than this get no filter. */
+    static final int MAX_CHANGED_PATHS = 512;
+
+    /** An index kept in the files PATHSFILE (changed paths) and
+     *  MESSAGESFILE (messages). */
+    CommitIndex(File pathsFile, File messagesFile) {
+        this.pathsFile = pathsFile;
+        this.messagesFile = messagesFile;
+    }
+
+    /** Return true iff commit ID has been indexed. */
+    boolean contains(String id) {
+        load();
+        return filters.containsKey(id);
+    }
+
+    /** Index COMMIT, whose id is ID, unless it already is indexed. */
+    void add(String id, Commit commit) {
+        if (contains(id)) {
+            return;
+        }
+        TreeSet<String> changed = changedPaths(id, commit);
+        BloomFilter filter = changed.size() > MAX_CHANGED_PATHS
+            ? new BloomFilter(new byte[0]) : new BloomFilter(changed);
+        RefLock lock = RefLock.acquire(pathsFile.getParentFile());
+        try {
+            catchUp();
+            if (contains(id)) {
+                return;
+            }
+            truncate(pathsFile, pathsLength);
+            truncate(messagesFile, messagesLength);
+            if (!find(commit.message()).contains(id)) {
+                try (DataOutputStream out = append(messagesFile)) {
+                    Codec.writeId(out, id);
+                    Codec.writeString(out, commit.message());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                Utils.fsync(messagesFile);
+            }
+            try (DataOutputStream out = append(pathsFile)) {
+                Codec.writeId(out, id);
+                out.writeInt(filter.bits().length);
+                out.write(filter.bits());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            pathsLength = pathsFile.length();
+            messagesLength = messagesFile.length();
+        } finally {
+            lock.close();
+        }
+        filters.put(id, filter);
+        addMessage(commit.message(), id);
+    }
+
+    /** On first use, read the index files, cutting off any record a crash
+     *  left incomplete if no other process holds the lock. */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        catchUp();
+        try (RefLock lock = RefLock.tryAcquire(pathsFile.getParentFile())) {
+            if (lock != null) {
+                catchUp();
+                truncate(pathsFile, pathsLength);
+                truncate(messagesFile, messagesLength);
+            }
+        }
+    }
+
+    /** Read the records added to the index files since they were last
+     *  read, by this or another process, starting afresh if the files
+     *  have been rebuilt shorter. */
+    private void catchUp() {
+        if (pathsFile.length() < pathsLength
+            || messagesFile.length() < messagesLength) {
+            filters.clear();
+            messages.clear();
+            pathsLength = 0;
+            messagesLength = 0;
+        }
+        pathsLength = readRecords(pathsFile, true, pathsLength);
+        messagesLength = readRecords(messagesFile, false, messagesLength);
+    }
+
+    /** Record that commit ID has message MESSAGE. */
+    private void addMessage(String message, String id) {
+        List<String> ids =
+            messages.computeIfAbsent(message, m -> new ArrayList<>());
+        if (!ids.contains(id)) {
+            ids.add(id);
+        }
+    }
+
+    /** Return the ids of all indexed commits whose message is MESSAGE, in
+     *  the order they were made. */
+    List<String> find(String message) {
+        load();
+        return messages.getOrDefault(message, Collections.emptyList());
+    }
+
+    /** Return false if commit ID certainly left file PATH as its first
+     *  parent had it, and true if it may have changed it. */
+    boolean mightChange(String id, String path) {
+        load();
+        BloomFilter filter = filters.get(id);
+        return filter == null || filter.mightContain(path);
+    }
+
+    /** Return the ids of the commits among HEAD and its first-parent
+     *  ancestors, newest first, that changed file PATH.  Commits are
+     *  walked through GRAPH, and only those whose filter admits PATH are
+     *  read to confirm the change.  If FOLLOW, then past a commit that
+     *  added PATH as a rename or copy of another file, the commits
+     *  changing that file are returned instead. */
+    Iterable<String> touching(String head, String path, CommitGraph graph,
+                              boolean follow) {
+        return () -> new Iterator<>() {
+            private final Iterator<String> walk =
+                graph.firstParents(head).iterator();
+            private String current = path;
+            private String next = advance();
+
+            /** Return the next commit changing CURRENT, or null. */
+            private String advance() {
+                while (walk.hasNext()) {
+                    String id = walk.next();
+                    if (mightChange(id, current) && changes(id, current)) {
+                        if (follow) {
+                            current = origin(id, current);
+                        }
+                        return id;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String result = next;
+                next = advance();
+                return result;
+            }
+        };
+    }
+
+    /** Return true iff commit ID gives PATH a different blob (or presence)
+     *  than its first parent, or than nothing if it is on the shallow
+     *  boundary.  Only the trees along PATH are read. */
+    private static boolean changes(String id, String path) {
+        Commit commit = Commit.load(id);
+        List<String> parents = Repository.shallow().parents(id, commit);
+        String parentBlob = parents.isEmpty() ? null
+            : Tree.lookup(Commit.load(parents.get(0)).tree(), path);
+        return !Objects.equals(Tree.lookup(commit.tree(), path), parentBlob);
+    }
+
+    /** Return the path, in the first parent of commit ID, of the file at
+     *  PATH in ID: PATH itself unless ID added it as a rename or copy of
+     *  another file. */
+    private static String origin(String id, String path) {
+        Commit commit = Commit.load(id);
+        List<String> parents = Repository.shallow().parents(id, commit);
+        if (parents.isEmpty()) {
+            return path;
+        }
+        String parent = Commit.load(parents.get(0)).tree();
+        if (Tree.lookup(parent, path) != null) {
+            return path;
+        }
+        for (Rename rename : Repository.renames(parent, commit.tree())) {
+            if (rename.to().equals(path)) {
+                return rename.from();
+            }
+        }
+        return path;
+    }
+
+    /** Return the names of the files whose blobs in COMMIT, whose id is
+     *  ID, differ from those in its first parent, including files added or
+     *  removed.  A commit on the shallow boundary is compared with an
+     *  empty tree. */
+    private static TreeSet<String> changedPaths(String id, Commit commit) {
+        List<String> parents = Repository.shallow().parents(id, commit);
+        String theirs = parents.isEmpty() ? null
+            : Commit.load(parents.get(0)).tree();
+        return new TreeSet<>(Tree.diff(theirs, commit.tree()).keySet());
+    }
+
+    /** Read the records of FILE, which holds filters if PATHS and messages
+     *  otherwise, from offset FROM into this index.  Return the offset
+     *  just past the complete records read. */
+    private long readRecords(File file, boolean paths, long from) {
+        if (!file.isFile()) {
+            return from;
+        }
+        long valid = from;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            in.skipNBytes(from);
+            while (true) {
+                String id = Codec.readId(in);
+                if (paths) {
+                    byte[] bits = new byte[in.readInt()];
+                    in.readFully(bits);
+                    filters.put(id, new BloomFilter(bits));
+                    valid += Utils.UID_LENGTH / 2 + 4 + bits.length;
+                } else {
+                    String message = Codec.readString(in);
+                    addMessage(message, id);
+                    valid += Utils.UID_LENGTH / 2 + 4
+                        + message.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        } catch (EOFException excp) {
+            return valid;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Cut FILE back to its first LENGTH bytes, if it is longer. */
+    private static void truncate(File file, long length) {
+        if (!file.isFile() || file.length() <= length) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream appending to FILE. */
+    private static DataOutputStream append(File file) throws IOException {
+        return new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    /** File of changed-path filters. */
+    private final File pathsFile;
+    /** File of commit messages. */
+    private final File messagesFile;
+    /** Lengths of the complete records read from PATHSFILE and
+     *  MESSAGESFILE. */
+    private long pathsLength, messagesLength;
+    /** True once the index files have first been read. */
+    private boolean loaded;
+    /** Changed-path filters, keyed by commit id. */
+    private final HashMap<String, BloomFilter> filters = new HashMap<>();
+    /** Ids of commits, in the order made, keyed by message. */
+    private final HashMap<String, List<String>> messages = new HashMap<>();
+}
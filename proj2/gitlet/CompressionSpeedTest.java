@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Harness.*;
+
+/** Compares the space taken on disk by loose objects and the speed of
+ *  storing and reading them under each Compressor, and under the choice
+ *  Compressor.choose makes.  Usage:
+ *      java gitlet.CompressionSpeedTest [MEGABYTES]
+ *  stores about MEGABYTES (default 16) of each of several corpora in a
+ *  fresh ObjectStore per Compressor, in a temporary directory, and
+ *  reports the bytes on disk as a percentage of the contents, and the
+ *  megabytes of contents stored and read back per second.  It exits
+ *  with an error if any object reads back differently.  The corpora
+ *  are
+ *      small text   many short text files, like those of SyntheticRepo
+ *      large text   the same text in objects of 8 MB, which choose
+ *                   leaves to LZ
+ *      repetitive   objects of 256 KB repeating a short pattern
+ *      random       objects of 256 KB of random bytes
+ *      mixed        objects of 256 KB that are half text, half random
+ *  @author SuuTou
+ */
+public class CompressionSpeedTest {
+
+    /** Run the comparison as described in the class comment, with ARGS
+     *  giving the optional size. */
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long total = (long) megabytes << 20;
+        Random random = new Random(61);
+        String[] names = {
+            "small text", "large text", "repetitive", "random", "mixed"
+        };
+        List<List<byte[]>> corpora = List.of(
+            text(total, 0, random), text(total, LARGE, random),
+            repetitive(total), random(total, random), mixed(total, random));
+        Compressor[] codecs = { null, Compressor.RAW, Compressor.DEFLATE,
+                                Compressor.LZ };
+
+        File dir = Files.createTempDirectory("gitlet-compress").toFile();
+        try {
+            for (int round = 0; round < 2; round += 1) {
+                System.out.printf("Round %d:%n", round + 1);
+                for (int c = 0; c < names.length; c += 1) {
+                    for (Compressor codec : codecs) {
+                        measure(names[c], corpora.get(c), codec,
+                                new File(dir, round + "-" + c + "-" + codec));
+                    }
+                }
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Store OBJECTS, the corpus NAME, in a new ObjectStore under DIR
+     *  with CODEC (null to let the store choose), read them back, and
+     *  report the space and time taken. */
+    private static void measure(String name, List<byte[]> objects,
+                                Compressor codec, File dir) {
+        ObjectStore store = new ObjectStore(dir);
+        long bytes = 0;
+        List<String> ids = new ArrayList<>(objects.size());
+        long start = System.nanoTime();
+        for (byte[] contents : objects) {
+            ids.add(store.put(contents, codec));
+            bytes += contents.length;
+        }
+        double put = seconds(start);
+        byte[][] back = new byte[ids.size()][];
+        start = System.nanoTime();
+        for (int k = 0; k < back.length; k += 1) {
+            back[k] = store.read(ids.get(k));
+        }
+        double read = seconds(start);
+        for (int k = 0; k < back.length; k += 1) {
+            check(Arrays.equals(back[k], objects.get(k)),
+                  "%s object %d of %s reads back differently",
+                  codec, k, name);
+        }
+        long disk = 0;
+        for (String id : ids) {
+            disk += store.fileFor(id).length();
+        }
+        System.out.printf("  %-10s %-7s %6.1f%% on disk %8.1f MB/s store "
+                          + "%8.1f MB/s read%n", name,
+                          codec == null ? "auto" : codec.name().toLowerCase(),
+                          100.0 * disk / bytes, bytes / put / 1e6,
+                          bytes / read / 1e6);
+    }
+
+    /** Return about TOTAL bytes of generated text, as objects of SIZE
+     *  bytes, or as single SyntheticRepo files if SIZE is 0, drawn from
+     *  RANDOM. */
+    private static List<byte[]> text(long total, int size, Random random) {
+        List<byte[]> result = new ArrayList<>();
+        for (long n = 0; n < total; ) {
+            byte[] contents;
+            if (size == 0) {
+                contents = SyntheticRepo.contents(random);
+            } else {
+                contents = new byte[size];
+                for (int k = 0; k < size; ) {
+                    byte[] file = SyntheticRepo.contents(random);
+                    int len = Math.min(file.length, size - k);
+                    System.arraycopy(file, 0, contents, k, len);
+                    k += len;
+                }
+            }
+            result.add(contents);
+            n += contents.length;
+        }
+        return result;
+    }
+
+    /** Return about TOTAL bytes of objects each repeating a short pattern
+     *  that differs between objects. */
+    private static List<byte[]> repetitive(long total) {
+        List<byte[]> result = new ArrayList<>();
+        for (int k = 0; (long) k * OBJECT < total; k += 1) {
+            byte[] pattern = ("pattern " + k + " ").getBytes();
+            byte[] contents = new byte[OBJECT];
+            for (int i = 0; i < OBJECT; i += 1) {
+                contents[i] = pattern[i % pattern.length];
+            }
+            result.add(contents);
+        }
+        return result;
+    }
+
+    /** Return about TOTAL bytes of objects of random bytes drawn from
+     *  RANDOM. */
+    private static List<byte[]> random(long total, Random random) {
+        List<byte[]> result = new ArrayList<>();
+        for (long n = 0; n < total; n += OBJECT) {
+            byte[] contents = new byte[OBJECT];
+            random.nextBytes(contents);
+            result.add(contents);
+        }
+        return result;
+    }
+
+    /** Return about TOTAL bytes of objects whose first halves are text and
+     *  second halves random bytes, drawn from RANDOM. */
+    private static List<byte[]> mixed(long total, Random random) {
+        List<byte[]> result = new ArrayList<>();
+        for (long n = 0; n < total; n += OBJECT) {
+            byte[] contents = new byte[OBJECT];
+            for (int k = 0; k < OBJECT / 2; ) {
+                byte[] file = SyntheticRepo.contents(random);
+                int len = Math.min(file.length, OBJECT / 2 - k);
+                System.arraycopy(file, 0, contents, k, len);
+                k += len;
+            }
+            byte[] noise = new byte[OBJECT / 2];
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, contents, OBJECT / 2, noise.length);
+            result.add(contents);
+        }
+        return result;
+    }
+
+    /** Length of the objects of most corpora. */
+    private static final int OBJECT = 1 << 18;
+    /** Length of the objects of the large text corpus. */
+    private static final int LARGE = 8 << 20;
+}
@@ -0,0 +1,344 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** The ways the contents of a loose object may be stored.  A compressed
+ *  object's file is
+ *      "GOBJ" <codec> <length> <data>
+ *  where <codec> is the byte code of the Compressor that produced <data>
+ *  and <length> is the long length of the object's contents.  An object
+ *  stored RAW has no header at all, so that its file is its contents and
+ *  can be hard-linked into the working directory, unless its contents
+ *  start with "GOBJ" themselves, in which case it gets a RAW header to
+ *  keep the two apart.
+ *
+ *  choose picks a Compressor for each object from its length and the
+ *  byte entropy of its start: objects too small to gain anything, or
+ *  that look incompressible, are stored RAW; large ones use the fast LZ
+ *  codec, so that adding and checking them out stays near disk speed;
+ *  and the rest use DEFLATE.  Byte entropy misses structure spanning
+ *  several bytes, so a start that looks incompressible by it is given a
+ *  trial compression by Lz before being stored RAW.  ObjectStore stores
+ *  the largest files CHUNKED instead, each chunk compressed as the whole
+ *  file would have been.
+ *
+ *  @author SuuTou
+ */
+enum Compressor {
+
+    /** Contents stored as they are. */
+    RAW(0) {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+
+    /** Contents compressed with zlib's DEFLATE, at its default level. */
+    DEFLATE(1) {
+        @Override
+        OutputStream compress(OutputStream out) {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            return new DeflaterOutputStream(out, deflater, STREAM_BUFFER);
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return new InflaterInputStream(in, new Inflater(),
+                                           STREAM_BUFFER) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inf.end();
+                    }
+                }
+            };
+        }
+    },
+
+    /** Contents compressed with Lz, trading ratio for speed. */
+    LZ(2) {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return new Lz.Output(out);
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return new Lz.Input(in);
+        }
+    },
+
+    /** Contents split by a Chunker into chunks stored as objects of their
+     *  own, with the chunk list as data.  Only ObjectStore, which can
+     *  read the chunks, can rebuild such contents, so decode refuses
+     *  them; the streams here just pass the list through. */
+    CHUNKED(3) {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return in;
+        }
+    };
+
+    /** Magic number starting the header of a stored object. */
+    static final String MAGIC = "GOBJ";
+    /** Length of the header. */
+    static final int HEADER = 4 + 1 + 8;
+    /** Objects shorter than this are always stored RAW. */
+    static final int MIN_COMPRESSED = 128;
+    /** Objects at least this long that are compressed use LZ. */
+    static final long FAST_THRESHOLD = 4L << 20;
+    /** Objects whose samples have more bits of entropy per byte than
+     *  this may be incompressible. */
+    static final double MAX_ENTROPY = 7.5;
+    /** Objects whose samples Lz cannot shrink below this fraction are
+     *  incompressible. */
+    static final double MAX_RATIO = 0.9;
+    /** Length of the start of an object whose entropy is measured. */
+    static final int SAMPLE = 1 << 16;
+
+    /** A Compressor written in headers as CODE. */
+    Compressor(int code) {
+        this.code = code;
+    }
+
+    /** Return a stream that writes what is written to it to OUT in this
+     *  Compressor's form.  Closing it closes OUT.  A thread may have only
+     *  one such stream open at a time. */
+    abstract OutputStream compress(OutputStream out);
+
+    /** Return a stream reading the contents held in this Compressor's
+     *  form in IN.  Closing it closes IN. */
+    abstract InputStream decompress(InputStream in);
+
+    /** Return the Compressor to use for an object of LENGTH bytes that
+     *  start with the N bytes of SAMPLE. */
+    static Compressor choose(byte[] sample, int n, long length) {
+        n = Math.min(n, SAMPLE);
+        if (length < MIN_COMPRESSED) {
+            return RAW;
+        } else if (entropy(sample, n) > MAX_ENTROPY
+                   && Lz.compress(sample, n, new byte[Lz.bound(n)])
+                       > n * MAX_RATIO) {
+            return RAW;
+        }
+        return length >= FAST_THRESHOLD ? LZ : DEFLATE;
+    }
+
+    /** Return the Compressor named NAME (in any case), or null if there is
+     *  none or it is CHUNKED, which stores no contents of its own. */
+    static Compressor named(String name) {
+        for (Compressor c : values()) {
+            if (c != CHUNKED && c.name().equalsIgnoreCase(name)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /** Return true iff an object stored by this Compressor whose contents
+     *  start with the N bytes of SAMPLE needs a header. */
+    boolean needsHeader(byte[] sample, int n) {
+        return this != RAW || hasMagic(sample, n);
+    }
+
+    /** Write a header for an object of LENGTH bytes stored by this
+     *  Compressor to OUT. */
+    void writeHeader(OutputStream out, long length) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeBytes(MAGIC);
+        data.writeByte(code);
+        data.writeLong(length);
+        data.flush();
+    }
+
+    /** Return the stored form, with any header needed, of the object whose
+     *  contents are the first N bytes of CONTENTS, as compressed by this
+     *  Compressor. */
+    byte[] encode(byte[] contents, int n) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(n / 2 + 64);
+        if (needsHeader(contents, n)) {
+            writeHeader(result, n);
+        }
+        try (OutputStream out = compress(result)) {
+            out.write(contents, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    /** Return the contents of the stored object STORED, which must not
+     *  be CHUNKED. */
+    static byte[] decode(byte[] stored) {
+        if (!hasMagic(stored, stored.length)) {
+            return stored;
+        } else if (isChunked(stored)) {
+            throw new IllegalArgumentException("chunked object");
+        }
+        try (InputStream in = of(stored[4]).decompress(
+                 new ByteArrayInputStream(stored, HEADER,
+                                          stored.length - HEADER))) {
+            long length = lengthOf(stored);
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("object too large");
+            }
+            byte[] result = new byte[(int) length];
+            new DataInputStream(in).readFully(result);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt object: "
+                                               + excp.getMessage());
+        }
+    }
+
+    /** Return a stream reading the contents of the stored object read
+     *  from IN, which must not be CHUNKED.  Closing it closes IN. */
+    static InputStream decode(InputStream in) throws IOException {
+        BufferedInputStream buffered =
+            new BufferedInputStream(in, ObjectStore.BUFFER_SIZE);
+        byte[] head = new byte[HEADER];
+        buffered.mark(HEADER);
+        int n = buffered.readNBytes(head, 0, HEADER);
+        if (!hasMagic(head, n)) {
+            buffered.reset();
+            return buffered;
+        }
+        if (n < HEADER) {
+            throw new EOFException("truncated object header");
+        } else if (head[4] == CHUNKED.code) {
+            throw new IOException("chunked object");
+        }
+        return of(head[4]).decompress(buffered);
+    }
+
+    /** Return true iff the object stored in FILE is stored RAW without a
+     *  header, so that FILE holds exactly its contents. */
+    static boolean isPlain(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return isPlain(in.readNBytes(MAGIC.length()));
+        }
+    }
+
+    /** Return true iff STORED, the stored form of an object, or its start,
+     *  is the object's contents, stored RAW without a header. */
+    static boolean isPlain(byte[] stored) {
+        return !hasMagic(stored, stored.length);
+    }
+
+    /** Return true iff STORED, the stored form of an object, or its start,
+     *  is of an object stored CHUNKED. */
+    static boolean isChunked(byte[] stored) {
+        return stored.length >= HEADER && hasMagic(stored, stored.length)
+            && stored[4] == CHUNKED.code;
+    }
+
+    /** Return the chunk list of the object stored CHUNKED in FILE, or null
+     *  if it is stored otherwise.  Only the header is read unless it is
+     *  CHUNKED. */
+    static byte[] chunkList(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] head = in.readNBytes(HEADER);
+            return isChunked(head) ? in.readAllBytes() : null;
+        }
+    }
+
+    /** Return the length of the contents of the object stored in FILE. */
+    static long length(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] head = in.readNBytes(HEADER);
+            if (!hasMagic(head, head.length)) {
+                return file.length();
+            }
+            return lengthOf(head);
+        }
+    }
+
+    /** Return the bits of entropy per byte of the first N bytes of DATA,
+     *  or of its first SAMPLE bytes if N is larger, taken as independent
+     *  draws. */
+    static double entropy(byte[] data, int n) {
+        n = Math.min(n, SAMPLE);
+        int[] counts = new int[256];
+        for (int i = 0; i < n; i += 1) {
+            counts[data[i] & 0xff] += 1;
+        }
+        double bits = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = count / (double) n;
+                bits -= p * Math.log(p);
+            }
+        }
+        return bits / Math.log(2);
+    }
+
+    /** Return the Compressor written in headers as CODE. */
+    private static Compressor of(int code) throws IOException {
+        for (Compressor c : values()) {
+            if (c.code == code) {
+                return c;
+            }
+        }
+        throw new IOException("unknown compressor " + code);
+    }
+
+    /** Return true iff the first N bytes of DATA start with MAGIC. */
+    private static boolean hasMagic(byte[] data, int n) {
+        return n >= MAGIC.length()
+            && Arrays.equals(data, 0, MAGIC.length(), MAGIC_BYTES, 0,
+                             MAGIC.length());
+    }
+
+    /** Return the length recorded in the header at the start of HEAD. */
+    private static long lengthOf(byte[] head) throws IOException {
+        if (head.length < HEADER) {
+            throw new EOFException("truncated object header");
+        }
+        long result = 0;
+        for (int i = 5; i < HEADER; i += 1) {
+            result = (result << 8) | (head[i] & 0xff);
+        }
+        return result;
+    }
+
+    /** Size of the buffers of compressing and decompressing streams. */
+    private static final int STREAM_BUFFER = 1 << 13;
+    /** Per-thread Deflater, reused since setting one up is costly. */
+    private static final ThreadLocal<Deflater> DEFLATERS =
+        ThreadLocal.withInitial(Deflater::new);
+
+    /** MAGIC as bytes. */
+    private static final byte[] MAGIC_BYTES =
+        MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+    /** Code of this Compressor in headers. */
+    private final int code;
+}
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Harness.*;
+import static gitlet.Utils.*;
+
+/** Hammers one repository from many processes at once, and checks that
+ *  no update is lost and nothing is corrupted.  Usage:
+ *      java gitlet.ConcurrencyStressTest [WRITERS [ROUNDS]]
+ *  makes a repository in a temporary directory and starts WRITERS
+ *  (default 4) writer processes and as many reader processes in it.  In
+ *  each of ROUNDS (default 200) rounds, each writer rewrites and adds a
+ *  file of its own, and commits it onto a branch shared by all writers,
+ *  by a compare-and-swap of the branch retried on conflict.  Meanwhile
+ *  each reader repeatedly reads the staging area, the shared branch and
+ *  its head commit, and reopens the commit graph and index, reporting the
+ *  longest a read took.  Finally the staging area must hold every
+ *  writer's last version, the shared branch must be a chain of exactly
+ *  WRITERS * ROUNDS commits, and the commit graph must record each of
+ *  them once, with the right parent.
+ *  @author SuuTou
+ */
+public class ConcurrencyStressTest {
+
+    /** Run the test as described in the class comment, with ARGS giving
+     *  the optional counts; or, if ARGS starts with a role, play that role
+     *  in the repository in the current directory. */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("setup")) {
+            setup();
+        } else if (args.length > 0 && args[0].equals("writer")) {
+            writer(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        } else if (args.length > 0 && args[0].equals("reader")) {
+            reader(Integer.parseInt(args[1]));
+        } else if (args.length > 0 && args[0].equals("verify")) {
+            verify(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        } else {
+            int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+            int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            drive(writers, rounds);
+        }
+    }
+
+    /** Run the whole test with WRITERS writers of ROUNDS rounds each. */
+    private static void drive(int writers, int rounds) throws Exception {
+        File dir = Files.createTempDirectory("gitlet-stress").toFile();
+        try {
+            run(dir, "setup").waitFor();
+            long start = System.nanoTime();
+            List<Process> writing = new ArrayList<>();
+            List<Process> reading = new ArrayList<>();
+            for (int k = 0; k < writers; k += 1) {
+                writing.add(run(dir, "writer", "" + k, "" + rounds));
+                reading.add(run(dir, "reader", "" + k));
+            }
+            boolean ok = true;
+            for (Process p : writing) {
+                ok &= p.waitFor() == 0;
+            }
+            double secs = seconds(start);
+            writeContents(join(dir, STOP), "");
+            for (Process p : reading) {
+                ok &= p.waitFor() == 0;
+            }
+            System.out.printf("%d writers x %d rounds in %.2f s: "
+                              + "%.0f add+commit pairs/s%n", writers,
+                              rounds, secs, writers * rounds / secs);
+            ok &= run(dir, "verify", "" + writers, "" + rounds).waitFor()
+                == 0;
+            System.out.println(ok ? "PASSED" : "FAILED");
+            if (!ok) {
+                System.exit(1);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Make an empty repository with an initial commit on branches
+     *  "master" and SHARED. */
+    private static void setup() {
+        Repository.OBJECTS_DIR.mkdirs();
+        Repository.BRANCHES_DIR.mkdirs();
+        String initial = new Commit("initial commit", new Date(0),
+                                    List.of(), Map.of()).save();
+        writeContents(join(Repository.BRANCHES_DIR, "master"), initial);
+        writeContents(join(Repository.BRANCHES_DIR, SHARED), initial);
+        writeContents(Repository.HEAD_FILE, "master");
+    }
+
+    /** Play writer K for ROUNDS rounds. */
+    private static void writer(int k, int rounds) {
+        String name = "w" + k;
+        File file = join(Repository.CWD, name);
+        File ref = join(Repository.BRANCHES_DIR, SHARED);
+        for (int r = 0; r < rounds; r += 1) {
+            writeContents(file, version(k, r));
+            Main.run(new String[] { "add", name });
+            String blob = StagingArea.load(Repository.STAGING_FILE)
+                .added().get(name);
+            String message = name + "-" + r;
+            Transaction.retry(() -> {
+                Transaction txn = new Transaction(Repository.GITLET_DIR);
+                String parent = txn.readString(ref);
+                String tree = Tree.update(Commit.load(parent).tree(),
+                                          Map.of(name, blob));
+                txn.write(ref, new Commit(message, new Date(), List.of(parent),
+                                          tree).save());
+                return txn.commit();
+            });
+        }
+    }
+
+    /** Play reader K until the stop file appears. */
+    private static void reader(int k) {
+        File stop = join(Repository.CWD, STOP);
+        File ref = join(Repository.BRANCHES_DIR, SHARED);
+        long reads = 0;
+        long longest = 0;
+        while (!stop.exists()) {
+            long start = System.nanoTime();
+            StagingArea.load(Repository.STAGING_FILE);
+            String head = readContentsAsString(ref);
+            Commit.load(head).blobs();
+            if (reads % 20 == 0) {
+                Repository.forgetCaches();
+                Repository.commitGraph();
+                Repository.commitIndex().find("w0-0");
+            }
+            longest = Math.max(longest, System.nanoTime() - start);
+            reads += 1;
+        }
+        System.out.print(String.format("reader %d: %d reads, longest "
+                                       + "%.1f ms%n", k, reads,
+                                       longest / 1e6));
+    }
+
+    /** Check the repository after WRITERS writers of ROUNDS rounds. */
+    private static void verify(int writers, int rounds) {
+        Map<String, String> staged =
+            StagingArea.load(Repository.STAGING_FILE).added();
+        for (int k = 0; k < writers; k += 1) {
+            String last = sha1((Object) version(k, rounds - 1));
+            check(last.equals(staged.get("w" + k)),
+                  "lost staging update of w" + k);
+        }
+
+        List<String> chain = new ArrayList<>();
+        String id = readContentsAsString(
+            join(Repository.BRANCHES_DIR, SHARED));
+        while (!Commit.load(id).parents().isEmpty()) {
+            chain.add(id);
+            id = Commit.load(id).parents().get(0);
+        }
+        check(chain.size() == writers * rounds,
+              "shared branch has " + chain.size() + " commits, not "
+              + writers * rounds);
+        HashSet<String> messages = new HashSet<>();
+        for (String c : chain) {
+            check(messages.add(Commit.load(c).message()),
+                  "commit " + Commit.load(c).message() + " made twice");
+        }
+
+        ByteBuffer graph =
+            ByteBuffer.wrap(readContents(Repository.COMMIT_GRAPH_FILE));
+        int count = graph.getInt(8);
+        HashSet<String> recorded = new HashSet<>();
+        for (int i = 0; i < count; i += 1) {
+            byte[] raw = new byte[UID_LENGTH / 2];
+            graph.get(12 + i * GRAPH_RECORD, raw);
+            check(recorded.add(PackFile.toHex(raw)),
+                  "commit graph records a commit twice");
+        }
+        CommitGraph commits = Repository.commitGraph();
+        for (String c : chain) {
+            check(recorded.contains(c), "commit graph lacks a commit");
+            check(commits.parents(c).equals(Commit.load(c).parents()),
+                  "commit graph has the wrong parent for a commit");
+        }
+        System.out.printf("verified: %d staged files, %d chained commits, "
+                          + "%d graph records%n", staged.size(),
+                          chain.size(), count);
+    }
+
+    /** Return the contents of writer K's file in round R. */
+    private static byte[] version(int k, int r) {
+        return ("writer " + k + " round " + r + "\n")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Start a process playing ROLE in directory DIR. */
+    private static Process run(File dir, String... role) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-cp", System.getProperty("java.class.path"),
+            ConcurrencyStressTest.class.getName()));
+        command.addAll(List.of(role));
+        return new ProcessBuilder(command).directory(dir).inheritIO().start();
+    }
+
+    /** Name of the branch all writers commit to. */
+    private static final String SHARED = "shared";
+    /** Name of the file telling readers to stop. */
+    private static final String STOP = "stop";
+    /** Length of a commit graph record. */
+    private static final int GRAPH_RECORD = UID_LENGTH / 2 + 4 + 4 + 4 + 8;
+}
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A long-lived gitlet server for one repository, which saves each
+ *  command the cost of starting a JVM and of re-reading the commit graph,
+ *  indices and recently used objects.  "java gitlet.Main daemon" serves
+ *  the repository in the current directory on a Unix domain socket at
+ *  .gitlet/daemon.sock, and Client forwards its arguments there;
+ *  "java gitlet.Client daemon --stop" stops it.
+ *
+ *  A request is the client's working directory followed by the command's
+ *  arguments, each as a modified-UTF-8 string, preceded by their count.
+ *  The reply is the command's output followed by end of stream.
+ *  Commands run one at a time, exactly as Main would run them, with
+ *  System.out redirected to the reply.
+ *
+ *  Objects never change once written, so cached objects stay valid, but
+ *  other processes may still use the repository directly.  Before each
+ *  command, the daemon compares the modification times and lengths of
+ *  the repository's mutable files with those it saw after its last
+ *  command, and discards its cached state if anything differs.  It
+ *  compares those of the loose objects' fan-out directories the same
+ *  way, and if only they differ, it just forgets its listings of them,
+ *  which abbreviated ids are resolved against.
+ *
+ *  @author SuuTou
+ */
+class Daemon {
+
+    /** Name of the socket file within the repository directory. */
+    static final String SOCKET = "daemon.sock";
+    /** Option to the daemon command asking a running daemon to exit. */
+    static final String STOP = "--stop";
+
+    /** Return the socket file of the repository in the current
+     *  directory. */
+    static File socketFile() {
+        return join(Repository.GITLET_DIR, SOCKET);
+    }
+
+    /** Serve the repository in the current directory until asked to
+     *  stop. */
+    static void serve() {
+        Repository.checkInitialized();
+        File socket = socketFile();
+        try {
+            Files.deleteIfExists(socket.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            long seen = stateSignature();
+            long seenObjects = objectsSignature();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    String[] request = readRequest(client);
+                    if (stateSignature() != seen) {
+                        Repository.forgetCaches();
+                    } else if (objectsSignature() != seenObjects) {
+                        Repository.OBJECTS.refresh();
+                    }
+                    running = !(request.length == 3
+                                && "daemon".equals(request[1])
+                                && STOP.equals(request[2]));
+                    byte[] reply = running ? run(request)
+                        : "Daemon stopped.\n".getBytes(StandardCharsets.UTF_8);
+                    seen = stateSignature();
+                    seenObjects = objectsSignature();
+                    client.write(ByteBuffer.wrap(reply));
+                } catch (IOException excp) {
+                    /* A client went away mid-request; serve the next. */
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            socket.delete();
+        }
+    }
+
+    /** Run the command in REQUEST, whose first element is the client's
+     *  working directory, and return everything it printed. */
+    private static byte[] run(String[] request) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            if (!new File(request[0]).getAbsoluteFile()
+                .equals(Repository.CWD.getAbsoluteFile())) {
+                throw error("Daemon serves %s only.", Repository.CWD);
+            }
+            String[] args = new String[request.length - 1];
+            System.arraycopy(request, 1, args, 0, args.length);
+            if (args.length > 0 && args[0].equals("daemon")) {
+                throw error("Daemon already running.");
+            }
+            Main.run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (RuntimeException excp) {
+            System.out.println("Internal error: " + excp);
+        } finally {
+            System.setOut(stdout);
+            out.flush();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the request sent on CLIENT: the client's directory followed
+     *  by its arguments. */
+    private static String[] readRequest(SocketChannel client)
+        throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        String[] request = new String[in.readInt()];
+        for (int i = 0; i < request.length; i += 1) {
+            request[i] = in.readUTF();
+        }
+        return request;
+    }
+
+    /** Send the request for ARGS, from working directory DIR, on
+     *  CHANNEL. */
+    static void writeRequest(SocketChannel channel, String dir,
+                             String[] args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(args.length + 1);
+        out.writeUTF(dir);
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+        channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /** Return a checksum of the names, modification times and lengths of
+     *  the repository's mutable files and directories. */
+    private static long stateSignature() {
+        CRC32 crc = new CRC32();
+        File[] watched = {
+            Repository.HEAD_FILE, Repository.STAGING_FILE,
+            Repository.INDEX_FILE, Repository.COMMIT_GRAPH_FILE,
+            Repository.CHANGED_PATHS_FILE, Repository.MESSAGES_FILE,
+            Repository.SHALLOW_FILE,
+            Repository.BRANCHES_DIR, join(Repository.OBJECTS_DIR, "pack"),
+        };
+        for (File file : watched) {
+            addStat(crc, file);
+        }
+        File[] branches = Repository.BRANCHES_DIR.listFiles();
+        if (branches != null) {
+            for (File branch : branches) {
+                addStat(crc, branch);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** Return a checksum of the names, modification times and lengths of
+     *  the fan-out directories of loose objects, each of which changes
+     *  whenever an object is added to or removed from it. */
+    private static long objectsSignature() {
+        CRC32 crc = new CRC32();
+        File[] fanouts = Repository.OBJECTS_DIR.listFiles();
+        if (fanouts != null) {
+            for (File fanout : fanouts) {
+                addStat(crc, fanout);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** Add the name, modification time and length of FILE to CRC. */
+    private static void addStat(CRC32 crc, File file) {
+        String stat = file.getPath() + ":" + file.lastModified() + ":"
+            + file.length() + ";";
+        crc.update(stat.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Binary deltas between two byte sequences.  A delta is a sequence of
+ *  instructions that rebuild a target from a base: COPY instructions take
+ *  a run of bytes from the base, INSERT instructions carry literal bytes.
+ *  The encoded form is
+ *      <base length> <target length> <instruction>*
+ *  with lengths and offsets written as unsigned varints, COPY encoded as
+ *  the byte 1 followed by offset and length, and INSERT as the byte 0
+ *  followed by a length and that many literal bytes.
+ *
+ *  Matches are found by indexing every BLOCK-byte block of the base by a
+ *  polynomial hash and sliding a rolling hash of the same width along the
+ *  target, extending each verified match as far as it goes in both
+ *  directions.
+ *
+ *  @author SuuTou
+ */
+class Delta {
+
+    /** Width of the blocks indexed in the base. */
+    static final int BLOCK = 16;
+
+    /** Instruction code for a run of literal bytes. */
+    private static final int INSERT = 0;
+    /** Instruction code for a run copied from the base. */
+    private static final int COPY = 1;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME raised to the power BLOCK, used to drop the outgoing byte. */
+    private static final int PRIME_POW;
+
+    static {
+        int p = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        PRIME_POW = p;
+    }
+
+    /** Return a delta that rebuilds TARGET from BASE. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int pending = 0;
+        int i = 0;
+        int h = 0;
+        boolean hashed = false;
+        while (i + BLOCK <= target.length) {
+            if (!hashed) {
+                h = blockHash(target, i);
+                hashed = true;
+            }
+            int match = table.length == 0 ? 0 : table[mix(h) & mask];
+            if (match != 0
+                && regionEquals(base, match - 1, target, i, BLOCK)) {
+                int b = match - 1;
+                while (b > 0 && i > pending && base[b - 1] == target[i - 1]) {
+                    b -= 1;
+                    i -= 1;
+                }
+                int len = 0;
+                while (b + len < base.length && i + len < target.length
+                       && base[b + len] == target[i + len]) {
+                    len += 1;
+                }
+                writeInsert(out, target, pending, i);
+                out.write(COPY);
+                writeVarint(out, b);
+                writeVarint(out, len);
+                i += len;
+                pending = i;
+                hashed = false;
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = h * PRIME + target[i + BLOCK] - PRIME_POW * target[i];
+            }
+            i += 1;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the length of the target described by the delta DELTA. */
+    static long targetLength(byte[] delta) {
+        int[] pos = { 0 };
+        readVarint(delta, pos);
+        return readVarint(delta, pos);
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            apply(base, new ByteArrayInputStream(delta), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    /** Read a delta from DELTA, apply it to BASE, and write the resulting
+     *  bytes to OUT as they are produced, so that neither the delta nor the
+     *  target need be held in memory.  Each instruction is checked against
+     *  the lengths of the base and target before it is carried out, so a
+     *  corrupt delta throws IllegalArgumentException rather than reading
+     *  outside BASE. */
+    static void apply(byte[] base, InputStream delta, OutputStream out)
+        throws IOException {
+        long baseLength = readVarint(delta);
+        long targetLength = readVarint(delta);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not match base");
+        }
+        byte[] buffer = new byte[8192];
+        long written = 0;
+        int op;
+        while ((op = delta.read()) != -1) {
+            if (op == COPY) {
+                long offset = readVarint(delta);
+                long len = readVarint(delta);
+                if (offset > base.length || len > base.length - offset
+                    || len > targetLength - written) {
+                    throw new IllegalArgumentException("corrupt delta");
+                }
+                out.write(base, (int) offset, (int) len);
+                written += len;
+            } else if (op == INSERT) {
+                long len = readVarint(delta);
+                if (len > targetLength - written) {
+                    throw new IllegalArgumentException("corrupt delta");
+                }
+                written += len;
+                while (len > 0) {
+                    int n = delta.read(buffer, 0,
+                                       (int) Math.min(buffer.length, len));
+                    if (n < 0) {
+                        throw new IllegalArgumentException("truncated delta");
+                    }
+                    out.write(buffer, 0, n);
+                    len -= n;
+                }
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (written != targetLength) {
+            throw new IllegalArgumentException("truncated delta");
+        }
+    }
+
+    /** Return an open-addressed table mapping the hash of each aligned
+     *  BLOCK-byte block of BASE to one more than its offset (0 marks an
+     *  empty slot).  Later blocks overwrite earlier ones on collision. */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        if (blocks == 0) {
+            return new int[0];
+        }
+        int size = Integer.highestOneBit(blocks * 2 - 1) << 1;
+        int[] table = new int[size];
+        for (int b = 0; b + BLOCK <= base.length; b += BLOCK) {
+            table[mix(blockHash(base, b)) & (size - 1)] = b + 1;
+        }
+        return table;
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at OFFSET. */
+    private static int blockHash(byte[] data, int offset) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + data[offset + k];
+        }
+        return h;
+    }
+
+    /** Return H with its high bits folded into its low ones, so that
+     *  masking keeps them. */
+    private static int mix(int h) {
+        return h ^ (h >>> 16) ^ (h >>> 7);
+    }
+
+    /** Return true iff the LEN bytes of A at AOFF equal those of B at
+     *  BOFF. */
+    private static boolean regionEquals(byte[] a, int aOff, byte[] b,
+                                        int bOff, int len) {
+        if (aOff + len > a.length || bOff + len > b.length) {
+            return false;
+        }
+        for (int k = 0; k < len; k += 1) {
+            if (a[aOff + k] != b[bOff + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write an INSERT of bytes FROM..TO-1 of DATA to OUT, if non-empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /** Write the non-negative VAL to OUT as an unsigned varint. */
+    static void writeVarint(ByteArrayOutputStream out, long val) {
+        while ((val & ~0x7FL) != 0) {
+            out.write((int) ((val & 0x7F) | 0x80));
+            val >>>= 7;
+        }
+        out.write((int) val);
+    }
+
+    /** Return the unsigned varint at POS[0] in DATA, advancing POS[0]
+     *  past it. */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            if (pos[0] >= data.length || shift > 63) {
+                throw new IllegalArgumentException("truncated delta");
+            }
+            int b = data[pos[0]] & 0xFF;
+            pos[0] += 1;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    /** Return the next unsigned varint read from IN. */
+    static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b < 0 || shift > 63) {
+                throw new IllegalArgumentException("truncated delta");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+}
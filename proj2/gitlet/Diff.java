@@ -0,0 +1,386 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-level differences between two texts, computed with the linear-
+ *  space form of Myers' O(ND) algorithm.  Texts are read a line at a time
+ *  through an Interner, which gives equal lines equal numbers, so that the
+ *  algorithm compares ints and each distinct line is held in memory once
+ *  however often it occurs.
+ *
+ *  The result of diff is a list of Edits, each replacing a run of lines of
+ *  the first text by a run of lines of the second; either run may be
+ *  empty.  writeUnified prints them hunk by hunk in unified diff format.
+ *
+ *  @author SuuTou
+ */
+class Diff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** A change replacing lines [aStart, aEnd) of the first text by lines
+     *  [bStart, bEnd) of the second. */
+    static class Edit {
+        /** An edit replacing lines [ASTART, AEND) of the first text by
+         *  lines [BSTART, BEND) of the second. */
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d,%d)->[%d,%d)", aStart, aEnd,
+                                 bStart, bEnd);
+        }
+
+        /** Bounds of the replaced lines of the first text. */
+        final int aStart, aEnd;
+        /** Bounds of the replacing lines of the second text. */
+        final int bStart, bEnd;
+    }
+
+    /** Numbers lines so that equal lines get equal numbers. */
+    static class Interner {
+        /** Return the numbers of the lines read from IN, which is read to
+         *  its end and closed.  Lines are taken to be UTF-8, and their
+         *  terminators are dropped. */
+        int[] read(InputStream in) {
+            int[] result = new int[64];
+            int n = 0;
+            try (BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(in, StandardCharsets.UTF_8),
+                     1 << 16)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (n == result.length) {
+                        result = Arrays.copyOf(result, n * 2);
+                    }
+                    result[n] = intern(line);
+                    n += 1;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        /** Return the number of LINE. */
+        int intern(String line) {
+            Integer k = numbers.get(line);
+            if (k == null) {
+                k = lines.size();
+                numbers.put(line, k);
+                lines.add(line);
+            }
+            return k;
+        }
+
+        /** Return the line numbered K. */
+        String line(int k) {
+            return lines.get(k);
+        }
+
+        /** Distinct lines, by number. */
+        private final ArrayList<String> lines = new ArrayList<>();
+        /** Numbers of the distinct lines. */
+        private final HashMap<String, Integer> numbers = new HashMap<>();
+    }
+
+    /** Return a shortest list of Edits turning A into B, in order.  A and
+     *  B hold line numbers from an Interner.  Lines of either text that do
+     *  not occur in the other can be in no common subsequence, so they are
+     *  set aside before the search, which then runs on what is left; for
+     *  texts whose changes are mostly new or deleted lines, that leaves
+     *  few differences to find. */
+    static List<Edit> diff(int[] a, int[] b) {
+        int size = 0;
+        for (int x : a) {
+            size = Math.max(size, x + 1);
+        }
+        for (int x : b) {
+            size = Math.max(size, x + 1);
+        }
+        int[] keptA = matched(a, b, size);
+        int[] keptB = matched(b, a, size);
+        Diff d = new Diff(select(a, keptA), select(b, keptB));
+        d.compare(0, keptA.length, 0, keptB.length);
+        return edits(expand(d.changedA, keptA, a.length),
+                     expand(d.changedB, keptB, b.length));
+    }
+
+    /** Return the indices of the lines of A that occur in B, both of
+     *  whose line numbers are less than SIZE. */
+    private static int[] matched(int[] a, int[] b, int size) {
+        boolean[] present = new boolean[size];
+        for (int x : b) {
+            present[x] = true;
+        }
+        int[] result = new int[a.length];
+        int n = 0;
+        for (int i = 0; i < a.length; i += 1) {
+            if (present[a[i]]) {
+                result[n] = i;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the lines of TEXT at INDICES. */
+    private static int[] select(int[] text, int[] indices) {
+        int[] result = new int[indices.length];
+        for (int k = 0; k < indices.length; k += 1) {
+            result[k] = text[indices[k]];
+        }
+        return result;
+    }
+
+    /** Return which of LENGTH lines are changed, given that those at
+     *  INDICES are changed as CHANGED says and all others are. */
+    private static boolean[] expand(boolean[] changed, int[] indices,
+                                    int length) {
+        boolean[] result = new boolean[length];
+        Arrays.fill(result, true);
+        for (int k = 0; k < indices.length; k += 1) {
+            result[indices[k]] = changed[k];
+        }
+        return result;
+    }
+
+    /** Print the differences between A and B, whose lines are numbered by
+     *  LINES, to OUT in unified format with headers naming them NAMEA and
+     *  NAMEB.  Each hunk is printed as soon as it is complete.  Return true
+     *  iff there were any differences. */
+    static boolean writeUnified(int[] a, int[] b, Interner lines,
+                                String nameA, String nameB,
+                                PrintStream out) {
+        List<Edit> edits = diff(a, b);
+        if (edits.isEmpty()) {
+            return false;
+        }
+        out.println("--- " + nameA);
+        out.println("+++ " + nameB);
+        int i = 0;
+        while (i < edits.size()) {
+            int j = i;
+            while (j + 1 < edits.size()
+                   && edits.get(j + 1).aStart - edits.get(j).aEnd
+                      <= 2 * CONTEXT) {
+                j += 1;
+            }
+            Edit first = edits.get(i);
+            Edit last = edits.get(j);
+            int aLo = Math.max(0, first.aStart - CONTEXT);
+            int aHi = Math.min(a.length, last.aEnd + CONTEXT);
+            int bLo = first.bStart - (first.aStart - aLo);
+            int bHi = last.bEnd + (aHi - last.aEnd);
+            out.printf("@@ -%s +%s @@%n", range(aLo, aHi), range(bLo, bHi));
+            int pos = aLo;
+            for (int k = i; k <= j; k += 1) {
+                Edit e = edits.get(k);
+                for (; pos < e.aStart; pos += 1) {
+                    out.println(" " + lines.line(a[pos]));
+                }
+                for (int p = e.aStart; p < e.aEnd; p += 1) {
+                    out.println("-" + lines.line(a[p]));
+                }
+                for (int p = e.bStart; p < e.bEnd; p += 1) {
+                    out.println("+" + lines.line(b[p]));
+                }
+                pos = e.aEnd;
+            }
+            for (; pos < aHi; pos += 1) {
+                out.println(" " + lines.line(a[pos]));
+            }
+            out.flush();
+            i = j + 1;
+        }
+        return true;
+    }
+
+    /** Return the unified-format description of lines [LO, HI). */
+    private static String range(int lo, int hi) {
+        if (hi - lo == 1) {
+            return Integer.toString(lo + 1);
+        }
+        return (hi == lo ? lo : lo + 1) + "," + (hi - lo);
+    }
+
+    /** A comparison of A with B. */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        changedA = new boolean[a.length];
+        changedB = new boolean[b.length];
+        int max = (a.length + b.length + 1) / 2 + 1;
+        forward = new int[2 * max + 3];
+        backward = new int[2 * max + 3];
+    }
+
+    /** Mark the lines of A[ALO..AHI) and B[BLO..BHI) that are not part of
+     *  a longest common subsequence of the two as changed. */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aHi > aLo && bHi > bLo && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            for (int j = bLo; j < bHi; j += 1) {
+                changedB[j] = true;
+            }
+        } else if (bLo == bHi) {
+            for (int i = aLo; i < aHi; i += 1) {
+                changedA[i] = true;
+            }
+        } else {
+            int[] mid = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, mid[0], bLo, mid[1]);
+            compare(mid[0], aHi, mid[1], bHi);
+        }
+    }
+
+    /** Return a point {x, y} on a shortest edit path from (ALO, BLO) to
+     *  (AHI, BHI), strictly between the two, by running Myers' greedy
+     *  search forward from the start and backward from the end at once
+     *  until the two meet.  Both A[ALO] != B[BLO] and
+     *  A[AHI-1] != B[BHI-1] must hold.  FORWARD[OFF + K] is the furthest x
+     *  reached on diagonal K (x - y) from the start, and BACKWARD[OFF + K]
+     *  the furthest distance back from the end on diagonal K of the
+     *  reversed texts; NONE marks diagonals not reached. */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int off = max + 1;
+        Arrays.fill(forward, 0, 2 * max + 3, NONE);
+        Arrays.fill(backward, 0, 2 * max + 3, NONE);
+
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                if (k < -m || k > n) {
+                    continue;
+                }
+                int x = furthest(forward, off, k, d, n, m);
+                if (x == NONE) {
+                    continue;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[off + k] = x;
+                int kb = delta - k;
+                if (odd && kb >= -(d - 1) && kb <= d - 1
+                    && backward[off + kb] != NONE
+                    && x + backward[off + kb] >= n) {
+                    return new int[] { aLo + x, bLo + y };
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                if (k < -m || k > n) {
+                    continue;
+                }
+                int x = furthest(backward, off, k, d, n, m);
+                if (x == NONE) {
+                    continue;
+                }
+                int y = x - k;
+                while (x < n && y < m
+                       && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[off + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d
+                    && forward[off + kf] != NONE
+                    && x + forward[off + kf] >= n) {
+                    return new int[] { aHi - x, bHi - y };
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Return the furthest x reachable on diagonal K with D edits, given
+     *  the furthest points V[OFF + K +- 1] reached with D - 1 edits, in
+     *  texts of lengths N and M, or NONE if there is none. */
+    private static int furthest(int[] v, int off, int k, int d, int n,
+                                int m) {
+        if (d == 0) {
+            return 0;
+        }
+        int best = NONE;
+        if (k + 1 <= d - 1 && v[off + k + 1] != NONE) {
+            int x = v[off + k + 1];
+            if (x - (k + 1) < m) {
+                best = x;
+            }
+        }
+        if (k - 1 >= -(d - 1) && v[off + k - 1] != NONE) {
+            int x = v[off + k - 1];
+            if (x < n && x + 1 > best) {
+                best = x + 1;
+            }
+        }
+        return best;
+    }
+
+    /** Return the Edits turning one text into another, where CHANGEDA
+     *  and CHANGEDB mark the lines of each not in their common
+     *  subsequence. */
+    private static List<Edit> edits(boolean[] changedA,
+                                    boolean[] changedB) {
+        List<Edit> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < changedA.length || j < changedB.length) {
+            if (i < changedA.length && j < changedB.length && !changedA[i]
+                && !changedB[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < changedA.length && changedA[i]) {
+                i += 1;
+            }
+            while (j < changedB.length && changedB[j]) {
+                j += 1;
+            }
+            result.add(new Edit(i0, i, j0, j));
+        }
+        return result;
+    }
+
+    /** Marks an unreached diagonal. */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    /** The texts compared. */
+    private final int[] a, b;
+    /** Lines of A and B not in the common subsequence. */
+    private final boolean[] changedA, changedB;
+    /** Work arrays for middleSnake. */
+    private final int[] forward, backward;
+}
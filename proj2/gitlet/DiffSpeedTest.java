@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Harness.*;
+
+/** Times Diff and Merge3 on large synthetic files.  Usage:
+ *      java gitlet.DiffSpeedTest [LINES [EDITS]]
+ *  builds a text of LINES (default 200000) lines, about 8 MB, and two
+ *  versions of it each with EDITS (default 1000) scattered line edits,
+ *  then times interning the texts, diffing the base with one version,
+ *  printing the hunks, and merging the two versions.  Untimed, it checks
+ *  that the edits found turn the base into that version, and that
+ *  merging the version with an unchanged base gives back the version,
+ *  and exits with an error if not.
+ *  @author SuuTou
+ */
+public class DiffSpeedTest {
+
+    /** Run the timings as described in the class comment, with ARGS
+     *  giving the optional sizes. */
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Random random = new Random(61);
+        byte[] base = makeText(lines, random);
+        byte[] ours = edit(base, edits, random);
+        byte[] theirs = edit(base, edits, random);
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+        for (int round = 0; round < 3; round += 1) {
+            long start = System.nanoTime();
+            Diff.Interner interner = new Diff.Interner();
+            int[] baseLines = interner.read(new ByteArrayInputStream(base));
+            int[] ourLines = interner.read(new ByteArrayInputStream(ours));
+            int[] theirLines =
+                interner.read(new ByteArrayInputStream(theirs));
+            double read = millis(start);
+            start = System.nanoTime();
+            List<Diff.Edit> found = Diff.diff(baseLines, ourLines);
+            double diff = millis(start);
+            check(Arrays.equals(RoundTripTest.patch(baseLines, ourLines,
+                                                    found), ourLines),
+                  "the edits found do not rebuild the edited text");
+            start = System.nanoTime();
+            Diff.writeUnified(baseLines, ourLines, interner, "a", "b",
+                              nowhere);
+            double unified = millis(start);
+            start = System.nanoTime();
+            boolean conflict = Merge3.merge(baseLines, ourLines, theirLines,
+                                            interner, nowhere);
+            double merge = millis(start);
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            check(!Merge3.merge(baseLines, ourLines, baseLines, interner,
+                                new PrintStream(merged, false,
+                                                StandardCharsets.UTF_8))
+                  && Arrays.equals(merged.toByteArray(), ours),
+                  "merging with an unchanged side changes the text");
+
+            System.out.printf("Round %d, %d lines (%.1f MB), %d edits:%n",
+                              round + 1, lines, base.length / 1e6, edits);
+            System.out.printf("  intern 3 texts: %8.1f ms%n", read);
+            System.out.printf("  diff:           %8.1f ms, %d edits found%n",
+                              diff, found.size());
+            System.out.printf("  unified output: %8.1f ms%n", unified);
+            System.out.printf("  3-way merge:    %8.1f ms, %s%n", merge,
+                              conflict ? "conflicts" : "clean");
+        }
+    }
+
+    /** Return a text of N lines drawn from RANDOM. */
+    private static byte[] makeText(int n, Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            text.append("line ").append(i).append(": ");
+            for (int k = random.nextInt(8); k >= 0; k -= 1) {
+                text.append(Integer.toHexString(random.nextInt()));
+            }
+            text.append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Return TEXT with N lines, chosen using RANDOM, replaced, deleted or
+     *  followed by a new line. */
+    private static byte[] edit(byte[] text, int n, Random random) {
+        String[] lines =
+            new String(text, StandardCharsets.UTF_8).split("\n", -1);
+        StringBuilder result = new StringBuilder();
+        double p = n / (double) lines.length;
+        for (int i = 0; i < lines.length - 1; i += 1) {
+            if (random.nextDouble() >= p) {
+                result.append(lines[i]).append('\n');
+                continue;
+            }
+            switch (random.nextInt(3)) {
+            case 0:
+                result.append("changed ").append(random.nextInt())
+                    .append('\n');
+                break;
+            case 1:
+                break;
+            default:
+                result.append(lines[i]).append('\n')
+                    .append("inserted ").append(random.nextInt())
+                    .append('\n');
+                break;
+            }
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
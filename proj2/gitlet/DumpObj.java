@@ -5,8 +5,12 @@ import java.io.File;
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
  *  where each FILE is a file produced by Utils.writeObject (or any file
- *  containing a serialized object).  This will simply read FILE,
- *  deserialize it, and call the dump method on the resulting Object.
+ *  containing a serialized object), or a commit or staging area in the
+ *  binary form written by Codec, possibly as a compressed loose object
+ *  (see Compressor), though not one stored as chunks, which are never
+ *  commits or staging areas.  This will simply read FILE,
+ *  deserialize or decode it, and call the dump method on the resulting
+ *  Object.
  *  The object must implement the gitlet.Dumpable interface for this
  *  to work.  For example, you might define your class like this:
  *
@@ -29,12 +33,15 @@ import java.io.File;
  */
 public class DumpObj {
 
-    /** Deserialize and apply dump to the contents of each of the files
-     *  in FILES. */
+    /** Deserialize or decode, and apply dump to, the contents of each of
+     *  the files in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
+            File file = new File(fileName);
+            byte[] contents = Compressor.decode(Utils.readContents(file));
+            Dumpable obj = Codec.isEncoded(contents)
+                ? Codec.decode(contents)
+                : Utils.deserialize(contents, Dumpable.class);
             obj.dump();
             System.out.println("---");
         }
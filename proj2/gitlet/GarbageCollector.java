@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static gitlet.Utils.*;
+
+/** A mark-and-sweep collector of the objects no commit or staged file
+ *  refers to, such as those left behind by rm-branch, reset or adding a
+ *  file repeatedly.  The mark phase walks the commit graph from the roots
+ *  with an explicit stack, collecting every commit reachable through
+ *  (grafted) parents together with its blobs.  The sweep phase then
+ *  deletes the unmarked loose objects, one fan-out directory at a time,
+ *  spread over a fork-join pool, and finally rewrites any packs holding
+ *  unmarked objects.
+ *
+ *  A sweep may be given a time budget, and may be interrupted (as by
+ *  ^C); either way it stops between fan-out directories and records in
+ *  a progress file the first directory it has not finished, and the next
+ *  collection resumes there.  Since the mark is redone each time, a
+ *  collection can be stopped and resumed safely whatever happens in
+ *  between.  Objects modified more recently than a grace period are never
+ *  swept, so that a blob just written by a concurrent add, and not yet
+ *  staged, survives.
+ *
+ *  @author SuuTou
+ */
+class GarbageCollector {
+
+    /** Default age in milliseconds below which objects are never
+     *  swept. */
+    static final long GRACE_MILLIS = 10 * 60 * 1000;
+
+    /** The outcome of a collection. */
+    static class Result {
+        /** Number of objects marked as reachable. */
+        long live;
+        /** Number of objects deleted. */
+        long objects;
+        /** Number of bytes freed. */
+        long bytes;
+        /** True iff the sweep stopped before finishing. */
+        boolean stopped;
+    }
+
+    /** A collector of the objects in STORE, recording the progress of an
+     *  unfinished sweep in PROGRESSFILE. */
+    GarbageCollector(ObjectStore store, File progressFile) {
+        this.store = store;
+        this.progressFile = progressFile;
+    }
+
+    /** Return the ids of the commits reachable from the commits HEADS
+     *  through GRAPH, and of their trees and blobs, together with the
+     *  blobs STAGED, and the chunks of all those blobs. */
+    static Set<String> mark(Collection<String> heads,
+                            Collection<String> staged, CommitGraph graph) {
+        HashSet<String> live = new HashSet<>(staged);
+        for (String id : staged) {
+            live.addAll(Repository.OBJECTS.chunks(id));
+        }
+        ArrayDeque<String> work = new ArrayDeque<>(heads);
+        while (!work.isEmpty()) {
+            String id = work.pop();
+            if (!live.add(id)) {
+                continue;
+            }
+            Tree.walk(Commit.load(id).tree(), live, null);
+            for (String parent : graph.parents(id)) {
+                if (!live.contains(parent)) {
+                    work.push(parent);
+                }
+            }
+        }
+        return live;
+    }
+
+    /** Delete the objects not in LIVE that are at least GRACE
+     *  milliseconds old, resuming any unfinished sweep, and stopping once
+     *  BUDGET milliseconds have passed (if BUDGET is positive) or the
+     *  program is interrupted.  Return what was done. */
+    Result sweep(Set<String> live, long grace, long budget) {
+        long olderThan = System.currentTimeMillis() - grace;
+        long deadline = budget > 0
+            ? System.nanoTime() + budget * 1_000_000 : Long.MAX_VALUE;
+        String resumeAt = progressFile.isFile()
+            ? readContentsAsString(progressFile) : "";
+        List<String> fanouts = store.fanouts();
+        fanouts.removeIf(f -> f.compareTo(resumeAt) < 0);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread hook = new Thread(() -> {
+            stop.set(true);
+            try {
+                done.await(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException excp) {
+                /* Exit anyway. */
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        Result result = new Result();
+        result.live = live.size();
+        AtomicLong objects = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        byte[] finished = new byte[fanouts.size()];
+        ForkJoinPool pool =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> IntStream.range(0, fanouts.size()).parallel()
+                .forEach(k -> {
+                    if (stop.get() || System.nanoTime() > deadline) {
+                        stop.set(true);
+                        return;
+                    }
+                    long[] freed = store.sweep(fanouts.get(k), live,
+                                               olderThan);
+                    objects.addAndGet(freed[0]);
+                    bytes.addAndGet(freed[1]);
+                    finished[k] = 1;
+                })).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            stop.set(true);
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        int firstUnfinished = 0;
+        while (firstUnfinished < finished.length
+               && finished[firstUnfinished] == 1) {
+            firstUnfinished += 1;
+        }
+        if (firstUnfinished < fanouts.size()) {
+            writeContentsAtomically(progressFile,
+                                    fanouts.get(firstUnfinished));
+            result.stopped = true;
+        } else {
+            progressFile.delete();
+            long[] freed = store.retainPacked(live, olderThan);
+            objects.addAndGet(freed[0]);
+            bytes.addAndGet(freed[1]);
+        }
+        store.refresh();
+        result.objects = objects.get();
+        result.bytes = bytes.get();
+        done.countDown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException excp) {
+            /* Already shutting down. */
+        }
+        return result;
+    }
+
+    /** Milliseconds an interrupted program waits for a sweep to record
+     *  its progress. */
+    private static final long SHUTDOWN_WAIT = 5000;
+
+    /** The store collected. */
+    private final ObjectStore store;
+    /** File recording where an unfinished sweep stopped. */
+    private final File progressFile;
+}
@@ -0,0 +1,41 @@
+package gitlet;
+
+import java.io.File;
+
+/** Helpers shared by the benchmark and test programs, such as
+ *  CommandSpeedTest and ConcurrencyStressTest.
+ *  @author SuuTou
+ */
+class Harness {
+
+    /** Return the seconds elapsed since START, a System.nanoTime. */
+    static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Return the milliseconds elapsed since START, a System.nanoTime. */
+    static double millis(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Exit with an error reporting MSG, formatted with ARGS as for
+     *  String.format, unless OK. */
+    static void check(boolean ok, String msg, Object... args) {
+        if (!ok) {
+            System.out.flush();
+            System.out.println("FAILED: " + String.format(msg, args));
+            System.exit(1);
+        }
+    }
+
+    /** Delete DIR and everything under it. */
+    static void deleteTree(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteTree(file);
+            }
+        }
+        dir.delete();
+    }
+}
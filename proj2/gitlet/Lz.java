@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/** A fast LZ77 compressor in the style of LZ4, for objects too large to
+ *  DEFLATE without slowing down add and checkout.  It finds matches with
+ *  a single hash table probe per position and does no entropy coding, so
+ *  it compresses several times faster than DEFLATE and decompresses at
+ *  close to memory speed, at the cost of a worse ratio.
+ *
+ *  A compressed stream is a sequence of blocks, each
+ *      <length> <coded> <data>
+ *  holding up to BLOCK bytes of contents, where <length> is the int
+ *  length of the contents and <coded> the int length of <data>, or 0 if
+ *  the contents did not compress and <data> is the contents themselves.
+ *  Blocks are compressed independently.  Compressed data is a sequence of
+ *      <literals> <literal>* <offset> <match>
+ *  where <literals> is the number of literal bytes that follow, <offset>
+ *  how far back from the end of those the match starts, and <match> its
+ *  length less MIN_MATCH, all as varints; the last sequence of a block
+ *  stops after its literals.
+ *
+ *  @author SuuTou
+ */
+class Lz {
+
+    /** Length of the contents of a full block. */
+    static final int BLOCK = 1 << 16;
+    /** Shortest match encoded. */
+    private static final int MIN_MATCH = 4;
+    /** Initial length of the block buffer of an Output. */
+    private static final int INITIAL = 1 << 12;
+    /** Log base 2 of the largest number of entries in the match table,
+     *  which is smaller for short inputs. */
+    private static final int HASH_BITS = 14;
+
+    /** Compress the first N bytes of SRC into DST, whose length must be at
+     *  least bound(N), and return the length of the result. */
+    static int compress(byte[] src, int n, byte[] dst) {
+        int bits = Math.max(8, Math.min(HASH_BITS,
+                                        32 - Integer.numberOfLeadingZeros(n)));
+        int[] table = new int[1 << bits];
+        int out = 0;
+        int anchor = 0;
+        int i = 0;
+        int limit = n - MIN_MATCH;
+        while (i <= limit) {
+            int h = hash(src, i, bits);
+            int candidate = table[h] - 1;
+            table[h] = i + 1;
+            if (candidate < 0 || !matches(src, candidate, i)) {
+                i += 1;
+                continue;
+            }
+            int length = MIN_MATCH;
+            while (i + length < n
+                   && src[candidate + length] == src[i + length]) {
+                length += 1;
+            }
+            out = putVarint(dst, out, i - anchor);
+            System.arraycopy(src, anchor, dst, out, i - anchor);
+            out += i - anchor;
+            out = putVarint(dst, out, i - candidate);
+            out = putVarint(dst, out, length - MIN_MATCH);
+            i += length;
+            anchor = i;
+        }
+        out = putVarint(dst, out, n - anchor);
+        System.arraycopy(src, anchor, dst, out, n - anchor);
+        return out + n - anchor;
+    }
+
+    /** Decompress the LENGTH bytes of compressed data at the start of SRC
+     *  into DST, which receives exactly N bytes.  Throws IOException if
+     *  the data are corrupt. */
+    static void decompress(byte[] src, int length, byte[] dst, int n)
+        throws IOException {
+        int[] pos = { 0 };
+        int out = 0;
+        while (true) {
+            int literals = getVarint(src, pos, length);
+            if (literals > n - out || literals > length - pos[0]) {
+                throw new IOException("corrupt compressed block");
+            }
+            System.arraycopy(src, pos[0], dst, out, literals);
+            pos[0] += literals;
+            out += literals;
+            if (out == n) {
+                return;
+            }
+            int offset = getVarint(src, pos, length);
+            int match = getVarint(src, pos, length) + MIN_MATCH;
+            if (offset <= 0 || offset > out || match > n - out) {
+                throw new IOException("corrupt compressed block");
+            }
+            for (int k = 0; k < match; k += 1) {
+                dst[out + k] = dst[out - offset + k];
+            }
+            out += match;
+        }
+    }
+
+    /** Return the most bytes that compressing N bytes can produce. */
+    static int bound(int n) {
+        return n + n / 4 + 16;
+    }
+
+    /** An output stream compressing what is written to it onto another,
+     *  a block at a time. */
+    static class Output extends FilterOutputStream {
+
+        /** A stream compressing onto OUT. */
+        Output(OutputStream out) {
+            super(new DataOutputStream(out));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == BLOCK) {
+                flushBlock();
+            }
+            reserve(count + 1);
+            block[count] = (byte) b;
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == BLOCK) {
+                    flushBlock();
+                }
+                int n = Math.min(len, BLOCK - count);
+                reserve(count + n);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (count > 0) {
+                flushBlock();
+            }
+            super.close();
+        }
+
+        /** Make BLOCK hold at least N bytes, growing it by doubling up to
+         *  a full block, so that small objects get small buffers. */
+        private void reserve(int n) {
+            if (n > block.length) {
+                int size = Math.min(Math.max(n, 2 * block.length), BLOCK);
+                block = Arrays.copyOf(block, size);
+            }
+        }
+
+        /** Write the buffered contents as a block. */
+        private void flushBlock() throws IOException {
+            DataOutputStream data = (DataOutputStream) out;
+            if (buffer.length < bound(count)) {
+                buffer = new byte[bound(block.length)];
+            }
+            int coded = compress(block, count, buffer);
+            data.writeInt(count);
+            if (coded < count) {
+                data.writeInt(coded);
+                data.write(buffer, 0, coded);
+            } else {
+                data.writeInt(0);
+                data.write(block, 0, count);
+            }
+            count = 0;
+        }
+
+        /** Contents of the block being filled. */
+        private byte[] block = new byte[INITIAL];
+        /** Number of bytes in BLOCK. */
+        private int count;
+        /** Receives each compressed block. */
+        private byte[] buffer = new byte[0];
+    }
+
+    /** An input stream reading the contents compressed in another. */
+    static class Input extends InputStream {
+
+        /** A stream reading the contents compressed in IN. */
+        Input(InputStream in) {
+            this.in = new DataInputStream(in);
+            block = buffer = new byte[0];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            int result = block[pos] & 0xff;
+            pos += 1;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /** Read the next block, returning false at the end of the
+         *  stream. */
+        private boolean fill() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException excp) {
+                return false;
+            }
+            int coded = in.readInt();
+            if (length <= 0 || length > BLOCK || coded < 0
+                || coded > bound(BLOCK)) {
+                throw new IOException("corrupt compressed stream");
+            }
+            if (block.length < length) {
+                block = new byte[length];
+                buffer = new byte[bound(length)];
+            }
+            if (coded > buffer.length) {
+                throw new IOException("corrupt compressed stream");
+            }
+            if (coded == 0) {
+                in.readFully(block, 0, length);
+            } else {
+                in.readFully(buffer, 0, coded);
+                decompress(buffer, coded, block, length);
+            }
+            pos = 0;
+            limit = length;
+            return true;
+        }
+
+        /** The compressed stream. */
+        private final DataInputStream in;
+        /** Contents of the current block, sized to the first block so that
+         *  small objects do not pay for full-sized buffers. */
+        private byte[] block;
+        /** Compressed data of the current block. */
+        private byte[] buffer;
+        /** Position of the next byte to read in BLOCK. */
+        private int pos;
+        /** Number of bytes of contents in BLOCK. */
+        private int limit;
+    }
+
+    /** Return the slot in a match table of 2**BITS entries of the four
+     *  bytes of SRC at I. */
+    private static int hash(byte[] src, int i, int bits) {
+        int word = (src[i] & 0xff) | (src[i + 1] & 0xff) << 8
+            | (src[i + 2] & 0xff) << 16 | (src[i + 3] & 0xff) << 24;
+        return (word * 0x9E3779B1) >>> (32 - bits);
+    }
+
+    /** Return true iff the MIN_MATCH bytes of SRC at A and B are equal. */
+    private static boolean matches(byte[] src, int a, int b) {
+        return src[a] == src[b] && src[a + 1] == src[b + 1]
+            && src[a + 2] == src[b + 2] && src[a + 3] == src[b + 3];
+    }
+
+    /** Write V to DST at OUT as a varint: seven bits to a byte, low bits
+     *  first, with the top bit set on all but the last.  Return the
+     *  position just past it. */
+    private static int putVarint(byte[] dst, int out, int v) {
+        while (v >= 0x80) {
+            dst[out] = (byte) (v | 0x80);
+            out += 1;
+            v >>>= 7;
+        }
+        dst[out] = (byte) v;
+        return out + 1;
+    }
+
+    /** Return the varint in the first LENGTH bytes of SRC at POS[0],
+     *  advancing POS[0] past it. */
+    private static int getVarint(byte[] src, int[] pos, int length)
+        throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= length) {
+                throw new IOException("corrupt compressed block");
+            }
+            int b = src[pos[0]];
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("corrupt compressed block");
+    }
+}
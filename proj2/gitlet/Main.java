@@ -1,5 +1,11 @@
 package gitlet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
  */
@@ -9,16 +15,262 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
-        // TODO: what if args is empty?
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /** Perform the command given by ARGS, as for main, but report errors
+     *  by throwing GitletException rather than exiting, so that a
+     *  long-lived Daemon can run many commands.  If ARGS starts with
+     *  --timings or --timings=json, run the rest and then report where
+     *  its time went (see Timings). */
+    static void run(String[] args) {
+        if (args.length > 0 && (args[0].equals(Timings.OPTION)
+                                || args[0].equals(Timings.JSON_OPTION))) {
+            timed(Arrays.copyOfRange(args, 1, args.length),
+                  args[0].equals(Timings.JSON_OPTION));
+        } else {
+            dispatch(args);
+        }
+    }
+
+    /** Perform the command given by ARGS, as for run, gathering timings
+     *  and reporting them afterwards, in JSON if JSON, even if the
+     *  command fails. */
+    private static void timed(String[] args, boolean json) {
+        Map<String, ObjectCache<?>> caches = caches();
+        for (ObjectCache<?> cache : caches.values()) {
+            cache.resetCounts();
+        }
+        Timings.enable();
+        long start = Timings.start();
+        try {
+            dispatch(args);
+        } finally {
+            Timings.record(Timings.Phase.COMMAND, start, 0);
+            Timings.disable();
+            if (json) {
+                Timings.reportJson(args.length > 0 ? args[0] : "",
+                                   caches);
+            } else {
+                Timings.report(caches);
+            }
+        }
+    }
+
+    /** Return the caches whose use --timings reports, keyed by name. */
+    private static Map<String, ObjectCache<?>> caches() {
+        Map<String, ObjectCache<?>> result = new LinkedHashMap<>();
+        result.put("objects", Repository.OBJECTS.objectCache());
+        result.put("bases", Repository.OBJECTS.baseCache());
+        result.put("commits", Commit.cache());
+        return result;
+    }
+
+    /** Perform the command given by ARGS, as for run. */
+    private static void dispatch(String[] args) {
+        if (args.length == 0) {
+            throw Utils.error("Please enter a command.");
+        }
         String firstArg = args[0];
+        Repository.recover();
         switch(firstArg) {
             case "init":
                 // TODO: handle the `init` command
                 break;
             case "add":
-                // TODO: handle the `add [filename]` command
+                addCommand(args);
+                break;
+            case "log":
+            case "global-log":
+                logCommand(args);
+                break;
+            case "find":
+                if (args.length != 2) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                Repository.find(args[1]);
+                break;
+            case "checkout":
+                checkoutCommand(args);
+                break;
+            case "diff":
+                if (args.length != 1 && args.length != 3) {
+                    throw Utils.error("Incorrect operands.");
+                }
+                Repository.diff(args.length == 3 ? args[1] : null,
+                                args.length == 3 ? args[2] : null);
+                break;
+            case "merge-file":
+                checkOperands(args, 4);
+                Repository.mergeFile(args[1], args[2], args[3]);
+                break;
+            case "gc":
+                gcCommand(args);
+                break;
+            case "repack":
+                Repository.repack();
+                break;
+            case "daemon":
+                if (args.length > 1 && args[1].equals(Daemon.STOP)) {
+                    throw Utils.error("No daemon is running.");
+                }
+                Daemon.serve();
+                break;
+            case "add-remote":
+                checkOperands(args, 3);
+                Remote.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                checkOperands(args, 2);
+                Remote.rmRemote(args[1]);
+                break;
+            case "fetch":
+                checkOperands(args, 3);
+                Remote.fetch(args[1], args[2]);
+                break;
+            case "push":
+                checkOperands(args, 3);
+                Remote.push(args[1], args[2]);
+                break;
+            case "serve":
+                checkOperands(args, 2);
+                Remote.serve(parseCount(args[1]));
                 break;
             // TODO: FILL THE REST IN
         }
     }
+
+    /** Perform "add [--stats] [--compress=CODEC] FILE...", where ARGS are
+     *  the command-line arguments and CODEC is raw, deflate or lz. */
+    private static void addCommand(String[] args) {
+        List<String> names =
+            new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        boolean stats = names.remove("--stats");
+        Compressor compressor = null;
+        if (!names.isEmpty() && names.get(0).startsWith(COMPRESS_OPTION)) {
+            compressor = Compressor.named(
+                names.remove(0).substring(COMPRESS_OPTION.length()));
+            if (compressor == null) {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        if (names.isEmpty()) {
+            throw Utils.error("Incorrect operands.");
+        }
+        Repository.add(names, stats, compressor);
+    }
+
+    /** Perform "checkout [--link] -- FILE", "checkout [--link] COMMIT --
+     *  FILE" or "checkout [--link] [--stats] BRANCH", where ARGS are the
+     *  command-line arguments. */
+    private static void checkoutCommand(String[] args) {
+        List<String> ops =
+            new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        boolean link = ops.remove(Repository.LINK_OPTION);
+        boolean stats = ops.remove("--stats");
+        if (ops.size() == 2 && ops.get(0).equals("--")) {
+            Repository.checkoutFile(null, ops.get(1), link);
+        } else if (ops.size() == 3 && ops.get(1).equals("--")) {
+            Repository.checkoutFile(ops.get(0), ops.get(2), link);
+        } else if (ops.size() == 1) {
+            Repository.checkoutBranch(ops.get(0), link, stats);
+        } else {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /** Perform "log [--follow] [--skip=N] [--max-count=N] [-- FILE]" or
+     *  "global-log [--skip=N] [--max-count=N]", where ARGS are the
+     *  command-line arguments.  --follow requires a FILE. */
+    private static void logCommand(String[] args) {
+        int skip = 0;
+        int maxCount = -1;
+        String path = null;
+        boolean follow = false;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--") && i == args.length - 2
+                && args[0].equals("log")) {
+                path = args[i + 1];
+                break;
+            } else if (args[i].equals(FOLLOW_OPTION)
+                       && args[0].equals("log")) {
+                follow = true;
+            } else if (args[i].startsWith(SKIP_OPTION)) {
+                skip = parseLimit(args[i].substring(SKIP_OPTION.length()));
+            } else if (args[i].startsWith(MAX_COUNT_OPTION)) {
+                maxCount = parseLimit(
+                    args[i].substring(MAX_COUNT_OPTION.length()));
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        if (follow && path == null) {
+            throw Utils.error("Incorrect operands.");
+        } else if (args[0].equals("log")) {
+            Repository.log(path, follow, skip, maxCount);
+        } else {
+            Repository.globalLog(skip, maxCount);
+        }
+    }
+
+    /** Perform "gc [--now] [--budget MILLIS]" or "gc --prune-history
+     *  DEPTH", where ARGS are the command-line arguments. */
+    private static void gcCommand(String[] args) {
+        if (args.length == 3 && args[1].equals("--prune-history")) {
+            Repository.pruneHistory(parseCount(args[2]));
+            return;
+        }
+        long grace = GarbageCollector.GRACE_MILLIS;
+        long budget = 0;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--now")) {
+                grace = 0;
+            } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                i += 1;
+                budget = parseCount(args[i]);
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        Repository.gc(grace, budget);
+    }
+
+    /** Option of "add" naming the Compressor to store files with. */
+    private static final String COMPRESS_OPTION = "--compress=";
+    /** Option of "log" giving the number of commits to leave out. */
+    private static final String SKIP_OPTION = "--skip=";
+    /** Option of "log" giving the most commits to print. */
+    private static final String MAX_COUNT_OPTION = "--max-count=";
+    /** Option of "log -- FILE" following FILE through renames. */
+    private static final String FOLLOW_OPTION = "--follow";
+
+    /** Throw a GitletException unless ARGS holds exactly N words. */
+    private static void checkOperands(String[] args, int n) {
+        if (args.length != n) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
+
+    /** Return the non-negative number written in ARG. */
+    private static int parseLimit(String arg) {
+        int result = parseCount(arg);
+        if (result < 0) {
+            throw Utils.error("Incorrect operands.");
+        }
+        return result;
+    }
+
+    /** Return the number written in ARG. */
+    private static int parseCount(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Incorrect operands.");
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A line-level three-way merge of two texts descended from a common
+ *  base.  Each side is compared with the base by Diff, and changes that
+ *  overlap or touch in the base are grouped into runs.  A run changed on
+ *  only one side takes that side's lines, and a run changed on both
+ *  sides takes them if the two sides agree.  Otherwise
+ *  only that run is a conflict, written between gitlet's markers
+ *
+ *      <<<<<<< HEAD
+ *      (lines of the current branch)
+ *      =======
+ *      (lines of the given branch)
+ *      >>>>>>>
+ *
+ *  with every other line of the file merged cleanly around it.
+ *
+ *  @author SuuTou
+ */
+class Merge3 {
+
+    /** Write the merge of OURS and THEIRS, both descended from BASE, to OUT
+     *  one line at a time, each line numbered by LINES.  Return true iff
+     *  any part of it conflicted. */
+    static boolean merge(int[] base, int[] ours, int[] theirs,
+                         Diff.Interner lines, PrintStream out) {
+        List<Diff.Edit> mine = Diff.diff(base, ours);
+        List<Diff.Edit> other = Diff.diff(base, theirs);
+        boolean conflict = false;
+        int pos = 0;
+        int i = 0, j = 0;
+        int shiftOurs = 0, shiftTheirs = 0;
+        while (i < mine.size() || j < other.size()) {
+            boolean fromMine = j == other.size()
+                || (i < mine.size()
+                    && mine.get(i).aStart <= other.get(j).aStart);
+            int lo = fromMine ? mine.get(i).aStart : other.get(j).aStart;
+            int hi = lo;
+            int i0 = i, j0 = j;
+            while (true) {
+                if (i < mine.size() && mine.get(i).aStart <= hi) {
+                    hi = Math.max(hi, mine.get(i).aEnd);
+                    i += 1;
+                } else if (j < other.size() && other.get(j).aStart <= hi) {
+                    hi = Math.max(hi, other.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            write(base, pos, lo, lines, out);
+            int oursLo = lo + shiftOurs, theirsLo = lo + shiftTheirs;
+            shiftOurs += shift(mine, i0, i);
+            shiftTheirs += shift(other, j0, j);
+            int oursHi = hi + shiftOurs, theirsHi = hi + shiftTheirs;
+            if (i == i0) {
+                write(theirs, theirsLo, theirsHi, lines, out);
+            } else if (j == j0) {
+                write(ours, oursLo, oursHi, lines, out);
+            } else if (Arrays.equals(ours, oursLo, oursHi,
+                                     theirs, theirsLo, theirsHi)) {
+                write(ours, oursLo, oursHi, lines, out);
+            } else {
+                conflict = true;
+                out.println("<<<<<<< HEAD");
+                write(ours, oursLo, oursHi, lines, out);
+                out.println("=======");
+                write(theirs, theirsLo, theirsHi, lines, out);
+                out.println(">>>>>>>");
+            }
+            pos = hi;
+        }
+        write(base, pos, base.length, lines, out);
+        out.flush();
+        return conflict;
+    }
+
+    /** Return the change in length made by EDITS[FROM..TO). */
+    private static int shift(List<Diff.Edit> edits, int from, int to) {
+        int result = 0;
+        for (Diff.Edit e : edits.subList(from, to)) {
+            result += (e.bEnd - e.bStart) - (e.aEnd - e.aStart);
+        }
+        return result;
+    }
+
+    /** Write lines TEXT[LO..HI), numbered by LINES, to OUT. */
+    private static void write(int[] text, int lo, int hi,
+                              Diff.Interner lines, PrintStream out) {
+        for (int k = lo; k < hi; k += 1) {
+            out.println(lines.line(text[k]));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of values of type V keyed by object id, bounded by the total
+ *  size of the values it holds and evicting the least recently used
+ *  value first.  Values larger than a per-entry limit bypass the cache
+ *  altogether, so that one large blob cannot evict many small, often
+ *  reused commits.  Counts of hits, misses, evictions and bypasses are
+ *  kept for the --timings report (see Timings).  Cached values are
+ *  shared, and must not be modified.
+ *
+ *  @author SuuTou
+ */
+class ObjectCache<V> {
+
+    /** A cache holding at most CAPACITY bytes of values, none of which
+     *  is larger than MAXENTRY bytes. */
+    ObjectCache(long capacity, long maxEntry) {
+        this.capacity = capacity;
+        this.maxEntry = Math.min(maxEntry, capacity);
+    }
+
+    /** Return the value cached for ID, or null if there is none. */
+    synchronized V get(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /** Cache VALUE, whose size is SIZE bytes, for ID, unless it is larger
+     *  than the per-entry limit. */
+    synchronized void put(String id, V value, long size) {
+        if (size > maxEntry) {
+            bypassed += 1;
+            return;
+        }
+        Entry<V> old = entries.put(id, new Entry<>(value, size));
+        if (old != null) {
+            bytes -= old.size;
+        }
+        bytes += size;
+        Iterator<Entry<V>> oldest = entries.values().iterator();
+        while (bytes > capacity) {
+            bytes -= oldest.next().size;
+            oldest.remove();
+            evictions += 1;
+        }
+    }
+
+    /** Remove every value from this cache. */
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** Return the number of lookups that found a value. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Return the number of lookups that found nothing. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Return the number of values evicted to make room for others. */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Return the number of values too large to be cached. */
+    synchronized long bypassed() {
+        return bypassed;
+    }
+
+    /** Return the number of values cached. */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /** Return the total size of the values cached, in bytes. */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /** Zero the counts of hits, misses, evictions and bypasses, leaving
+     *  the cached values alone. */
+    synchronized void resetCounts() {
+        hits = misses = evictions = bypassed = 0;
+    }
+
+    /** A cached value and its size. */
+    private static class Entry<V> {
+        /** An entry for VALUE of SIZE bytes. */
+        Entry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+
+        /** The cached value. */
+        private final V value;
+        /** Size of VALUE in bytes. */
+        private final long size;
+    }
+
+    /** Maximum total size of cached values. */
+    private final long capacity;
+    /** Maximum size of a single cached value. */
+    private final long maxEntry;
+    /** Current total size of cached values. */
+    private long bytes;
+    /** Usage counters. */
+    private long hits, misses, evictions, bypassed;
+    /** Cached entries, least recently used first. */
+    private final Map<String, Entry<V>> entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+}
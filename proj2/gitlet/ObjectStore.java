@@ -0,0 +1,860 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A content-addressed store for gitlet objects (blobs and commits).
+ *  Every object is named by the SHA-1 hash of its contents and kept in a
+ *  fan-out subdirectory named by the first two hex digits of that hash,
+ *  as Git does: the object ab12cd... lives in DIR/ab/12cd....  No single
+ *  directory therefore grows past a few hundred entries, existence checks
+ *  are a single stat, and resolving an abbreviated id only needs a sorted
+ *  listing of the one subdirectory it falls in.
+ *
+ *  A loose object's file holds its contents as compressed by the
+ *  Compressor chosen for it, after a header naming that Compressor; an
+ *  object stored raw is kept without a header, so that checkout can
+ *  hard-link it.  Objects are always named, read and returned by their
+ *  uncompressed contents.  A file of at least CHUNK_THRESHOLD bytes is
+ *  instead split by a Chunker into chunks, each stored as an object of
+ *  its own, and its own object holds only the list of their ids, so that
+ *  versions of a large file that differ by a small edit share all but a
+ *  few chunks.  Such an object is still named by the hash of its whole
+ *  contents, and is read back by following the list.
+ *
+ *  Objects may also live in PackFiles under DIR/pack, where they are
+ *  compressed and delta-encoded against one another.  repack moves all
+ *  loose objects into a new pack; reads look for a loose object first and
+ *  then in each pack, rebuilding deltas through a bounded cache of bases.
+ *  Objects read whole are kept in an ObjectCache, so commands that read
+ *  the same object many times go to disk once; objects larger than
+ *  MAX_CACHED_OBJECT bypass it.
+ *
+ *  Objects may be stored and read from several threads at once.
+ *
+ *  @author SuuTou
+ */
+class ObjectStore {
+
+    /** Number of leading hex digits of an id used to name its fan-out
+     *  directory. */
+    static final int FANOUT_LENGTH = 2;
+    /** Bound on the bytes of delta bases cached while reading packs. */
+    static final long BASE_CACHE_BYTES = 32L << 20;
+    /** Bound on the bytes of objects cached by get. */
+    static final long OBJECT_CACHE_BYTES = 64L << 20;
+    /** Objects larger than this are never cached by get. */
+    static final long MAX_CACHED_OBJECT = 1L << 20;
+    /** Size of the buffers used to stream objects in and out. */
+    static final int BUFFER_SIZE = 1 << 16;
+    /** Files at least this long are stored as chunks by default. */
+    static final long CHUNK_THRESHOLD = 1L << 20;
+
+    /** A store whose objects are kept under DIR. */
+    ObjectStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Return the directory holding this store's objects. */
+    File directory() {
+        return dir;
+    }
+
+    /** Return the file in which the object with full id ID is kept. */
+    File fileFor(String id) {
+        return join(dir, id.substring(0, FANOUT_LENGTH),
+                    id.substring(FANOUT_LENGTH));
+    }
+
+    /** Return true iff an object with full id ID is present. */
+    boolean contains(String id) {
+        return isLoose(id) || packFor(id) != null;
+    }
+
+    /** Return true iff the object with full id ID is stored loose. */
+    boolean isLoose(String id) {
+        return id.length() == UID_LENGTH && fileFor(id).isFile();
+    }
+
+    /** Store CONTENTS, unless an identical object is already present,
+     *  and return its id.  Like every object, it is written to a temporary
+     *  file and renamed into place, so no object is ever seen partially
+     *  written. */
+    String put(byte[] contents) {
+        return put(contents, null);
+    }
+
+    /** Store CONTENTS, as for put, compressed by COMPRESSOR, or by the
+     *  one Compressor.choose picks if COMPRESSOR is null. */
+    String put(byte[] contents, Compressor compressor) {
+        return put(contents, contents.length, compressor);
+    }
+
+    /** Store the contents of the file at PATH and return its id.  The file
+     *  is read exactly once: a file that fits in one buffer is compressed
+     *  in memory, a file of at least CHUNK_THRESHOLD bytes is stored as
+     *  chunks, one at a time, and any other is streamed through a
+     *  BlobWriter, so that no large file is ever held in memory. */
+    String put(Path path) {
+        return put(path, null);
+    }
+
+    /** Store the contents of the file at PATH, as for put, compressed by
+     *  COMPRESSOR, or by the one Compressor.choose picks from the file's
+     *  length and first block if COMPRESSOR is null. */
+    String put(Path path, Compressor compressor) {
+        long start = Timings.start();
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n = in.readNBytes(buffer, 0, BUFFER_SIZE);
+            if (n < BUFFER_SIZE) {
+                String id = put(buffer, n, compressor);
+                Timings.record(Timings.Phase.STORE, start, n);
+                return id;
+            }
+            long length = Files.size(path);
+            if (compressor == null) {
+                compressor = Compressor.choose(buffer, n, length);
+            }
+            if (length >= chunkThreshold) {
+                String id = putChunked(new SequenceInputStream(
+                    new ByteArrayInputStream(buffer, 0, n), in), compressor);
+                Timings.record(Timings.Phase.STORE, start, length);
+                return id;
+            }
+            BlobWriter out = new BlobWriter(compressor, buffer, n, length);
+            try {
+                out.write(buffer, 0, n);
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException excp) {
+                out.abort();
+                throw excp;
+            }
+            out.close();
+            Timings.record(Timings.Phase.STORE, start, Files.size(path));
+            return out.id();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the first N bytes of CONTENTS, as for put(byte[],
+     *  Compressor), compressing them in memory and writing the object's
+     *  file in one go. */
+    private String put(byte[] contents, int n, Compressor compressor) {
+        MessageDigest md = sha1Digest();
+        md.update(contents, 0, n);
+        String id = hexDigest(md);
+        if (contains(id)) {
+            return id;
+        }
+        if (compressor == null) {
+            compressor = Compressor.choose(contents, n, n);
+        }
+        try {
+            install(id, compressor.encode(contents, n));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return id;
+    }
+
+    /** Store the contents read from IN as chunks, as split by a Chunker,
+     *  each compressed by COMPRESSOR, and return the id of the whole,
+     *  whose object is the list of the chunks. */
+    private String putChunked(InputStream in, Compressor compressor)
+        throws IOException {
+        MessageDigest md = sha1Digest();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(list);
+        Chunker chunker = new Chunker(in);
+        long length = 0;
+        for (int n = chunker.next(); n > 0; n = chunker.next()) {
+            md.update(chunker.chunk(), 0, n);
+            entries.write(PackFile.fromHex(put(chunker.chunk(), n,
+                                               compressor)));
+            entries.writeInt(n);
+            length += n;
+        }
+        String id = hexDigest(md);
+        if (!contains(id)) {
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            Compressor.CHUNKED.writeHeader(stored, length);
+            list.writeTo(stored);
+            install(id, stored.toByteArray());
+        }
+        return id;
+    }
+
+    /** Make STORED the stored form of the object ID, writing it beside its
+     *  final place and renaming it there. */
+    private void install(String id, byte[] stored) throws IOException {
+        File tmp = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile("tmp-", null, dir);
+            Files.write(tmp.toPath(), stored);
+            File file = fileFor(id);
+            file.getParentFile().mkdirs();
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+            added(id);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw excp;
+        }
+    }
+
+    /** Return the contents of the object with full id ID, from the object
+     *  cache if it is there.  The result is shared with the cache and must
+     *  not be modified. */
+    byte[] get(String id) {
+        byte[] result = cache.get(id);
+        if (result == null) {
+            result = read(id);
+            cache.put(id, result, result.length);
+        }
+        return result;
+    }
+
+    /** Return the contents of the object with full id ID, read from disk
+     *  without consulting or filling the object cache. */
+    byte[] read(String id) {
+        if (isLoose(id)) {
+            byte[] stored = readContents(fileFor(id));
+            if (!Compressor.isChunked(stored)) {
+                return Compressor.decode(stored);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(id, out);
+        return out.toByteArray();
+    }
+
+    /** Return the length of the contents of the object with full id ID,
+     *  without reading them. */
+    long size(String id) {
+        if (isLoose(id)) {
+            try {
+                return Compressor.length(fileFor(id));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return pack(id).length(id);
+    }
+
+    /** Write the contents of the object with full id ID to OUT without
+     *  holding the whole object in memory, unless it is small. */
+    void writeTo(String id, OutputStream out) {
+        if (isLoose(id)) {
+            try (InputStream in = openLoose(id)) {
+                in.transferTo(out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        byte[] list = pack(id).writeTo(id, out, baseCache);
+        if (list != null) {
+            for (String chunk : Chunker.ids(list)) {
+                writeTo(chunk, out);
+            }
+        }
+    }
+
+    /** Return a stream reading the contents of the object with full id
+     *  ID.  A loose object is decompressed as it is read from its file; a
+     *  packed one must first be rebuilt in memory, except that an object
+     *  stored as chunks is read a chunk at a time. */
+    InputStream open(String id) {
+        if (isLoose(id)) {
+            try {
+                return openLoose(id);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] list = pack(id).writeTo(id, out, baseCache);
+        return list != null ? openChunks(list)
+            : new ByteArrayInputStream(out.toByteArray());
+    }
+
+    /** Return the ids of the chunks of the object with full id ID, if it
+     *  is stored as chunks, and otherwise nothing.  Only the object's
+     *  header is read unless it is stored as chunks. */
+    List<String> chunks(String id) {
+        byte[] list = chunkList(id);
+        return list == null ? List.of() : Chunker.ids(list);
+    }
+
+    /** Return the chunk list of the object with full id ID if it is stored
+     *  as chunks, or null otherwise. */
+    byte[] chunkList(String id) {
+        try {
+            return isLoose(id) ? Compressor.chunkList(fileFor(id))
+                : pack(id).chunkList(id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the cache of objects read whole through get. */
+    ObjectCache<byte[]> objectCache() {
+        return cache;
+    }
+
+    /** Return the cache of delta bases rebuilt from packs. */
+    ObjectCache<byte[]> baseCache() {
+        return baseCache;
+    }
+
+    /** Set the length of the smallest file stored as chunks to LENGTH. */
+    void setChunkThreshold(long length) {
+        chunkThreshold = length;
+    }
+
+    /** Replace TARGET by a file holding the contents of the object with
+     *  full id ID, never holding those contents in memory unless they are
+     *  small.  A small loose object is read and decompressed whole, and
+     *  one stored as chunks is written a chunk at a time.  A
+     *  large one stored raw is copied file to file with
+     *  FileChannel.transferTo, which lets the operating system move the
+     *  bytes without passing them through the Java heap; a compressed or
+     *  packed one is streamed out through its decompressor.  If LINK and
+     *  the object is loose and raw, TARGET is instead made a hard link to
+     *  the object's file, which is made read-only so that editing TARGET
+     *  in place cannot corrupt the store; where linking is impossible, as
+     *  across file systems, the object is copied.  The new file is
+     *  written beside TARGET and renamed over it, so TARGET is never seen
+     *  partially written.  Missing directories leading to TARGET are
+     *  created. */
+    void checkout(String id, File target, boolean link) {
+        long start = Timings.start();
+        Path tmp = target.toPath().resolveSibling(
+            "." + target.getName() + ".gitlet-tmp");
+        try {
+            Files.createDirectories(tmp.toAbsolutePath().getParent());
+            Files.deleteIfExists(tmp);
+            File file = fileFor(id);
+            byte[] stored = isLoose(id) && file.length() <= MAX_CACHED_OBJECT
+                ? readContents(file) : null;
+            if (stored != null && Compressor.isPlain(stored)) {
+                if (!link || !tryLink(file.toPath(), tmp)) {
+                    Files.write(tmp, stored);
+                }
+            } else if (stored != null && !Compressor.isChunked(stored)) {
+                Files.write(tmp, Compressor.decode(stored));
+            } else if (!isLoose(id) || !Compressor.isPlain(file)) {
+                try (OutputStream out = new BufferedOutputStream(
+                         Files.newOutputStream(tmp), BUFFER_SIZE)) {
+                    writeTo(id, out);
+                }
+            } else if (!link || !tryLink(file.toPath(), tmp)) {
+                transfer(file.toPath(), tmp);
+            }
+            Files.move(tmp, target.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            Timings.record(Timings.Phase.CHECKOUT, start, target.length());
+        } catch (IOException excp) {
+            tmp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Make LINK a hard link to SOURCE, which is made read-only.  Return
+     *  false if the file system cannot do so. */
+    private static boolean tryLink(Path source, Path link) {
+        try {
+            source.toFile().setWritable(false, false);
+            Files.createLink(link, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Copy the file SOURCE to a new file TARGET with
+     *  FileChannel.transferTo. */
+    private static void transfer(Path source, Path target)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(source,
+                                               StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target,
+                                                StandardOpenOption.CREATE_NEW,
+                                                StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long done = 0;
+            while (done < size) {
+                done += in.transferTo(done, size - done, out);
+            }
+        }
+    }
+
+    /** Return the full id of the unique object whose id starts with
+     *  PREFIX, or null if there is none.  PREFIX must contain at least
+     *  FANOUT_LENGTH hex digits, and nothing else, so that it never names
+     *  a file outside the store.  Throws a GitletException if more than
+     *  one object matches. */
+    String resolve(String prefix) {
+        if (prefix.length() < FANOUT_LENGTH || prefix.length() > UID_LENGTH
+            || !isHex(prefix)) {
+            return null;
+        }
+        if (prefix.length() == UID_LENGTH) {
+            return contains(prefix) ? prefix : null;
+        }
+        List<String> found = new ArrayList<>();
+        String fanout = prefix.substring(0, FANOUT_LENGTH);
+        String rest = prefix.substring(FANOUT_LENGTH);
+        String[] names = index(fanout);
+        int k = Arrays.binarySearch(names, rest);
+        if (k < 0) {
+            k = -k - 1;
+        }
+        for (; k < names.length && found.size() < 2
+                 && names[k].startsWith(rest); k += 1) {
+            found.add(fanout + names[k]);
+        }
+        for (PackFile pack : packs()) {
+            pack.matching(prefix, found);
+        }
+        if (found.isEmpty()) {
+            return null;
+        } else if (found.size() > 1) {
+            throw error("Ambiguous object id prefix %s.", prefix);
+        }
+        return found.get(0);
+    }
+
+    /** Return the ids of all objects in this store, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        for (PackFile pack : packs()) {
+            result.addAll(pack.ids());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of all loose objects in this store, in sorted
+     *  order. */
+    List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        String[] fanouts = dir.list();
+        if (fanouts == null) {
+            return result;
+        }
+        Arrays.sort(fanouts);
+        for (String fanout : fanouts) {
+            if (fanout.length() != FANOUT_LENGTH) {
+                continue;
+            }
+            for (String name : index(fanout)) {
+                result.add(fanout + name);
+            }
+        }
+        return result;
+    }
+
+    /** Return the packs in this store, reading their indices on first
+     *  use. */
+    synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] files = join(dir, "pack").listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.getName().endsWith(".pack")
+                        && PackFile.indexFor(file).isFile()) {
+                        packs.add(new PackFile(file));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forget the packs and directory listings read so far, so that
+     *  objects added or repacked by another process are seen.  Cached
+     *  objects remain valid, since objects never change. */
+    synchronized void refresh() {
+        packs = null;
+        prefixIndex.clear();
+    }
+
+    /** Move every loose object into a single new pack, delta-compressing
+     *  them against one another, and return that pack, or null if there
+     *  were no loose objects.  The loose copies are deleted only once the
+     *  pack is safely on disk. */
+    synchronized PackFile repack() {
+        List<String> loose = looseIds();
+        if (loose.isEmpty()) {
+            return null;
+        }
+        PackFile pack = PackFile.write(join(dir, "pack"), loose, this);
+        packs().add(pack);
+        RefLock lock = lock();
+        try {
+            for (String id : loose) {
+                File file = fileFor(id);
+                file.delete();
+                file.getParentFile().delete();
+            }
+        } finally {
+            lock.close();
+        }
+        prefixIndex.clear();
+        return pack;
+    }
+
+    /** Return a hold on the RefLock of the repository directory holding
+     *  this store, under which packs are installed and the objects and
+     *  packs they replace are deleted, so that these steps of concurrent
+     *  repacks, collections and fetches never interleave. */
+    RefLock lock() {
+        return RefLock.acquire(dir.getAbsoluteFile().getParentFile());
+    }
+
+    /** Return the names of the fan-out directories holding loose
+     *  objects, in order. */
+    List<String> fanouts() {
+        List<String> result = new ArrayList<>();
+        File[] dirs = dir.listFiles();
+        if (dirs != null) {
+            for (File sub : dirs) {
+                if (sub.isDirectory()
+                    && sub.getName().length() == FANOUT_LENGTH) {
+                    result.add(sub.getName());
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Delete the loose objects in fan-out directory FANOUT whose ids are
+     *  not in LIVE and which were last modified before OLDERTHAN
+     *  milliseconds since the epoch, and return the number of objects and
+     *  bytes deleted as {objects, bytes}.  Different fan-out directories
+     *  may be swept at once from several threads. */
+    long[] sweep(String fanout, Set<String> live, long olderThan) {
+        File sub = join(dir, fanout);
+        long[] freed = new long[2];
+        List<String> names = plainFilenamesIn(sub);
+        if (names == null) {
+            return freed;
+        }
+        for (String name : names) {
+            File file = join(sub, name);
+            long length = file.length();
+            if (name.length() == UID_LENGTH - FANOUT_LENGTH
+                && !live.contains(fanout + name)
+                && file.lastModified() < olderThan && file.delete()) {
+                freed[0] += 1;
+                freed[1] += length;
+            }
+        }
+        sub.delete();
+        return freed;
+    }
+
+    /** Drop the objects whose ids are not in LIVE from the packs last
+     *  modified before OLDERTHAN milliseconds since the epoch, and return
+     *  the number of objects dropped and bytes freed as {objects, bytes}.
+     *  If any such pack holds a dead object, the live objects of all of
+     *  them that are not also loose are first written to a single new
+     *  pack, and the old packs are then deleted, so that a crash part way
+     *  leaves every live object readable. */
+    synchronized long[] retainPacked(Set<String> live, long olderThan) {
+        List<PackFile> old = new ArrayList<>();
+        List<String> packed = new ArrayList<>();
+        long dead = 0;
+        for (PackFile pack : packs()) {
+            if (pack.file().lastModified() >= olderThan) {
+                continue;
+            }
+            old.add(pack);
+            for (String id : pack.ids()) {
+                if (!live.contains(id)) {
+                    dead += 1;
+                } else if (!isLoose(id)) {
+                    packed.add(id);
+                }
+            }
+        }
+        if (dead == 0) {
+            return new long[2];
+        }
+        long freed = 0;
+        PackFile merged = packed.isEmpty() ? null
+            : PackFile.write(join(dir, "pack"), packed, this);
+        RefLock lock = lock();
+        try {
+            for (PackFile pack : old) {
+                if (merged != null && pack.file().equals(merged.file())) {
+                    continue;
+                }
+                freed += pack.file().length()
+                    + PackFile.indexFor(pack.file()).length();
+                pack.file().delete();
+                PackFile.indexFor(pack.file()).delete();
+            }
+        } finally {
+            lock.close();
+        }
+        if (merged != null) {
+            freed -= merged.file().length()
+                + PackFile.indexFor(merged.file()).length();
+        }
+        refresh();
+        return new long[] { dead, freed };
+    }
+
+    /** Return true iff S consists of lower-case hex digits alone. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the pack holding ID, or null if there is none. */
+    private PackFile packFor(String id) {
+        if (id.length() != UID_LENGTH) {
+            return null;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Return the pack holding ID, which must exist. */
+    private PackFile pack(String id) {
+        PackFile pack = packFor(id);
+        if (pack == null) {
+            throw error("No object with id %s exists.", id);
+        }
+        return pack;
+    }
+
+    /** Return a stream reading the contents of the loose object ID,
+     *  which are read and decompressed whole if they are small. */
+    private InputStream openLoose(String id) throws IOException {
+        File file = fileFor(id);
+        if (file.length() <= MAX_CACHED_OBJECT) {
+            byte[] stored = readContents(file);
+            if (Compressor.isChunked(stored)) {
+                return openChunks(Arrays.copyOfRange(stored,
+                                                     Compressor.HEADER,
+                                                     stored.length));
+            }
+            return new ByteArrayInputStream(Compressor.decode(stored));
+        }
+        byte[] list = Compressor.chunkList(file);
+        if (list != null) {
+            return openChunks(list);
+        }
+        return Compressor.decode(Files.newInputStream(file.toPath()));
+    }
+
+    /** Return a stream reading the contents of the chunks in the chunk
+     *  list LIST, in order, opening each only once the one before it is
+     *  used up. */
+    private InputStream openChunks(byte[] list) {
+        Iterator<String> chunks = Chunker.ids(list).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(chunks.next());
+            }
+        });
+    }
+
+    /** An output stream that stores the bytes written to it as a new
+     *  object, hashing them as they are written and spooling them,
+     *  compressed, to a temporary file in the store.  Closing the writer
+     *  names the object and moves the temporary file into place, or
+     *  discards it if the object was already present. */
+    class BlobWriter extends OutputStream {
+
+        /** A writer for a new object of this store, of about LENGTH bytes
+         *  starting with the N bytes of SAMPLE, to be stored by
+         *  COMPRESSOR.  Should the object's length turn out otherwise, as
+         *  when a file grows while it is added, its header is corrected
+         *  on closing. */
+        BlobWriter(Compressor compressor, byte[] sample, int n, long length)
+            throws IOException {
+            dir.mkdirs();
+            tmp = File.createTempFile("tmp-", null, dir);
+            OutputStream file = new BufferedOutputStream(
+                new FileOutputStream(tmp), BUFFER_SIZE);
+            header = compressor.needsHeader(sample, n);
+            if (header) {
+                compressor.writeHeader(file, length);
+            }
+            this.length = length;
+            out = compressor.compress(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            md.update((byte) b);
+            out.write(b);
+            written += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            md.update(b, off, len);
+            out.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (id != null) {
+                return;
+            }
+            out.close();
+            if (header && written != length) {
+                try (RandomAccessFile file = new RandomAccessFile(tmp, "rw")) {
+                    file.seek(Compressor.HEADER - 8);
+                    file.writeLong(written);
+                }
+            }
+            id = hexDigest(md);
+            if (contains(id)) {
+                tmp.delete();
+                return;
+            }
+            File file = fileFor(id);
+            file.getParentFile().mkdirs();
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+            added(id);
+        }
+
+        /** Discard everything written so far. */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                /* Ignore: the file is being discarded. */
+            }
+            tmp.delete();
+        }
+
+        /** Return the id of the object written, once closed. */
+        String id() {
+            return id;
+        }
+
+        /** Temporary file receiving the contents. */
+        private final File tmp;
+        /** Stream compressing onto TMP. */
+        private final OutputStream out;
+        /** True iff TMP starts with a header. */
+        private final boolean header;
+        /** Length given in the header. */
+        private final long length;
+        /** Number of bytes written so far. */
+        private long written;
+        /** Hash of the bytes written so far. */
+        private final MessageDigest md = sha1Digest();
+        /** Id of the object, set on close. */
+        private String id;
+    }
+
+    /** Return the sorted names (id suffixes) of the objects in fan-out
+     *  directory FANOUT, reading the directory only on first use. */
+    private synchronized String[] index(String fanout) {
+        String[] names = prefixIndex.get(fanout);
+        if (names == null) {
+            List<String> files = plainFilenamesIn(join(dir, fanout));
+            names = files == null ? new String[0]
+                : files.toArray(new String[0]);
+            prefixIndex.put(fanout, names);
+        }
+        return names;
+    }
+
+    /** Record that the object ID has just been written, keeping any
+     *  cached listing of its fan-out directory sorted. */
+    private synchronized void added(String id) {
+        String fanout = id.substring(0, FANOUT_LENGTH);
+        String[] names = prefixIndex.get(fanout);
+        if (names == null) {
+            return;
+        }
+        String rest = id.substring(FANOUT_LENGTH);
+        int k = Arrays.binarySearch(names, rest);
+        if (k >= 0) {
+            return;
+        }
+        k = -k - 1;
+        String[] grown = new String[names.length + 1];
+        System.arraycopy(names, 0, grown, 0, k);
+        grown[k] = rest;
+        System.arraycopy(names, k, grown, k + 1, names.length - k);
+        prefixIndex.put(fanout, grown);
+    }
+
+    /** Length of the smallest file stored as chunks by put(Path). */
+    private long chunkThreshold = CHUNK_THRESHOLD;
+    /** Root directory of this store. */
+    private final File dir;
+    /** Sorted listings of fan-out directories read so far, keyed by the
+     *  two-digit fan-out name. */
+    private final HashMap<String, String[]> prefixIndex = new HashMap<>();
+    /** Packs in this store, or null if not yet read. */
+    private List<PackFile> packs;
+    /** Delta bases recently rebuilt from packs. */
+    private final ObjectCache<byte[]> baseCache =
+        new ObjectCache<>(BASE_CACHE_BYTES, BASE_CACHE_BYTES);
+    /** Objects recently read whole. */
+    private final ObjectCache<byte[]> cache =
+        new ObjectCache<>(OBJECT_CACHE_BYTES, MAX_CACHED_OBJECT);
+}
@@ -0,0 +1,676 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/** A pack of gitlet objects: a single NAME.pack file holding many objects,
+ *  each stored either as a zlib-compressed whole (a base) or as a
+ *  compressed Delta against another object of the same pack, plus a
+ *  NAME.idx file mapping ids to offsets in the pack.  An object that the
+ *  ObjectStore keeps as chunks is packed as its compressed chunk list
+ *  (CHUNKS), which only the store can follow.
+ *
+ *  The pack file is
+ *      "GPAK" <version> <count> <entry>*
+ *  where each entry is a type byte (BASE, DELTA or CHUNKS), the 20-byte id
+ *  of its base for DELTA entries, the length of the object, the length of
+ *  the compressed data that follows, and that data.  The index file is
+ *      "GIDX" <version> <count> <fanout[256]> <id>* <offset>*
+ *  with ids in sorted order and fanout[b] the number of ids whose first
+ *  byte is at most b, as in Git's pack index.
+ *
+ *  @author SuuTou
+ */
+class PackFile {
+
+    /** Number of recently packed objects tried as delta bases for each
+     *  new one. */
+    static final int WINDOW = 10;
+    /** Bound on the total size of the objects held in the delta window. */
+    static final long WINDOW_BYTES = 64L << 20;
+    /** Longest chain of deltas needed to rebuild any packed object. */
+    static final int MAX_DEPTH = 10;
+
+    /** Entry type of a whole compressed object. */
+    private static final int BASE = 1;
+    /** Entry type of a compressed delta against another entry. */
+    private static final int DELTA = 2;
+    /** Entry type of a compressed chunk list. */
+    private static final int CHUNKS = 3;
+    /** Format version written in pack and index headers. */
+    private static final int VERSION = 1;
+    /** Length in bytes of a binary SHA-1 id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /** The pack whose files are PACK and the .idx file beside it. */
+    PackFile(File pack) {
+        this.pack = pack;
+        File idx = indexFor(pack);
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(idx)))) {
+            checkMagic(in, "GIDX");
+            int count = in.readInt();
+            for (int b = 0; b < 256; b += 1) {
+                in.readInt();
+            }
+            ids = new String[count];
+            offsets = new long[count];
+            byte[] raw = new byte[ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(raw);
+                ids[i] = toHex(raw);
+            }
+            for (int i = 0; i < count; i += 1) {
+                offsets[i] = in.readLong();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** The pack held in PACK, not yet indexed, whose entries are at the
+     *  offsets given by WHERE. */
+    private PackFile(File pack, Map<String, Long> where) {
+        this.pack = pack;
+        ids = where.keySet().toArray(new String[0]);
+        Arrays.sort(ids);
+        offsets = new long[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            offsets[i] = where.get(ids[i]);
+        }
+    }
+
+    /** Return the .pack file of this pack. */
+    File file() {
+        return pack;
+    }
+
+    /** Return the number of objects in this pack. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Return the ids of the objects in this pack, in sorted order. */
+    List<String> ids() {
+        return Arrays.asList(ids);
+    }
+
+    /** Return true iff this pack holds the object with full id ID. */
+    boolean contains(String id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /** Add to RESULT the ids of every object in this pack whose id starts
+     *  with PREFIX, stopping once RESULT has two elements. */
+    void matching(String prefix, List<String> result) {
+        int k = Arrays.binarySearch(ids, prefix);
+        if (k < 0) {
+            k = -k - 1;
+        }
+        for (; k < ids.length && result.size() < 2
+                 && ids[k].startsWith(prefix); k += 1) {
+            if (!result.contains(ids[k])) {
+                result.add(ids[k]);
+            }
+        }
+    }
+
+    /** Return the length of the contents of the object ID. */
+    long length(String id) {
+        int k = Arrays.binarySearch(ids, id);
+        if (k < 0) {
+            throw error("No object with id %s exists.", id);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(pack, "r")) {
+            file.seek(offsets[k]);
+            int type = file.readByte();
+            file.skipBytes(type == DELTA ? ID_BYTES : 0);
+            return file.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the object ID, which is not stored as
+     *  chunks, using CACHE for delta bases. */
+    byte[] get(String id, ObjectCache<byte[]> cache) {
+        return get(id, cache, 0);
+    }
+
+    /** Return the contents of the object ID, as for get(ID, CACHE), where
+     *  it is needed as the base of a chain of DEPTH deltas. */
+    private byte[] get(String id, ObjectCache<byte[]> cache, int depth) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (writeTo(id, out, cache, depth) != null) {
+            throw new IllegalArgumentException("chunked object " + id);
+        }
+        return out.toByteArray();
+    }
+
+    /** Return the chunk list of the object ID if it is stored as chunks,
+     *  and otherwise null. */
+    byte[] chunkList(String id) {
+        int k = Arrays.binarySearch(ids, id);
+        if (k < 0) {
+            throw error("No object with id %s exists.", id);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(pack, "r")) {
+            file.seek(offsets[k]);
+            if (file.readByte() != CHUNKS) {
+                return null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        return writeTo(id, out, null);
+    }
+
+    /** Write the contents of the object ID to OUT and return null, or, if
+     *  it is stored as chunks, write nothing and return its chunk list.
+     *  Whole objects are inflated straight through a fixed buffer; deltas
+     *  are applied as they are read, so only their base, taken from CACHE
+     *  when possible, is ever held in memory.  Throws an
+     *  IllegalArgumentException if rebuilding the object takes a chain of
+     *  more than MAX_DEPTH deltas, as a corrupt pack whose deltas form a
+     *  cycle would. */
+    byte[] writeTo(String id, OutputStream out, ObjectCache<byte[]> cache) {
+        return writeTo(id, out, cache, 0);
+    }
+
+    /** Write the object ID to OUT, or return its chunk list, as for
+     *  writeTo(ID, OUT, CACHE), where it is needed as the base of a chain
+     *  of DEPTH deltas. */
+    private byte[] writeTo(String id, OutputStream out,
+                           ObjectCache<byte[]> cache, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("delta chain too long in "
+                                               + pack);
+        }
+        int k = Arrays.binarySearch(ids, id);
+        if (k < 0) {
+            throw error("No object with id %s exists.", id);
+        }
+        try (FileInputStream file = new FileInputStream(pack)) {
+            file.getChannel().position(offsets[k]);
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(file));
+            int type = in.readByte();
+            String baseId = null;
+            if (type == DELTA) {
+                byte[] raw = new byte[ID_BYTES];
+                in.readFully(raw);
+                baseId = toHex(raw);
+            } else if (type != BASE && type != CHUNKS) {
+                throw new IllegalArgumentException("corrupt pack " + pack);
+            }
+            in.readLong();
+            in.readLong();
+            InputStream data = new InflaterInputStream(in);
+            if (type == CHUNKS) {
+                return data.readAllBytes();
+            } else if (baseId == null) {
+                data.transferTo(out);
+            } else {
+                Delta.apply(base(baseId, cache, depth + 1), data, out);
+            }
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of the delta base BASEID, from CACHE if it is
+     *  there, and otherwise rebuilt, as the base of a chain of DEPTH
+     *  deltas, and added to CACHE. */
+    private byte[] base(String baseId, ObjectCache<byte[]> cache,
+                        int depth) {
+        byte[] result = cache.get(baseId);
+        if (result == null) {
+            result = get(baseId, cache, depth);
+            cache.put(baseId, result, result.length);
+        }
+        return result;
+    }
+
+    /** Write the objects IDS, read from STORE, into a new pack in
+     *  directory DIR and return it.  Objects are visited from largest to
+     *  smallest, and each is stored as a delta against whichever of the
+     *  last WINDOW objects gives the smallest one, if that delta is under
+     *  half the object's size; otherwise it is stored whole.  Objects
+     *  STORE keeps as chunks are packed as their chunk lists. */
+    static PackFile write(File dir, List<String> ids, ObjectStore store) {
+        File tmp = tempPack(dir);
+        HashMap<String, Long> where = new HashMap<>();
+        boolean installed = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                writeEntries(ids, store, out, where, false);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            PackFile result = install(store, dir, tmp, where);
+            installed = true;
+            return result;
+        } finally {
+            if (!installed) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Write the objects IDS, read from STORE, to OUT as a pack stream:
+     *  a pack whose every entry is preceded by the 20-byte id of its
+     *  object, so that a receiver can index it as it arrives. */
+    static void send(List<String> ids, ObjectStore store, OutputStream out)
+        throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        writeEntries(ids, store, data, new HashMap<>(), true);
+        data.flush();
+    }
+
+    /** Read a pack stream, as written by send, from IN into a new pack in
+     *  STORE, and return the pack, or null if it was empty.  The pack is
+     *  installed only once every object in it has been checked to have
+     *  the id it was sent with, so that a corrupt stream never reaches
+     *  the store.  The chunks of an object sent as a chunk list may be in
+     *  the pack or already in STORE. */
+    static PackFile receive(ObjectStore store, InputStream in)
+        throws IOException {
+        File dir = join(store.directory(), "pack");
+        HashMap<String, Long> where = new HashMap<>();
+        DataInputStream data = new DataInputStream(in);
+        checkMagic(data, "GPAK");
+        int count = data.readInt();
+        File tmp = tempPack(dir);
+        boolean installed = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeBytes("GPAK");
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                long offset = 4 + 4 + 4;
+                byte[] raw = new byte[ID_BYTES];
+                for (int i = 0; i < count; i += 1) {
+                    data.readFully(raw);
+                    where.put(toHex(raw), offset);
+                    int type = data.readByte();
+                    out.writeByte(type);
+                    offset += 1;
+                    if (type == DELTA) {
+                        data.readFully(raw);
+                        out.write(raw);
+                        offset += ID_BYTES;
+                    } else if (type != BASE && type != CHUNKS) {
+                        throw new IOException("corrupt pack stream");
+                    }
+                    out.writeLong(data.readLong());
+                    long length = data.readLong();
+                    out.writeLong(length);
+                    copy(data, out, length);
+                    offset += 8 + 8 + length;
+                }
+            }
+            if (count == 0) {
+                return null;
+            }
+            new PackFile(tmp, where).verify(store);
+            PackFile result = install(store, dir, tmp, where);
+            installed = true;
+            return result;
+        } finally {
+            if (!installed) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Throw an IOException unless every object in this pack has the id
+     *  it is indexed under.  The chunks of an object stored as a chunk
+     *  list may be in this pack or in STORE.  The chains of deltas are
+     *  checked first, so that no object is rebuilt from a chain that is
+     *  longer than MAX_DEPTH, loops or ends outside the pack. */
+    private void verify(ObjectStore store) throws IOException {
+        checkChains();
+        ObjectCache<byte[]> bases =
+            new ObjectCache<>(ObjectStore.BASE_CACHE_BYTES,
+                              ObjectStore.BASE_CACHE_BYTES);
+        for (String id : ids) {
+            MessageDigest md = sha1Digest();
+            OutputStream sink = new DigestOutputStream(
+                OutputStream.nullOutputStream(), md);
+            try {
+                byte[] list = writeTo(id, sink, bases);
+                for (String chunk : list == null ? List.<String>of()
+                         : Chunker.ids(list)) {
+                    if (contains(chunk)) {
+                        writeTo(chunk, sink, bases);
+                    } else if (store.contains(chunk)) {
+                        store.writeTo(chunk, sink);
+                    } else {
+                        md.update((byte) 0);
+                        break;
+                    }
+                }
+            } catch (IllegalArgumentException | GitletException excp) {
+                md.update((byte) 0);
+            }
+            if (!hexDigest(md).equals(id)) {
+                throw new IOException("corrupt object " + id + " received");
+            }
+        }
+    }
+
+    /** Throw an IOException unless the chain of deltas leading from each
+     *  object of this pack to a whole object within it has at most
+     *  MAX_DEPTH links. */
+    private void checkChains() throws IOException {
+        HashMap<String, String> bases = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(pack, "r")) {
+            byte[] raw = new byte[ID_BYTES];
+            for (int k = 0; k < ids.length; k += 1) {
+                file.seek(offsets[k]);
+                if (file.readByte() == DELTA) {
+                    file.readFully(raw);
+                    bases.put(ids[k], toHex(raw));
+                }
+            }
+        }
+        for (String id : bases.keySet()) {
+            String at = id;
+            for (int depth = 0; bases.containsKey(at); depth += 1) {
+                if (depth == MAX_DEPTH) {
+                    throw new IOException("delta chain of " + id
+                                          + " too long or cyclic");
+                }
+                at = bases.get(at);
+            }
+            if (!contains(at)) {
+                throw new IOException("delta base " + at + " of " + id
+                                      + " not received");
+            }
+        }
+    }
+
+    /** Copy LENGTH bytes from IN to OUT. */
+    private static void copy(DataInputStream in, OutputStream out,
+                             long length) throws IOException {
+        byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+        while (length > 0) {
+            int n = (int) Math.min(buffer.length, length);
+            in.readFully(buffer, 0, n);
+            out.write(buffer, 0, n);
+            length -= n;
+        }
+    }
+
+    /** Write the header and entries of a pack of the objects IDS, read
+     *  from STORE, to OUT, recording the offset of each entry in WHERE,
+     *  and preceding each entry with its object's id if WITHIDS. */
+    private static void writeEntries(List<String> ids, ObjectStore store,
+                                     DataOutputStream out,
+                                     Map<String, Long> where,
+                                     boolean withIds) throws IOException {
+        HashMap<String, Long> sizes = new HashMap<>();
+        for (String id : ids) {
+            sizes.put(id, store.size(id));
+        }
+        List<String> order = new ArrayList<>(ids);
+        order.sort(Comparator.comparing((String id) -> -sizes.get(id))
+                   .thenComparing(Comparator.naturalOrder()));
+
+        out.writeBytes("GPAK");
+        out.writeInt(VERSION);
+        out.writeInt(order.size());
+        ArrayDeque<Candidate> window = new ArrayDeque<>();
+        long windowBytes = 0;
+        long offset = 4 + 4 + 4;
+        for (String id : order) {
+            byte[] list = store.chunkList(id);
+            if (list != null) {
+                if (withIds) {
+                    out.write(fromHex(id));
+                }
+                where.put(id, offset);
+                out.writeByte(CHUNKS);
+                out.writeLong(sizes.get(id));
+                byte[] packed = deflate(list);
+                out.writeLong(packed.length);
+                out.write(packed);
+                offset += 1 + 8 + 8 + packed.length;
+                continue;
+            }
+            byte[] contents = store.get(id);
+            Candidate best = null;
+            byte[] bestDelta = null;
+            for (Candidate cand : window) {
+                if (cand.depth >= MAX_DEPTH) {
+                    continue;
+                }
+                byte[] delta = Delta.encode(cand.contents, contents);
+                if (delta.length < contents.length / 2
+                    && (bestDelta == null
+                        || delta.length < bestDelta.length)) {
+                    best = cand;
+                    bestDelta = delta;
+                }
+            }
+            if (withIds) {
+                out.write(fromHex(id));
+            }
+            where.put(id, offset);
+            if (best == null) {
+                out.writeByte(BASE);
+            } else {
+                out.writeByte(DELTA);
+                out.write(fromHex(best.id));
+                offset += ID_BYTES;
+            }
+            out.writeLong(contents.length);
+            byte[] packed =
+                deflate(bestDelta == null ? contents : bestDelta);
+            out.writeLong(packed.length);
+            out.write(packed);
+            offset += 1 + 8 + 8 + packed.length;
+
+            Candidate cand = new Candidate(id, contents,
+                                           best == null ? 0
+                                           : best.depth + 1);
+            window.addLast(cand);
+            windowBytes += contents.length;
+            while (window.size() > WINDOW
+                   || (windowBytes > WINDOW_BYTES && window.size() > 1)) {
+                windowBytes -= window.removeFirst().contents.length;
+            }
+        }
+    }
+
+    /** Return a new, empty temporary file in pack directory DIR, which
+     *  is created if need be.  Each writer has a file of its own, so
+     *  concurrent writers never clobber one another's packs. */
+    private static File tempPack(File dir) {
+        dir.mkdirs();
+        try {
+            return Files.createTempFile(dir.toPath(), "tmp-pack-", ".tmp")
+                .toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Give the pack in TMP, in directory DIR of STORE, whose entries are
+     *  at the offsets given by WHERE, its index and its final name, and
+     *  return it.  Both files and DIR are synced before this returns, so
+     *  that the caller may then delete the copies of the objects held
+     *  elsewhere without a crash losing them.  The index and the pack
+     *  are renamed into place under the store's lock (see
+     *  ObjectStore.lock).  A pack of the same objects that is already in
+     *  place is kept instead, since readers may have it open. */
+    private static PackFile install(ObjectStore store, File dir, File tmp,
+                                    Map<String, Long> where) {
+        List<String> sorted = new ArrayList<>(where.keySet());
+        sorted.sort(Comparator.naturalOrder());
+        String name = "pack-" + sha1(String.join("", sorted));
+        File packFile = join(dir, name + ".pack");
+        File idxFile = join(dir, name + ".idx");
+        File idxTmp = new File(tmp.getPath() + ".idx");
+        try {
+            writeIndex(idxTmp, sorted, where);
+            fsync(idxTmp);
+            fsync(tmp);
+            RefLock lock = store.lock();
+            try {
+                if (packFile.isFile() && idxFile.isFile()) {
+                    tmp.delete();
+                } else if (!idxTmp.renameTo(idxFile)
+                           || !tmp.renameTo(packFile)) {
+                    throw new IllegalArgumentException("could not write "
+                                                       + packFile);
+                }
+                fsync(dir);
+            } finally {
+                lock.close();
+            }
+        } finally {
+            idxTmp.delete();
+        }
+        return new PackFile(packFile);
+    }
+
+    /** Write the index of the objects IDS, in sorted order, located at the
+     *  offsets given by WHERE, to IDX. */
+    private static void writeIndex(File idx, List<String> ids,
+                                   Map<String, Long> where) {
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 1; b < 256; b += 1) {
+            fanout[b] += fanout[b - 1];
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(idx)))) {
+            out.writeBytes("GIDX");
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            for (String id : ids) {
+                out.write(fromHex(id));
+            }
+            for (String id : ids) {
+                out.writeLong(where.get(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the .idx file belonging to the pack file PACK. */
+    static File indexFor(File pack) {
+        String name = pack.getName();
+        return new File(pack.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length())
+                        + ".idx");
+    }
+
+    /** Read the header of IN and check that it starts with MAGIC and the
+     *  current VERSION. */
+    private static void checkMagic(DataInputStream in, String magic)
+        throws IOException {
+        byte[] head = new byte[magic.length()];
+        in.readFully(head);
+        if (!magic.equals(new String(head, StandardCharsets.US_ASCII))
+            || in.readInt() != VERSION) {
+            throw new IllegalArgumentException("not a gitlet " + magic
+                                               + " file");
+        }
+    }
+
+    /** Return DATA compressed with zlib. */
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream out =
+                 new DeflaterOutputStream(result, deflater)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    /** Return the lower-case hex numeral for the bytes of RAW. */
+    static String toHex(byte[] raw) {
+        StringBuilder result = new StringBuilder(raw.length * 2);
+        for (byte b : raw) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16));
+            result.append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /** Return the bytes denoted by the hex numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** An object in the delta window while packing. */
+    private static class Candidate {
+        /** A candidate for object ID, whose contents are CONTENTS, and
+         *  which is stored at delta depth DEPTH. */
+        Candidate(String id, byte[] contents, int depth) {
+            this.id = id;
+            this.contents = contents;
+            this.depth = depth;
+        }
+
+        /** Id of this object. */
+        private final String id;
+        /** Full contents of this object. */
+        private final byte[] contents;
+        /** Number of deltas applied to rebuild this object. */
+        private final int depth;
+    }
+
+    /** The .pack file. */
+    private final File pack;
+    /** Ids of the objects in this pack, sorted. */
+    private final String[] ids;
+    /** Offsets in the pack of the entries for IDS. */
+    private final long[] offsets;
+}
@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static gitlet.Utils.*;
+
+/** The lock serializing the writers of a repository's references and
+ *  other shared mutable files, across processes as well as threads.  It
+ *  is an exclusive FileChannel lock on the file "lock" in the repository
+ *  directory, which the operating system releases if its holder dies, so
+ *  a crash never leaves the repository locked.  Since FileChannel locks
+ *  belong to a whole process, the threads of one process first take a
+ *  ReentrantLock, and a thread already holding the lock may take it
+ *  again.  Each repository directory, named by its canonical path, has a
+ *  lock of its own, so one process may lock several repositories.
+ *
+ *  Writers hold the lock only to check that what they read is unchanged
+ *  and to install what they wrote (see Transaction), never while hashing
+ *  files or writing objects, so it is held briefly.  The exception is a
+ *  branch checkout, which holds it while rewriting the working files,
+ *  since those cannot be put back if its update of HEAD then fails.
+ *  Readers never take it: every file they read is replaced by an atomic
+ *  rename, and so is always whole.
+ *
+ *  @author SuuTou
+ */
+class RefLock implements AutoCloseable {
+
+    /** Name of the lock file within the repository directory. */
+    static final String LOCK = "lock";
+
+    /** A hold on the lock of the repository directory that STATE
+     *  belongs to. */
+    private RefLock(State state) {
+        this.state = state;
+    }
+
+    /** Return the lock of repository directory DIR, waiting until no
+     *  other process or thread holds it. */
+    static RefLock acquire(File dir) {
+        State state = stateOf(dir);
+        state.threads.lock();
+        if (state.threads.getHoldCount() == 1) {
+            try {
+                state.channel = open(dir);
+                state.lock = state.channel.lock();
+            } catch (IOException excp) {
+                state.release();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return new RefLock(state);
+    }
+
+    /** Return the lock of repository directory DIR, or null if another
+     *  process or thread holds it. */
+    static RefLock tryAcquire(File dir) {
+        State state = stateOf(dir);
+        if (!state.threads.tryLock()) {
+            return null;
+        }
+        if (state.threads.getHoldCount() == 1) {
+            try {
+                state.channel = open(dir);
+                state.lock = state.channel.tryLock();
+            } catch (IOException excp) {
+                state.release();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (state.lock == null) {
+                state.release();
+                return null;
+            }
+        }
+        return new RefLock(state);
+    }
+
+    /** Release this hold on the lock. */
+    @Override
+    public void close() {
+        state.release();
+    }
+
+    /** Return the state of the lock of repository directory DIR. */
+    private static State stateOf(File dir) {
+        try {
+            return STATES.computeIfAbsent(dir.getCanonicalPath(),
+                                          path -> new State());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a channel on the lock file of repository directory DIR. */
+    private static FileChannel open(File dir) throws IOException {
+        return FileChannel.open(join(dir, LOCK).toPath(),
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE);
+    }
+
+    /** The lock of one repository directory within this process. */
+    private static class State {
+        /** Give up the current thread's innermost hold on this lock,
+         *  releasing the file lock with the last one. */
+        void release() {
+            if (threads.getHoldCount() == 1 && channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException excp) {
+                    /* Closing the channel releases the lock regardless. */
+                }
+                channel = null;
+                lock = null;
+            }
+            threads.unlock();
+        }
+
+        /** Serializes the threads of this process. */
+        private final ReentrantLock threads = new ReentrantLock();
+        /** Channel on the lock file while the lock is held. */
+        private FileChannel channel;
+        /** The file lock while held. */
+        private FileLock lock;
+    }
+
+    /** The state of the lock of each repository directory, by canonical
+     *  path. */
+    private static final ConcurrentHashMap<String, State> STATES =
+        new ConcurrentHashMap<>();
+
+    /** The lock held. */
+    private final State state;
+}
@@ -0,0 +1,395 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Transfer of commits between repositories over a TCP socket.  "serve
+ *  PORT" serves the repository in the current directory on a port of
+ *  the loopback interface; "add-remote NAME HOST:PORT" names such a
+ *  server, and "fetch NAME BRANCH" and "push NAME BRANCH" then exchange
+ *  commits with it.
+ *
+ *  Rather than copying whole object directories, the two sides negotiate
+ *  what is missing.  A fetching client advertises the heads of all its
+ *  branches; the server keeps those it knows, walks its commit graph from
+ *  the wanted branch head down to them, and answers with the commits the
+ *  client lacks and a single pack stream (see PackFile.send) holding
+ *  those commits and the blobs they refer to, less the blobs of the
+ *  commits at the edge of the shared history.  A push is the same in
+ *  reverse, the server first telling the client its head.  Both walk only
+ *  the missing part of the graph, so the time and bytes of a transfer
+ *  grow with what is sent rather than with the size of either history.
+ *
+ *  Every request starts with the magic number "GRMT", the command
+ *  ("fetch" or "push") and a branch name, as modified-UTF-8 strings.
+ *  Each reply starts with a status string, empty on success and
+ *  otherwise the message of the error that ended the request.  Commit
+ *  ids travel as 20 raw bytes, lists of them preceded by their count.
+ *
+ *      fetch: client sends  <shallow:boolean> <haves>
+ *             server sends  <status> <head> <commits> <pack>
+ *      push:  server sends  <status> <head:UTF, empty if none>
+ *                           <shallow:boolean>
+ *             client sends  <head> <commits> <pack>
+ *             server sends  <status>
+ *
+ *  A fetched branch is recorded locally as branch REMOTE/BRANCH.  A push
+ *  must fast-forward the server's branch, which is updated only if it
+ *  still holds the head the server first reported.  Commits received
+ *  without their parents, because the sender's history is shallow, join
+ *  the receiver's shallow boundary.  Merging a fetched branch (pull) is
+ *  left to merge.
+ *
+ *  @author SuuTou
+ */
+class Remote {
+
+    /** Magic number starting every request. */
+    private static final String MAGIC = "GRMT";
+    /** Milliseconds a client waits for a server to accept it. */
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /** Record that remote NAME is served at ADDRESS, of the form
+     *  HOST:PORT. */
+    static void addRemote(String name, String address) {
+        Repository.checkInitialized();
+        parseAddress(address);
+        File file = join(Repository.REMOTES_DIR, name);
+        if (file.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        Repository.REMOTES_DIR.mkdirs();
+        writeContentsAtomically(file, address);
+    }
+
+    /** Forget remote NAME. */
+    static void rmRemote(String name) {
+        Repository.checkInitialized();
+        File file = join(Repository.REMOTES_DIR, name);
+        if (!file.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        file.delete();
+    }
+
+    /** Serve fetch and push requests for the repository in the current
+     *  directory on port PORT of the loopback interface, one at a time,
+     *  until killed. */
+    static void serve(int port) {
+        Repository.checkInitialized();
+        try (ServerSocket server =
+                 new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            message("Serving on port %d.", server.getLocalPort());
+            System.out.flush();
+            while (true) {
+                try (Socket client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    /* A client went away mid-request; serve the next. */
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the commits of branch BRANCH of remote REMOTE that this
+     *  repository lacks, and make branch REMOTE/BRANCH point to its
+     *  head, unless another command moved that branch meanwhile. */
+    static void fetch(String remote, String branch) {
+        Repository.checkInitialized();
+        Transaction txn = new Transaction(Repository.GITLET_DIR);
+        File ref = join(Repository.BRANCHES_DIR, remote, branch);
+        txn.readString(ref);
+        try (Socket socket = connect(remote)) {
+            DataInputStream in = input(socket);
+            DataOutputStream out = output(socket);
+            writeHeader(out, "fetch", branch);
+            out.writeBoolean(!Repository.shallow().isEmpty());
+            writeIds(out, new LinkedHashSet<>(Repository.branchHeads()));
+            out.flush();
+            checkStatus(in);
+            String head = Codec.readId(in);
+            receive(in, readIds(in));
+            txn.write(ref, head);
+            if (!txn.commit()) {
+                throw error("Another gitlet command changed the repository "
+                            + "during fetch; run fetch again.");
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Send the commits of the current branch that remote REMOTE lacks,
+     *  and make them its branch BRANCH, which they must extend. */
+    static void push(String remote, String branch) {
+        Repository.checkInitialized();
+        String head = Repository.headCommit();
+        try (Socket socket = connect(remote)) {
+            DataInputStream in = input(socket);
+            DataOutputStream out = output(socket);
+            writeHeader(out, "push", branch);
+            out.flush();
+            checkStatus(in);
+            String theirs = in.readUTF();
+            boolean shallow = in.readBoolean();
+            List<String> haves = List.of();
+            if (!theirs.isEmpty()) {
+                if (!isCommit(theirs)
+                    || !Repository.commitGraph().isAncestor(theirs, head)) {
+                    throw error("Please pull down remote changes before "
+                                + "pushing.");
+                }
+                haves = List.of(theirs);
+            }
+            List<String> commits = new ArrayList<>();
+            List<String> objects = objectsFor(head, haves, shallow, commits);
+            Codec.writeId(out, head);
+            writeIds(out, commits);
+            PackFile.send(objects, Repository.OBJECTS, out);
+            out.flush();
+            checkStatus(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Answer the request arriving on SOCKET.  A request that fails,
+     *  other than by the client going away, is answered with an error
+     *  status, so that the server carries on with the next. */
+    private static void handle(Socket socket) throws IOException {
+        DataInputStream in = input(socket);
+        DataOutputStream out = output(socket);
+        byte[] magic = new byte[MAGIC.length()];
+        in.readFully(magic);
+        if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+            return;
+        }
+        String command = in.readUTF();
+        String branch = in.readUTF();
+        Repository.forgetCaches();
+        try {
+            if (!isBranchName(branch)) {
+                throw error("That remote does not have that branch.");
+            } else if (command.equals("fetch")) {
+                serveFetch(branch, in, out);
+            } else if (command.equals("push")) {
+                servePush(branch, in, out);
+            } else {
+                throw error("Unknown request.");
+            }
+        } catch (GitletException excp) {
+            out.writeUTF(excp.getMessage());
+        } catch (IllegalArgumentException | IOException excp) {
+            out.writeUTF("The remote could not complete the request: "
+                         + excp.getMessage());
+        }
+        out.flush();
+    }
+
+    /** Answer a fetch of BRANCH, read from IN, on OUT. */
+    private static void serveFetch(String branch, DataInputStream in,
+                                   DataOutputStream out) throws IOException {
+        boolean shallow = in.readBoolean();
+        List<String> haves = readIds(in);
+        String head = Repository.branchHead(branch);
+        if (head == null) {
+            throw error("That remote does not have that branch.");
+        }
+        haves.removeIf(id -> !isCommit(id));
+        List<String> commits = new ArrayList<>();
+        List<String> objects = objectsFor(head, haves, shallow, commits);
+        out.writeUTF("");
+        Codec.writeId(out, head);
+        writeIds(out, commits);
+        PackFile.send(objects, Repository.OBJECTS, out);
+    }
+
+    /** Answer a push to BRANCH, read from IN, on OUT. */
+    private static void servePush(String branch, DataInputStream in,
+                                  DataOutputStream out) throws IOException {
+        Transaction txn = new Transaction(Repository.GITLET_DIR);
+        File ref = join(Repository.BRANCHES_DIR, branch);
+        String old = txn.readString(ref);
+        out.writeUTF("");
+        out.writeUTF(old == null ? "" : old);
+        out.writeBoolean(!Repository.shallow().isEmpty());
+        out.flush();
+        String head = Codec.readId(in);
+        receive(in, readIds(in));
+        boolean fastForward = isCommit(head)
+            && (old == null || Repository.commitGraph().isAncestor(old, head));
+        txn.write(ref, head);
+        if (!fastForward || !txn.commit()) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+        out.writeUTF("");
+    }
+
+    /** Return the ids of the objects of the history of commit WANT that a
+     *  repository holding the commits HAVES (and their history, unless
+     *  it is SHALLOW) lacks, adding the ids of the missing commits, parents
+     *  first, to COMMITS.  These are the commits themselves and their
+     *  trees and blobs, less the trees and blobs of the commits just below
+     *  them, which the other side holds; a shallow repository may have cut
+     *  those away, so only those of HAVES are left out for it.  Subtrees
+     *  shared with the held ones are not walked. */
+    private static List<String> objectsFor(String want,
+                                           Collection<String> haves,
+                                           boolean shallow,
+                                           List<String> commits) {
+        HashSet<String> common = new HashSet<>();
+        commits.addAll(Repository.commitGraph().missing(want, haves, common));
+        HashSet<String> held = new HashSet<>();
+        for (String id : shallow ? haves : common) {
+            Tree.walk(Commit.load(id).tree(), held, null);
+        }
+        LinkedHashSet<String> result = new LinkedHashSet<>(commits);
+        for (String id : commits) {
+            Tree.walk(Commit.load(id).tree(), held, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Read a pack stream from IN into the object store, and record
+     *  COMMITS, the ids of the commits it brings, parents first, in the
+     *  commit graph and index.  Any of them whose parents are neither
+     *  among them nor already held join the shallow boundary. */
+    private static void receive(DataInputStream in, List<String> commits)
+        throws IOException {
+        PackFile.receive(Repository.OBJECTS, in);
+        Repository.OBJECTS.refresh();
+        Shallow shallow = Repository.shallow();
+        TreeSet<String> boundary = new TreeSet<>(shallow.ids());
+        for (String id : commits) {
+            for (String parent : Commit.load(id).parents()) {
+                if (!Repository.OBJECTS.contains(parent)) {
+                    boundary.add(id);
+                }
+            }
+        }
+        if (boundary.size() > shallow.ids().size()) {
+            shallow.set(boundary);
+        }
+        CommitGraph graph = Repository.commitGraph();
+        CommitIndex index = Repository.commitIndex();
+        for (String id : commits) {
+            Commit commit = Commit.load(id);
+            graph.add(id, commit);
+            index.add(id, commit);
+        }
+    }
+
+    /** Return a socket connected to the server of remote REMOTE. */
+    private static Socket connect(String remote) {
+        File file = join(Repository.REMOTES_DIR, remote);
+        if (!file.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        InetSocketAddress address =
+            parseAddress(readContentsAsString(file).trim());
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, CONNECT_TIMEOUT);
+        } catch (IOException excp) {
+            throw error("Remote directory not found.");
+        }
+        return socket;
+    }
+
+    /** Return the socket address written as HOST:PORT in ADDRESS. */
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        try {
+            return new InetSocketAddress(
+                address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException excp) {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /** Return true iff NAME is a branch name that stays within the
+     *  branches directory. */
+    private static boolean isBranchName(String name) {
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff ID names a commit held in the object store. */
+    private static boolean isCommit(String id) {
+        return Repository.OBJECTS.contains(id)
+            && Codec.isCommit(Repository.OBJECTS.get(id));
+    }
+
+    /** Return a buffered data stream reading from SOCKET. */
+    private static DataInputStream input(Socket socket) throws IOException {
+        return new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+    }
+
+    /** Return a buffered data stream writing to SOCKET. */
+    private static DataOutputStream output(Socket socket) throws IOException {
+        return new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /** Start a request for COMMAND on BRANCH on OUT. */
+    private static void writeHeader(DataOutputStream out, String command,
+                                    String branch) throws IOException {
+        out.writeBytes(MAGIC);
+        out.writeUTF(command);
+        out.writeUTF(branch);
+    }
+
+    /** Read a status from IN, throwing a GitletException holding it
+     *  unless it reports success. */
+    private static void checkStatus(DataInputStream in) throws IOException {
+        String status = in.readUTF();
+        if (!status.isEmpty()) {
+            throw error("%s", status);
+        }
+    }
+
+    /** Write IDS to OUT, preceded by their count. */
+    private static void writeIds(DataOutputStream out, Collection<String> ids)
+        throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            Codec.writeId(out, id);
+        }
+    }
+
+    /** Read a list of ids, as written by writeIds, from IN. */
+    private static List<String> readIds(DataInputStream in)
+        throws IOException {
+        int count = in.readInt();
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            result.add(Codec.readId(in));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A file of one version of a tree found under another name in a later
+ *  version: renamed, if it is gone from the later version, or copied, if
+ *  it is still there or was already taken by another rename.  Without
+ *  detection, a rename looks like the removal of one file and the
+ *  addition of an unrelated one.
+ *
+ *  detect looks for them among the paths that differ between two trees,
+ *  as listed by Tree.diff, in two passes.  The first pairs each added
+ *  file with a removed one holding the very same blob, by id alone,
+ *  without reading either.  The second reads each remaining added file,
+ *  and each removed or modified file it might come from, once, and
+ *  summarizes it by a MinHash signature of its set of chunks: a chunk
+ *  ends at each newline and after CHUNK bytes without one, so that text
+ *  is compared line by line and binary files span by span.  The fraction
+ *  of slots in which two signatures agree estimates the fraction of
+ *  their chunks the files share, which is their similarity score.
+ *
+ *  To stay well short of comparing every added file with every removed
+ *  one, signatures are cut into BANDS bands of ROWS slots, and a pair is
+ *  scored only if it agrees on a whole band.  Pairs of similar files
+ *  almost always do, and dissimilar ones rarely, so the work grows with
+ *  the number of files and of similar pairs.  A band shared by more than
+ *  MAX_BUCKET removed files, as boilerplate can be, offers only the first
+ *  MAX_BUCKET of them.
+ *
+ *  Pairs scoring at least the minimum are taken best first, preferring
+ *  files with the same base name: each added file gets its best source,
+ *  the first to take a removed file renames it, and the rest copy it.
+ *
+ *  @author SuuTou
+ */
+class Rename {
+
+    /** Default least similarity, as a percentage, of a rename or copy. */
+    static final int MIN_SCORE = 50;
+    /** Longest chunk of a file without a newline. */
+    static final int CHUNK = 64;
+    /** Number of slots in a signature. */
+    static final int SLOTS = 64;
+    /** Number of slots in each band of a signature. */
+    static final int ROWS = 2;
+    /** Number of bands in a signature. */
+    static final int BANDS = SLOTS / ROWS;
+    /** Most removed files scored against an added file per band. */
+    static final int MAX_BUCKET = 32;
+
+    /** A copy (if COPY) or rename of the file FROM to TO, with similarity
+     *  SCORE, as a percentage. */
+    Rename(String from, String to, int score, boolean copy) {
+        this.from = from;
+        this.to = to;
+        this.score = score;
+        this.copy = copy;
+    }
+
+    /** Return the path of the original file. */
+    String from() {
+        return from;
+    }
+
+    /** Return the path of the new file. */
+    String to() {
+        return to;
+    }
+
+    /** Return the similarity of the two files, as a percentage. */
+    int score() {
+        return score;
+    }
+
+    /** Return true iff the original file was copied, not renamed. */
+    boolean isCopy() {
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s => %s (%d%%)", copy ? "copy" : "rename",
+                             from, to, score);
+    }
+
+    /** Return the renames and copies, ordered by new path, among the
+     *  CHANGES between two trees, as returned by Tree.diff, that have a
+     *  similarity of at least MINSCORE percent.  Files added by CHANGES
+     *  may come from files it removes or modifies; only removed files can
+     *  be renamed. */
+    static List<Rename> detect(Map<String, String[]> changes, int minScore) {
+        List<String> added = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String[] blobs = e.getValue();
+            if (blobs[0] == null) {
+                if (!blobs[1].equals(EMPTY)) {
+                    added.add(e.getKey());
+                }
+            } else if (!blobs[0].equals(EMPTY)) {
+                sources.add(e.getKey());
+            }
+        }
+        HashMap<String, Rename> found = new HashMap<>();
+        HashMap<String, Boolean> taken = new HashMap<>();
+        for (String path : sources) {
+            taken.put(path, changes.get(path)[1] != null);
+        }
+        if (!added.isEmpty() && !sources.isEmpty()) {
+            exactPass(changes, added, sources, found, taken);
+            added.removeIf(found::containsKey);
+            if (!added.isEmpty() && minScore < 100) {
+                similarPass(changes, added, sources, minScore, found,
+                            taken);
+            }
+        }
+        List<Rename> result = new ArrayList<>(found.values());
+        result.sort((a, b) -> a.to.compareTo(b.to));
+        return result;
+    }
+
+    /** Pair each of the files ADDED by CHANGES with one of SOURCES holding
+     *  the same blob, if any, recording each pair in FOUND under its new
+     *  path.  TAKEN records, for each source, whether it is still present
+     *  or already renamed, so that it can now only be copied, and is
+     *  updated. */
+    private static void exactPass(Map<String, String[]> changes,
+                                  List<String> added, List<String> sources,
+                                  Map<String, Rename> found,
+                                  Map<String, Boolean> taken) {
+        HashMap<String, List<String>> byBlob = new HashMap<>();
+        for (String path : sources) {
+            byBlob.computeIfAbsent(changes.get(path)[0],
+                                   k -> new ArrayList<>()).add(path);
+        }
+        for (String path : added) {
+            List<String> same = byBlob.get(changes.get(path)[1]);
+            if (same == null) {
+                continue;
+            }
+            String best = null;
+            for (String source : same) {
+                if (best == null || preference(source, path, taken)
+                    < preference(best, path, taken)) {
+                    best = source;
+                }
+            }
+            found.put(path, new Rename(best, path, 100, taken.get(best)));
+            taken.put(best, true);
+        }
+    }
+
+    /** Return the order of preference of SOURCE as the origin of PATH
+     *  among sources of equal similarity: those with the same base name
+     *  first. */
+    private static int rank(String source, String path) {
+        return baseName(source).equals(baseName(path)) ? 0 : 1;
+    }
+
+    /** Return the order of preference of SOURCE as the origin of PATH
+     *  among sources holding the same blob, as recorded in TAKEN: those
+     *  that can still be renamed first, and then by rank. */
+    private static int preference(String source, String path,
+                                  Map<String, Boolean> taken) {
+        return (taken.get(source) ? 2 : 0) + rank(source, path);
+    }
+
+    /** Pair files ADDED by CHANGES with similar files among SOURCES, as
+     *  for exactPass, with similarity of at least MINSCORE percent. */
+    private static void similarPass(Map<String, String[]> changes,
+                                    List<String> added, List<String> sources,
+                                    int minScore, Map<String, Rename> found,
+                                    Map<String, Boolean> taken) {
+        List<String> from = new ArrayList<>();
+        List<long[]> fromSigs = new ArrayList<>();
+        for (String path : sources) {
+            long[] sig = signature(changes.get(path)[0]);
+            if (sig != null) {
+                from.add(path);
+                fromSigs.add(sig);
+            }
+        }
+        List<HashMap<Long, List<Integer>>> buckets = new ArrayList<>();
+        for (int band = 0; band < BANDS; band += 1) {
+            HashMap<Long, List<Integer>> bucket = new HashMap<>();
+            for (int s = 0; s < from.size(); s += 1) {
+                List<Integer> members =
+                    bucket.computeIfAbsent(bandKey(fromSigs.get(s), band),
+                                           k -> new ArrayList<>());
+                if (members.size() < MAX_BUCKET) {
+                    members.add(s);
+                }
+            }
+            buckets.add(bucket);
+        }
+
+        List<long[]> pairs = new ArrayList<>();
+        int[] seen = new int[from.size()];
+        for (int d = 0; d < added.size(); d += 1) {
+            long[] sig = signature(changes.get(added.get(d))[1]);
+            if (sig == null) {
+                continue;
+            }
+            for (int band = 0; band < BANDS; band += 1) {
+                List<Integer> members =
+                    buckets.get(band).get(bandKey(sig, band));
+                if (members == null) {
+                    continue;
+                }
+                for (int s : members) {
+                    if (seen[s] == d + 1) {
+                        continue;
+                    }
+                    seen[s] = d + 1;
+                    int score = score(sig, fromSigs.get(s));
+                    if (score >= minScore) {
+                        pairs.add(new long[] {
+                            score, rank(from.get(s), added.get(d)), d, s
+                        });
+                    }
+                }
+            }
+        }
+
+        pairs.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0])
+                   : a[1] != b[1] ? Long.compare(a[1], b[1])
+                   : a[2] != b[2] ? Long.compare(a[2], b[2])
+                   : Long.compare(a[3], b[3]));
+        for (long[] pair : pairs) {
+            String path = added.get((int) pair[2]);
+            String source = from.get((int) pair[3]);
+            if (!found.containsKey(path)) {
+                found.put(path, new Rename(source, path, (int) pair[0],
+                                           taken.get(source)));
+                taken.put(source, true);
+            }
+        }
+    }
+
+    /** Return the similarity, as a percentage, of the files with
+     *  signatures A and B. */
+    static int score(long[] a, long[] b) {
+        int agree = 0;
+        for (int i = 0; i < SLOTS; i += 1) {
+            if (a[i] == b[i]) {
+                agree += 1;
+            }
+        }
+        return agree * 100 / SLOTS;
+    }
+
+    /** Return the MinHash signature of blob ID: for each slot, the least
+     *  value of that slot's hash function over the file's chunks.  Return
+     *  null for a file with no chunks. */
+    static long[] signature(String id) {
+        long[] result = new long[SLOTS];
+        Arrays.fill(result, Long.MAX_VALUE);
+        boolean any = false;
+        try (InputStream in = Repository.OBJECTS.open(id)) {
+            byte[] buffer = new byte[ObjectStore.BUFFER_SIZE];
+            long h = FNV_BASIS;
+            int length = 0;
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                for (int i = 0; i < n; i += 1) {
+                    h = (h ^ (buffer[i] & 0xff)) * FNV_PRIME;
+                    length += 1;
+                    if (buffer[i] == '\n' || length == CHUNK) {
+                        addChunk(result, h);
+                        any = true;
+                        h = FNV_BASIS;
+                        length = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                addChunk(result, h);
+                any = true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return any ? result : null;
+    }
+
+    /** Lower the slots of signature SIG to the hashes of the chunk whose
+     *  hash is CHUNK, where they are less. */
+    private static void addChunk(long[] sig, long chunk) {
+        long h = mix(chunk);
+        for (int i = 0; i < SLOTS; i += 1) {
+            long v = mix(h + SEEDS[i]);
+            if (v < sig[i]) {
+                sig[i] = v;
+            }
+        }
+    }
+
+    /** Return a key for the slots of band BAND of signature SIG. */
+    private static long bandKey(long[] sig, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i += 1) {
+            key = mix(key ^ sig[i]);
+        }
+        return key;
+    }
+
+    /** Return a thorough scrambling of the bits of X. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    /** Return the last component of PATH. */
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /** Starting value of the FNV-1a hash of chunks. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    /** Multiplier of the FNV-1a hash of chunks. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** Offsets that turn mix into a distinct hash function per slot. */
+    private static final long[] SEEDS = new long[SLOTS];
+    static {
+        for (int i = 0; i < SLOTS; i += 1) {
+            SEEDS[i] = mix(i + 1) | 1;
+        }
+    }
+    /** Id of the empty blob, which is never taken as a rename, since all
+     *  empty files look alike. */
+    private static final String EMPTY = sha1((Object) new byte[0]);
+
+    /** Paths of the original and new files. */
+    private final String from, to;
+    /** Similarity of the two, as a percentage. */
+    private final int score;
+    /** True iff the original file was copied. */
+    private final boolean copy;
+}
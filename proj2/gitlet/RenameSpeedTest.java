@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static gitlet.Harness.*;
+
+/** Measures how the time taken by rename detection grows with the number
+ *  of files added and removed, and how many renames it finds.  Usage:
+ *      java gitlet.RenameSpeedTest [FILES]
+ *  runs, in a temporary repository, Rename.detect over changes removing
+ *  N files and adding N others, for N doubling from 500 up to FILES
+ *  (default 8000).  Of the files added, a quarter are exact renames of
+ *  removed files, half are renames with a few lines edited, and the rest
+ *  are new; the remaining quarter of the removed files are simply gone.
+ *  For each N it reports the time taken, the renames found correctly and
+ *  wrongly, and, up to 16000 files, the time taken to score every pair of
+ *  files by their signatures, for comparison.
+ *  @author SuuTou
+ */
+public class RenameSpeedTest {
+
+    /** Run the benchmark as described in the class comment, with ARGS
+     *  giving the optional size; or, if ARGS starts with "run", run it in
+     *  the current directory, which must be empty. */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("run")) {
+            run(Integer.parseInt(args[1]));
+            return;
+        }
+        String files = args.length > 0 ? args[0] : "8000";
+        File dir = Files.createTempDirectory("gitlet-rename").toFile();
+        try {
+            int status = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java")
+                    .getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                RenameSpeedTest.class.getName(), "run", files)
+                .directory(dir).inheritIO().start().waitFor();
+            if (status != 0) {
+                System.exit(status);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Time detection for N from 500 up to FILES in the current
+     *  directory. */
+    private static void run(int files) {
+        Repository.OBJECTS_DIR.mkdirs();
+        Random random = new Random(61);
+        for (int n = MIN_FILES; n <= files; n *= 2) {
+            Map<String, String[]> changes = new TreeMap<>();
+            Map<String, String> expected = new HashMap<>();
+            for (int k = 0; k < n; k += 1) {
+                String[] lines = lines(random);
+                String from = String.format("old/d%02d/file%05d.txt",
+                                            k % 50, k);
+                String to = String.format("new/d%02d/moved%05d.txt",
+                                          k % 37, k);
+                changes.put(from, new String[] { store(lines), null });
+                if (k % 4 == 0) {
+                    changes.put(to, new String[] { null, store(lines) });
+                    expected.put(to, from);
+                } else if (k % 4 != 3) {
+                    for (int e = 0; e < EDITS; e += 1) {
+                        lines[random.nextInt(lines.length)] =
+                            Long.toHexString(random.nextLong());
+                    }
+                    changes.put(to, new String[] { null, store(lines) });
+                    expected.put(to, from);
+                } else {
+                    changes.put(to,
+                                new String[] { null, store(lines(random)) });
+                }
+            }
+
+            long start = System.nanoTime();
+            List<Rename> renames = Rename.detect(changes, Rename.MIN_SCORE);
+            double detect = millis(start);
+            int right = 0;
+            for (Rename rename : renames) {
+                if (rename.from().equals(expected.get(rename.to()))) {
+                    right += 1;
+                }
+            }
+            System.out.printf("%6d files: %9.1f ms, %6.1f us/file, "
+                              + "%5d of %5d renames found, %3d wrong",
+                              n, detect, detect * 1e3 / n, right,
+                              expected.size(), renames.size() - right);
+            if (n <= MAX_ALL_PAIRS) {
+                System.out.printf(", all pairs %9.1f ms",
+                                  allPairs(changes));
+            }
+            System.out.println();
+        }
+    }
+
+    /** Return the milliseconds taken to compute the signatures of the
+     *  files of CHANGES and score every added file against every removed
+     *  one. */
+    private static double allPairs(Map<String, String[]> changes) {
+        long start = System.nanoTime();
+        List<long[]> removed = new ArrayList<>();
+        List<long[]> added = new ArrayList<>();
+        for (String[] blobs : changes.values()) {
+            if (blobs[0] != null) {
+                removed.add(Rename.signature(blobs[0]));
+            } else {
+                added.add(Rename.signature(blobs[1]));
+            }
+        }
+        for (long[] a : added) {
+            for (long[] r : removed) {
+                sink += Rename.score(a, r);
+            }
+        }
+        return millis(start);
+    }
+
+    /** Return the lines of a new file drawn from RANDOM. */
+    private static String[] lines(Random random) {
+        String[] result = new String[LINES];
+        for (int i = 0; i < LINES; i += 1) {
+            result[i] = Long.toHexString(random.nextLong());
+        }
+        return result;
+    }
+
+    /** Store a file of LINES and return its id. */
+    private static String store(String[] lines) {
+        return Repository.OBJECTS.put((String.join("\n", lines) + "\n")
+                                      .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Sum of the scores of all pairs, kept so that scoring them is not
+     *  optimized away. */
+    private static long sink;
+    /** Smallest number of files tried. */
+    private static final int MIN_FILES = 500;
+    /** Most files for which every pair is also scored. */
+    private static final int MAX_ALL_PAIRS = 16000;
+    /** Lines in each file. */
+    private static final int LINES = 40;
+    /** Lines edited in each renamed file that is not an exact rename. */
+    private static final int EDITS = 4;
+}
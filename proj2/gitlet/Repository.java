@@ -1,6 +1,24 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import static gitlet.Utils.*;
 
 // TODO: any imports you need here
@@ -24,6 +42,677 @@ public class Repository {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** The directory holding all blobs and commits, fanned out by id. */
+    public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    /** The object store through which blobs and commits are read and
+     *  written. */
+    static final ObjectStore OBJECTS = new ObjectStore(OBJECTS_DIR);
+    /** The file holding the staging area. */
+    public static final File STAGING_FILE = join(GITLET_DIR, "staging");
+    /** The file caching the stat data and blob ids of working files. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
+    /** The file naming the current branch. */
+    public static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
+    /** The directory holding one file per branch, containing the id of the
+     *  branch's head commit. */
+    public static final File BRANCHES_DIR = join(GITLET_DIR, "branches");
+    /** The file caching the parents and generation numbers of commits. */
+    public static final File COMMIT_GRAPH_FILE =
+        join(GITLET_DIR, "commit-graph");
+    /** The file of Bloom filters of the files changed by each commit. */
+    public static final File CHANGED_PATHS_FILE =
+        join(GITLET_DIR, "changed-paths");
+    /** The file indexing commits by message. */
+    public static final File MESSAGES_FILE = join(GITLET_DIR, "messages");
+    /** The file listing the commits on the shallow boundary. */
+    public static final File SHALLOW_FILE = join(GITLET_DIR, "shallow");
+    /** The file recording where an unfinished gc stopped. */
+    public static final File GC_PROGRESS_FILE =
+        join(GITLET_DIR, "gc-progress");
+    /** The directory holding one file per remote, containing the
+     *  HOST:PORT address it is served at. */
+    public static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
+
+    /** Option to checkout asking for working files to be hard-linked to
+     *  their blobs rather than copied. */
+    static final String LINK_OPTION = "--link";
+
+    /** The commit graph, once it has been opened. */
+    private static CommitGraph commitGraph;
+    /** The commit index, once it has been opened. */
+    private static CommitIndex commitIndex;
+    /** The shallow boundary, once it has been read. */
+    private static Shallow shallow;
 
     /* TODO: fill in the rest of this class. */
+
+    /** Throw a GitletException unless the current directory holds a
+     *  gitlet repository. */
+    static void checkInitialized() {
+        if (!GITLET_DIR.isDirectory()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+    }
+
+    /** Finish or undo any update of the repository's references that was
+     *  interrupted by a crash. */
+    static void recover() {
+        if (GITLET_DIR.isDirectory()) {
+            Transaction.recover(GITLET_DIR, OBJECTS_DIR);
+        }
+    }
+
+    /** Make commit COMMITID the head of branch BRANCH, make BRANCH the
+     *  current branch, and save STAGE as the staging area, as the single
+     *  Transaction TXN: after a crash, either all three have happened or
+     *  none has.  Return false, changing nothing, if any file read
+     *  through TXN has changed meanwhile. */
+    static boolean updateRefs(Transaction txn, String branch,
+                              String commitId, StagingArea stage) {
+        txn.write(STAGING_FILE, Codec.encode(stage));
+        txn.write(join(BRANCHES_DIR, branch), commitId);
+        txn.write(HEAD_FILE, branch);
+        return txn.commit();
+    }
+
+    /** Stage the files NAMES for addition, or every plain file in the
+     *  working directory if NAMES is just ".".  A file identical to its
+     *  version in the head commit is not staged, and any staged addition
+     *  or removal of it is dropped.  A file whose stat data show it
+     *  unchanged since it was last hashed, and whose blob is stored, is
+     *  not read at all; every other file is read once, hashed and stored
+     *  as a blob, the files being spread over a fork-join pool with one
+     *  worker per processor.  The staging area is then updated by a
+     *  Transaction, retried should another command change it or the head
+     *  in the meantime.  Blobs are compressed by COMPRESSOR, or as
+     *  Compressor.choose picks for each if it is null.  Each file's stat
+     *  data are taken before it is hashed, as Git does, so that the stat
+     *  cache never pairs an edit made meanwhile with the old id.  If
+     *  STATS, report the files and megabytes staged per second. */
+    static void add(List<String> names, boolean stats,
+                    Compressor compressor) {
+        checkInitialized();
+        if (names.equals(List.of("."))) {
+            names = plainFilenamesIn(CWD);
+        }
+        HashMap<String, StatCache.Entry> before = new HashMap<>();
+        for (String name : names) {
+            File file = join(CWD, name);
+            if (!file.isFile()) {
+                throw error("File does not exist.");
+            }
+            before.put(name, StatCache.stat(file));
+        }
+        long start = System.nanoTime();
+        StatCache cache = StatCache.load(INDEX_FILE, CWD);
+        Map<String, String> ids = new HashMap<>();
+        List<String> files = new ArrayList<>();
+        for (String name : before.keySet()) {
+            String id = cache.knownId(join(CWD, name), before.get(name));
+            if (id != null && OBJECTS.contains(id)) {
+                ids.put(name, id);
+            } else {
+                files.add(name);
+            }
+        }
+        ForkJoinPool pool =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            ids.putAll(pool.submit(() -> files.parallelStream()
+                .collect(Collectors.toMap(name -> name,
+                    name -> OBJECTS.put(join(CWD, name).toPath(),
+                                        compressor)))).get());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Transaction.retry(() -> {
+            Transaction txn = new Transaction(GITLET_DIR);
+            String branch = txn.readString(HEAD_FILE);
+            String head = branch == null ? null
+                : txn.readString(join(BRANCHES_DIR, branch));
+            String tree = head == null ? null : Commit.load(head).tree();
+            StagingArea stage = StagingArea.load(STAGING_FILE, txn);
+            for (Map.Entry<String, String> entry : ids.entrySet()) {
+                String name = entry.getKey();
+                if (tree != null
+                    && entry.getValue().equals(Tree.lookup(tree, name))) {
+                    stage.unstage(name);
+                } else {
+                    stage.add(name, entry.getValue());
+                }
+            }
+            txn.write(STAGING_FILE, Codec.encode(stage));
+            return txn.commit();
+        });
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            cache.record(join(CWD, entry.getKey()),
+                         before.get(entry.getKey()), entry.getValue());
+        }
+        cache.save(INDEX_FILE);
+
+        if (stats) {
+            long bytes = 0;
+            for (String name : ids.keySet()) {
+                bytes += join(CWD, name).length();
+            }
+            double secs = Math.max(System.nanoTime() - start, 1) / 1e9;
+            double mb = bytes / (double) (1 << 20);
+            message("Staged %d files (%.1f MB) in %.3f s: %.0f files/s,"
+                    + " %.1f MB/s.", ids.size(), mb, secs,
+                    ids.size() / secs, mb / secs);
+        }
+    }
+
+    /** Return the names of the files in TRACKED, a map from file names to
+     *  blob ids, whose working copies are missing or no longer have the
+     *  given ids.  Only files whose stat data differ from those recorded
+     *  in the stat cache are rehashed. */
+    static Set<String> changedFiles(Map<String, String> tracked) {
+        StatCache cache = StatCache.load(INDEX_FILE, CWD);
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            File file = join(CWD, entry.getKey());
+            if (!file.isFile()) {
+                cache.forget(entry.getKey());
+                result.add(entry.getKey());
+            } else if (!cache.id(file).equals(entry.getValue())) {
+                result.add(entry.getKey());
+            }
+        }
+        cache.save(INDEX_FILE);
+        return result;
+    }
+
+    /** Return the repository's commit graph, opening it on first use. */
+    static CommitGraph commitGraph() {
+        if (commitGraph == null) {
+            commitGraph = new CommitGraph(COMMIT_GRAPH_FILE, shallow());
+        }
+        return commitGraph;
+    }
+
+    /** Return the repository's shallow boundary, reading it on first
+     *  use. */
+    static Shallow shallow() {
+        if (shallow == null) {
+            shallow = new Shallow(SHALLOW_FILE);
+        }
+        return shallow;
+    }
+
+    /** Return the repository's commit index, opening it on first use. */
+    static CommitIndex commitIndex() {
+        if (commitIndex == null) {
+            commitIndex = new CommitIndex(CHANGED_PATHS_FILE, MESSAGES_FILE);
+        }
+        return commitIndex;
+    }
+
+    /** Print the ids of all commits whose message is MESSAGE, looked up in
+     *  the commit index rather than by reading every commit. */
+    static void find(String message) {
+        checkInitialized();
+        List<String> ids = commitIndex().find(message);
+        if (ids.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        for (String id : ids) {
+            System.out.println(id);
+        }
+    }
+
+    /** Print the first-parent history of the head commit, newest first,
+     *  as "log" does, leaving out the first SKIP commits and stopping
+     *  after MAXCOUNT more (any number if negative).  If PATH is not
+     *  null, print only the commits that changed file PATH, as found by
+     *  logOfPath, following it through renames and copies if FOLLOW. */
+    static void log(String path, boolean follow, int skip, int maxCount) {
+        checkInitialized();
+        String head = headCommit();
+        printLog(path == null ? commitGraph().firstParents(head)
+                 : logOfPath(head, path, follow), skip, maxCount);
+    }
+
+    /** Print every commit ever made, most recent first, as "global-log"
+     *  does, leaving out the first SKIP and stopping after MAXCOUNT more
+     *  (any number if negative).  Commits since removed by gc are
+     *  passed over. */
+    static void globalLog(int skip, int maxCount) {
+        checkInitialized();
+        printLog(commitGraph().all(), skip, maxCount);
+    }
+
+    /** Print the commits IDS that are present in log format, leaving out
+     *  the first SKIP and stopping after MAXCOUNT more (any number if
+     *  negative).  IDS is walked only as far as is printed, and each
+     *  commit is read only when it is printed, through a buffered stream,
+     *  so that the first entries appear at once however long the history.
+     *  Printing also stops once standard output is closed, as by "head"
+     *  at the end of a pipe. */
+    private static void printLog(Iterable<String> ids, int skip,
+                                 int maxCount) {
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(System.out, ObjectStore.BUFFER_SIZE),
+            false, StandardCharsets.UTF_8);
+        int n = 0;
+        for (String id : ids) {
+            if (n == maxCount) {
+                break;
+            } else if (!OBJECTS.contains(id)) {
+                continue;
+            } else if (skip > 0) {
+                skip -= 1;
+                continue;
+            }
+            n += 1;
+            Commit commit = Commit.load(id);
+            out.println("===");
+            out.println("commit " + id);
+            if (commit.parents().size() > 1) {
+                out.printf("Merge: %.7s %.7s%n", commit.parents().get(0),
+                           commit.parents().get(1));
+            }
+            out.printf("Date: %1$ta %1$tb %1$te %1$tT %1$tY %1$tz%n",
+                       commit.timestamp());
+            out.println(commit.message());
+            out.println();
+            if (System.out.checkError()) {
+                return;
+            }
+        }
+        out.flush();
+    }
+
+    /** Return the ids of the commits, from HEAD back along first parents,
+     *  that changed file PATH, for "log -- PATH".  Commits whose
+     *  changed-path filter excludes the file are never read.  If FOLLOW,
+     *  as for "log --follow -- PATH", then past the commit that created
+     *  PATH by renaming or copying another file, as found by renames,
+     *  follow that file instead. */
+    static Iterable<String> logOfPath(String head, String path,
+                                      boolean follow) {
+        return commitIndex().touching(head, path, commitGraph(), follow);
+    }
+
+    /** Return the files renamed or copied between the trees with ids A and
+     *  B (either null for an empty tree), ordered by their paths in B, as
+     *  found by Rename.detect, so that a merge can match each such file
+     *  in B with its original in A rather than see it as new. */
+    static List<Rename> renames(String a, String b) {
+        return Rename.detect(Tree.diff(a, b), Rename.MIN_SCORE);
+    }
+
+    /** Discard every cached view of the repository's mutable state, so
+     *  that it is read afresh; used when another process may have changed
+     *  the repository. */
+    static void forgetCaches() {
+        if (commitGraph != null) {
+            commitGraph.discard();
+        }
+        commitGraph = null;
+        commitIndex = null;
+        shallow = null;
+        OBJECTS.refresh();
+    }
+
+    /** Return the id of the split point of commits A and B: their latest
+     *  common ancestor, found from the commit graph alone.  In a shallow
+     *  repository, A and B may share history only beyond the boundary, in
+     *  which case there is no split point to merge from. */
+    static String splitPoint(String a, String b) {
+        String result = commitGraph().splitPoint(a, b);
+        if (result == null && !shallow().isEmpty()) {
+            throw error("Cannot merge: the split point lies beyond the "
+                        + "shallow history boundary.");
+        }
+        return result;
+    }
+
+    /** Return the names of all branches, including those fetched from
+     *  remotes, which are named REMOTE/BRANCH. */
+    static List<String> branchNames() {
+        List<String> result = new ArrayList<>();
+        List<String> branches = plainFilenamesIn(BRANCHES_DIR);
+        if (branches != null) {
+            result.addAll(branches);
+        }
+        File[] dirs = BRANCHES_DIR.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                for (String branch : plainFilenamesIn(dir)) {
+                    result.add(dir.getName() + "/" + branch);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of the head commits of all branches. */
+    static List<String> branchHeads() {
+        List<String> result = new ArrayList<>();
+        for (String branch : branchNames()) {
+            result.add(branchHead(branch));
+        }
+        return result;
+    }
+
+    /** Cut the history of every branch to its last DEPTH commits and
+     *  delete every object no longer reachable, except those spared by
+     *  gc's usual grace period, which a later gc reclaims.  Commits within
+     *  DEPTH of some branch head are kept, and those of them with a parent
+     *  that is not kept become the new shallow boundary, losing all their
+     *  parents (as in Git).  The commit graph and index are then rebuilt
+     *  from the kept commits alone, so their size, like that of the
+     *  object store, no longer grows with the length of the discarded
+     *  history.  Blobs staged for addition are kept.  Other writers wait
+     *  for the prune to finish, so no branch moves while the kept commits
+     *  are chosen.  The sweep covers the whole store, discarding the
+     *  progress of any unfinished gc, since objects that gc has already
+     *  passed over may only now have become unreachable. */
+    static void pruneHistory(int depth) {
+        checkInitialized();
+        if (depth < 1) {
+            throw error("History depth must be positive.");
+        }
+        RefLock lock = RefLock.acquire(GITLET_DIR);
+        try {
+            CommitGraph graph = commitGraph();
+            HashMap<String, Integer> distance = new HashMap<>();
+            ArrayDeque<String> queue = new ArrayDeque<>();
+            for (String head : branchHeads()) {
+                if (distance.putIfAbsent(head, 0) == null) {
+                    queue.add(head);
+                }
+            }
+            while (!queue.isEmpty()) {
+                String id = queue.poll();
+                int d = distance.get(id);
+                if (d + 1 >= depth) {
+                    continue;
+                }
+                for (String parent : graph.parents(id)) {
+                    if (distance.putIfAbsent(parent, d + 1) == null) {
+                        queue.add(parent);
+                    }
+                }
+            }
+            TreeSet<String> boundary = new TreeSet<>();
+            for (String id : distance.keySet()) {
+                List<String> parents = graph.parents(id);
+                if (shallow().contains(id)
+                    || !distance.keySet().containsAll(parents)) {
+                    boundary.add(id);
+                }
+            }
+            List<String> kept = new ArrayList<>(distance.keySet());
+            kept.sort(Comparator.comparingInt(graph::generation));
+
+            shallow().set(boundary);
+            graph.discard();
+            COMMIT_GRAPH_FILE.delete();
+            CHANGED_PATHS_FILE.delete();
+            MESSAGES_FILE.delete();
+            commitGraph = null;
+            commitIndex = null;
+            for (String id : kept) {
+                Commit commit = Commit.load(id);
+                commitGraph().add(id, commit);
+                commitIndex().add(id, commit);
+            }
+            GC_PROGRESS_FILE.delete();
+            GarbageCollector.Result result =
+                collect(GarbageCollector.GRACE_MILLIS, 0);
+            message("Kept %d commits, %d on the shallow boundary; "
+                    + "reclaimed %d bytes.", kept.size(), boundary.size(),
+                    result.bytes);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Delete the objects unreachable from any branch head or staged file,
+     *  sparing those modified within the last GRACE milliseconds, and
+     *  report the space reclaimed.  If BUDGET is positive, stop after
+     *  about BUDGET milliseconds; a later gc carries on from there. */
+    static void gc(long grace, long budget) {
+        checkInitialized();
+        GarbageCollector.Result result = collect(grace, budget);
+        message("Reclaimed %d bytes in %d objects; %d objects reachable.",
+                result.bytes, result.objects, result.live);
+        if (result.stopped) {
+            message("Stopped early; run gc again to continue.");
+        }
+    }
+
+    /** Mark the objects reachable from the branch heads and the staging
+     *  area, then sweep the rest as for gc, with grace period GRACE and
+     *  time budget BUDGET, and return the result. */
+    private static GarbageCollector.Result collect(long grace, long budget) {
+        Set<String> live = GarbageCollector.mark(
+            branchHeads(), StagingArea.load(STAGING_FILE).added().values(),
+            commitGraph());
+        return new GarbageCollector(OBJECTS, GC_PROGRESS_FILE)
+            .sweep(live, grace, budget);
+    }
+
+    /** Return the name of the current branch. */
+    static String currentBranch() {
+        return readContentsAsString(HEAD_FILE);
+    }
+
+    /** Return the id of the head commit of BRANCH, or null if there is no
+     *  such branch. */
+    static String branchHead(String branch) {
+        File file = join(BRANCHES_DIR, branch);
+        return file.isFile() ? readContentsAsString(file) : null;
+    }
+
+    /** Return the id of the current head commit. */
+    static String headCommit() {
+        return branchHead(currentBranch());
+    }
+
+    /** Return the full id of the commit whose id starts with PREFIX.
+     *  Whether the object is a commit is told from its magic number
+     *  alone, so that a large loose or chunked blob named by mistake is
+     *  never read whole. */
+    static String resolveCommit(String prefix) {
+        String id = OBJECTS.resolve(prefix);
+        byte[] magic = new byte[0];
+        if (id != null) {
+            try (InputStream in = OBJECTS.open(id)) {
+                magic = in.readNBytes(Codec.COMMIT_MAGIC.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (!Codec.isCommit(magic)) {
+            throw error("No commit with that id exists.");
+        }
+        return id;
+    }
+
+    /** Replace working file NAME by its version in the commit whose id
+     *  starts with COMMITID, or in the head commit if COMMITID is null.
+     *  If LINK, hard-link rather than copy it where possible. */
+    static void checkoutFile(String commitId, String name, boolean link) {
+        checkInitialized();
+        String id = commitId == null ? headCommit() : resolveCommit(commitId);
+        String blob = Tree.lookup(Commit.load(id).tree(), name);
+        if (blob == null) {
+            throw error("File does not exist in that commit.");
+        }
+        StatCache cache = StatCache.load(INDEX_FILE, CWD);
+        writeWorkingFile(name, blob, cache, link);
+        cache.save(INDEX_FILE);
+    }
+
+    /** Make BRANCH the current branch, replacing the working files tracked
+     *  by the current head with those tracked by BRANCH's head and
+     *  clearing the staging area, as planned by a CheckoutPlan.  Files
+     *  whose stat data show they already hold the right blob are left
+     *  alone, and the rest are written in parallel.  If LINK, hard-link
+     *  rather than copy files where possible.  If STATS, report the files,
+     *  bytes and time of each phase.  The repository's RefLock is held
+     *  from the reading of the branches and staging area to the moving of
+     *  HEAD, so that no other writer can change them once the working
+     *  files start to change, and the working files, HEAD and staging
+     *  area always switch together. */
+    static void checkoutBranch(String branch, boolean link, boolean stats) {
+        checkInitialized();
+        RefLock lock = RefLock.acquire(GITLET_DIR);
+        try {
+            Transaction txn = new Transaction(GITLET_DIR);
+            String target = txn.readString(join(BRANCHES_DIR, branch));
+            if (target == null) {
+                throw error("No such branch exists.");
+            }
+            String current = txn.readString(HEAD_FILE);
+            if (branch.equals(current)) {
+                throw error("No need to checkout the current branch.");
+            }
+            String head = txn.readString(join(BRANCHES_DIR, current));
+            CheckoutPlan plan =
+                new CheckoutPlan(Commit.load(head).blobs(),
+                                 Commit.load(target).blobs());
+            StagingArea stage = StagingArea.load(STAGING_FILE, txn);
+            StatCache cache = StatCache.load(INDEX_FILE, CWD);
+            plan.execute(CWD, stage.added(), cache, link,
+                         (phase, files, bytes, nanos) -> {
+                             if (stats) {
+                                 message("%-6s %6d files %10d bytes %9.3f ms",
+                                         phase, files, bytes, nanos / 1e6);
+                             }
+                         });
+            cache.save(INDEX_FILE);
+            stage.clear();
+            if (!updateRefs(txn, branch, target, stage)) {
+                throw error("Another gitlet command changed the repository"
+                            + " during checkout; run checkout again.");
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Make working file NAME hold blob ID, unless CACHE shows that it
+     *  already does, recording its new stat data in CACHE.  If LINK,
+     *  hard-link rather than copy it where possible.  Return true iff the
+     *  file was written. */
+    static boolean writeWorkingFile(String name, String id, StatCache cache,
+                                    boolean link) {
+        File file = join(CWD, name);
+        if (cache.matches(file, id)) {
+            return false;
+        }
+        OBJECTS.checkout(id, file, link);
+        cache.record(file, id);
+        return true;
+    }
+
+    /** Print the line differences between A and B in unified format.
+     *  Each is the name of a working file or the (possibly abbreviated) id
+     *  of a blob.  With no operands (A and B null), compare the blob
+     *  staged for each file with its working copy. */
+    static void diff(String a, String b) {
+        checkInitialized();
+        PrintStream out = new PrintStream(
+            new BufferedOutputStream(System.out, ObjectStore.BUFFER_SIZE),
+            false, StandardCharsets.UTF_8);
+        if (a != null) {
+            diff(open(a), open(b), a, b, out);
+        } else {
+            StagingArea stage = StagingArea.load(STAGING_FILE);
+            Set<String> changed = changedFiles(stage.added());
+            for (String name : changed) {
+                File file = join(CWD, name);
+                InputStream working = file.isFile() ? open(name)
+                    : InputStream.nullInputStream();
+                diff(OBJECTS.open(stage.added().get(name)), working,
+                     "a/" + name, file.isFile() ? "b/" + name : "/dev/null",
+                     out);
+            }
+        }
+        out.flush();
+    }
+
+    /** Print the differences between the texts read from A and B, named
+     *  NAMEA and NAMEB, to OUT. */
+    private static void diff(InputStream a, InputStream b, String nameA,
+                             String nameB, PrintStream out) {
+        Diff.Interner lines = new Diff.Interner();
+        Diff.writeUnified(lines.read(a), lines.read(b), lines,
+                          nameA, nameB, out);
+    }
+
+    /** Return a stream reading the working file or blob named by NAME. */
+    private static InputStream open(String name) {
+        File file = join(CWD, name);
+        if (file.isFile()) {
+            try {
+                return new FileInputStream(file);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        String id = OBJECTS.resolve(name);
+        if (id == null) {
+            throw error("File does not exist.");
+        }
+        return OBJECTS.open(id);
+    }
+
+    /** Replace working file OURS with the line-level merge of the texts
+     *  named by OURS and THEIRS, both descended from the text named by
+     *  BASE.  Each is the name of a working file or the (possibly
+     *  abbreviated) id of a blob.  Runs of lines changed differently on
+     *  the two sides are marked as conflicts, which are reported. */
+    static void mergeFile(String ours, String base, String theirs) {
+        checkInitialized();
+        File target = join(CWD, ours);
+        if (!target.isFile()) {
+            throw error("File does not exist.");
+        }
+        Diff.Interner lines = new Diff.Interner();
+        int[] baseLines = lines.read(open(base));
+        int[] ourLines = lines.read(open(ours));
+        int[] theirLines = lines.read(open(theirs));
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(merged, false,
+                                          StandardCharsets.UTF_8);
+        boolean conflict =
+            Merge3.merge(baseLines, ourLines, theirLines, lines, out);
+        out.flush();
+        writeContentsAtomically(target, (Object) merged.toByteArray());
+        if (conflict) {
+            message("Encountered a merge conflict.");
+        }
+    }
+
+    /** Consolidate all loose objects into a single delta-compressed pack
+     *  and report how much space that saved. */
+    static void repack() {
+        checkInitialized();
+        List<String> loose = OBJECTS.looseIds();
+        long before = 0;
+        for (String id : loose) {
+            before += OBJECTS.fileFor(id).length();
+        }
+        PackFile pack = OBJECTS.repack();
+        if (pack == null) {
+            message("Nothing to pack.");
+            return;
+        }
+        message("Packed %d objects: %d bytes loose, %d bytes packed.",
+                pack.size(), before, pack.file().length());
+    }
 }
@@ -0,0 +1,727 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+
+import static gitlet.Harness.*;
+
+/** Checks that gitlet's encodings and algorithms give back exactly what
+ *  they were given, on edge cases (empty input, a single byte, data at
+ *  block boundaries) as well as ordinary data, and that they reject
+ *  corrupt input rather than misread it.  Usage:
+ *      java gitlet.RoundTripTest
+ *  runs every group of checks in a fresh repository in a temporary
+ *  directory, printing the name of each group as it passes, and exits
+ *  with status 1, reporting the check, at the first failure.
+ *  @author SuuTou
+ */
+public class RoundTripTest {
+
+    /** Run the checks as described in the class comment; or, if ARGS
+     *  starts with "run", run them in the current directory, which must
+     *  be empty. */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("run")) {
+            run();
+            return;
+        }
+        File dir = Files.createTempDirectory("gitlet-roundtrip").toFile();
+        try {
+            int status = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java")
+                    .getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                RoundTripTest.class.getName(), "run")
+                .directory(dir).inheritIO().start().waitFor();
+            if (status != 0) {
+                System.exit(status);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /** Run every group of checks in the current directory. */
+    private static void run() throws IOException {
+        Repository.OBJECTS_DIR.mkdirs();
+        Random random = new Random(61);
+        lz(random);
+        compressors(random);
+        codec();
+        delta(random);
+        chunker(random);
+        chunkedStore(random);
+        packs(random);
+        tree();
+        diff(random);
+        merge3();
+        System.out.println("PASSED");
+    }
+
+    /** Check Lz on its own, at and around its block size. */
+    private static void lz(Random random) throws IOException {
+        for (byte[] data : samples(random)) {
+            byte[] packed = new byte[Lz.bound(data.length)];
+            int n = Lz.compress(data, data.length, packed);
+            byte[] back = new byte[data.length];
+            Lz.decompress(packed, n, back, data.length);
+            check(Arrays.equals(back, data),
+                  "Lz round trip of %d bytes", data.length);
+        }
+        byte[] text = text(random, Lz.BLOCK);
+        byte[] packed = new byte[Lz.bound(text.length)];
+        int n = Lz.compress(text, text.length, packed);
+        check(n < text.length, "Lz does not shrink text");
+        boolean rejected = false;
+        try {
+            Lz.decompress(packed, n / 2, new byte[text.length],
+                          text.length);
+        } catch (IOException excp) {
+            rejected = true;
+        }
+        check(rejected, "Lz accepts a truncated block");
+        System.out.println("lz ok");
+    }
+
+    /** Check that every Compressor, and the choice the store makes, gives
+     *  back each sample, both whole and streamed, and that truncated
+     *  objects are rejected. */
+    private static void compressors(Random random) throws IOException {
+        ObjectStore store = Repository.OBJECTS;
+        for (byte[] data : samples(random)) {
+            for (Compressor codec : new Compressor[] {
+                    Compressor.RAW, Compressor.DEFLATE, Compressor.LZ }) {
+                byte[] stored = codec.encode(data, data.length);
+                check(Arrays.equals(Compressor.decode(stored), data),
+                      "%s decode of %d bytes", codec, data.length);
+                try (InputStream in = Compressor.decode(
+                         new ByteArrayInputStream(stored))) {
+                    check(Arrays.equals(in.readAllBytes(), data),
+                          "%s streamed decode of %d bytes", codec,
+                          data.length);
+                }
+                String id = store.put(data, codec);
+                check(id.equals(Utils.sha1(data)),
+                      "%s id of %d bytes", codec, data.length);
+                check(Arrays.equals(store.read(id), data),
+                      "%s store round trip of %d bytes", codec,
+                      data.length);
+            }
+            String id = store.put(data);
+            check(Arrays.equals(store.read(id), data),
+                  "automatic store round trip of %d bytes", data.length);
+        }
+        byte[] text = text(random, 4 * Lz.BLOCK);
+        for (Compressor codec : new Compressor[] {
+                Compressor.DEFLATE, Compressor.LZ }) {
+            byte[] stored = codec.encode(text, text.length);
+            check(rejects(() -> Compressor.decode(
+                      Arrays.copyOf(stored, stored.length / 2))),
+                  "%s accepts a truncated object", codec);
+        }
+        System.out.println("compressors ok");
+    }
+
+    /** Check that commits and staging areas decode to what was encoded,
+     *  that encoding is canonical, and that truncated or unknown
+     *  encodings are rejected. */
+    private static void codec() {
+        TreeMap<String, String> files = new TreeMap<>();
+        List<Commit> commits = new ArrayList<>();
+        commits.add(new Commit("", new Date(0), List.of(), files));
+        files.put("a", Utils.sha1("a"));
+        files.put("dir/b", Utils.sha1("b"));
+        commits.add(new Commit("one parent", new Date(1), List.of(
+            commits.get(0).id()), files));
+        commits.add(new Commit("merge \u00e9\u4e2d\n\ttabbed",
+                               new Date(Long.MAX_VALUE / 2),
+                               List.of(commits.get(0).id(),
+                                       commits.get(1).id()), files));
+        for (Commit commit : commits) {
+            byte[] bytes = Codec.encode(commit);
+            Commit back = Codec.decodeCommit(bytes);
+            check(back.message().equals(commit.message())
+                  && back.timestamp().equals(commit.timestamp())
+                  && back.parents().equals(commit.parents())
+                  && back.tree().equals(commit.tree()),
+                  "commit \"%s\" decodes differently", commit.message());
+            check(Arrays.equals(Codec.encode(back), bytes),
+                  "commit \"%s\" re-encodes differently", commit.message());
+            check(Codec.isCommit(bytes), "commit not recognized");
+            check(rejects(() -> Codec.decodeCommit(
+                      Arrays.copyOf(bytes, bytes.length - 1))),
+                  "truncated commit accepted");
+            byte[] future = bytes.clone();
+            future[4] += 1;
+            check(rejects(() -> Codec.decodeCommit(future)),
+                  "commit of unknown version accepted");
+        }
+
+        StagingArea stage = new StagingArea();
+        check(Codec.decodeStagingArea(Codec.encode(stage)).isEmpty(),
+              "empty staging area decodes differently");
+        stage.add("z", Utils.sha1("z"));
+        stage.add("a/b", Utils.sha1("b"));
+        stage.remove("gone");
+        StagingArea back = Codec.decodeStagingArea(Codec.encode(stage));
+        check(back.added().equals(stage.added())
+              && back.removed().equals(stage.removed()),
+              "staging area decodes differently");
+        check(rejects(() -> Codec.decodeStagingArea(new byte[0])),
+              "empty staging area encoding accepted");
+        System.out.println("codec ok");
+    }
+
+    /** Check that deltas rebuild their targets, alone and in chains, and
+     *  that corrupt deltas are rejected. */
+    private static void delta(Random random) {
+        byte[] empty = new byte[0];
+        byte[] one = { 42 };
+        byte[] text = text(random, 3 * Lz.BLOCK + 7);
+        byte[][][] pairs = {
+            { empty, empty }, { empty, one }, { one, empty }, { one, one },
+            { text, empty }, { empty, text }, { text, text },
+            { text, edit(text, random) }, { one, text },
+        };
+        for (byte[][] pair : pairs) {
+            byte[] delta = Delta.encode(pair[0], pair[1]);
+            check(Delta.targetLength(delta) == pair[1].length,
+                  "delta of %d to %d bytes has the wrong length",
+                  pair[0].length, pair[1].length);
+            check(Arrays.equals(Delta.apply(pair[0], delta), pair[1]),
+                  "delta of %d to %d bytes rebuilds the wrong target",
+                  pair[0].length, pair[1].length);
+        }
+
+        byte[] version = text;
+        List<byte[]> versions = new ArrayList<>(List.of(version));
+        List<byte[]> chain = new ArrayList<>();
+        for (int k = 0; k < 2 * PackFile.MAX_DEPTH; k += 1) {
+            byte[] next = edit(version, random);
+            chain.add(Delta.encode(version, next));
+            versions.add(next);
+            version = next;
+        }
+        byte[] rebuilt = text;
+        for (int k = 0; k < chain.size(); k += 1) {
+            rebuilt = Delta.apply(rebuilt, chain.get(k));
+            check(Arrays.equals(rebuilt, versions.get(k + 1)),
+                  "delta chain goes wrong at link %d", k + 1);
+        }
+
+        byte[] delta = Delta.encode(text, edit(text, random));
+        check(rejects(() -> Delta.apply(text, Arrays.copyOf(
+                  delta, delta.length - 1))), "truncated delta accepted");
+        check(rejects(() -> Delta.apply(Arrays.copyOf(text, 10), delta)),
+              "delta applied to a short base");
+        for (int k = 0; k < 100; k += 1) {
+            byte[] corrupt = delta.clone();
+            corrupt[random.nextInt(corrupt.length)] ^=
+                (byte) (1 + random.nextInt(255));
+            try {
+                Delta.apply(text, corrupt);
+            } catch (IllegalArgumentException excp) {
+                /* Rejected, as it may be. */
+            }
+        }
+        System.out.println("delta ok");
+    }
+
+    /** Check that Chunker splits streams into pieces that join to give
+     *  them back, of lengths within its bounds, and that inserting a byte
+     *  at the start moves only the first boundary. */
+    private static void chunker(Random random) throws IOException {
+        byte[] noise = new byte[4 * Chunker.MAX_CHUNK];
+        random.nextBytes(noise);
+        for (int n : new int[] { 0, 1, Chunker.MIN_CHUNK - 1,
+                                 Chunker.MIN_CHUNK, Chunker.MIN_CHUNK + 1,
+                                 Chunker.MAX_CHUNK, Chunker.MAX_CHUNK + 1,
+                                 noise.length }) {
+            List<byte[]> chunks = chunk(Arrays.copyOf(noise, n));
+            check(n > Chunker.MIN_CHUNK
+                  || chunks.size() == (n == 0 ? 0 : 1),
+                  "%d bytes split into %d chunks", n, chunks.size());
+        }
+        check(chunk(noise).size() > 4, "random data is not split");
+
+        byte[] same = new byte[2 * Chunker.MAX_CHUNK + 1];
+        Arrays.fill(same, (byte) 'z');
+        List<byte[]> chunks = chunk(same);
+        check(chunks.size() == 3 && chunks.get(2).length == 1,
+              "repetitive data split into %d chunks", chunks.size());
+
+        byte[] shifted = new byte[noise.length + 1];
+        System.arraycopy(noise, 0, shifted, 1, noise.length);
+        Set<String> moved = new HashSet<>();
+        for (byte[] piece : chunk(shifted)) {
+            moved.add(Utils.sha1(piece));
+        }
+        List<byte[]> original = chunk(noise);
+        for (int k = 1; k < original.size(); k += 1) {
+            check(moved.contains(Utils.sha1(original.get(k))),
+                  "inserting a byte changes chunk %d", k);
+        }
+        System.out.println("chunker ok");
+    }
+
+    /** Return the chunks into which Chunker splits DATA, checking that
+     *  they join to give DATA and that all but the last are of lengths
+     *  between Chunker.MIN_CHUNK and Chunker.MAX_CHUNK. */
+    private static List<byte[]> chunk(byte[] data) throws IOException {
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        List<byte[]> result = new ArrayList<>();
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int n = chunker.next(); n > 0; n = chunker.next()) {
+            check(result.isEmpty()
+                  || result.get(result.size() - 1).length
+                     >= Chunker.MIN_CHUNK,
+                  "short chunk before the last of %d bytes", data.length);
+            check(n <= Chunker.MAX_CHUNK, "chunk of %d bytes", n);
+            result.add(Arrays.copyOf(chunker.chunk(), n));
+            joined.write(chunker.chunk(), 0, n);
+        }
+        check(Arrays.equals(joined.toByteArray(), data),
+              "chunks of %d bytes do not join to give them", data.length);
+        return result;
+    }
+
+    /** Check that a store gives back files stored as chunks, and those
+     *  just too small to be, both loose and packed, and that their chunks
+     *  are objects of their own.  The threshold is set above MAX_CHUNK,
+     *  so that every file that reaches it spans several chunks: a file
+     *  of one chunk is stored whole. */
+    private static void chunkedStore(Random random) throws IOException {
+        File dir = new File("chunked");
+        dir.mkdirs();
+        ObjectStore store = new ObjectStore(new File(dir, "objects"));
+        int threshold = Chunker.MAX_CHUNK + 1;
+        store.setChunkThreshold(threshold);
+        byte[] noise = new byte[threshold + 1];
+        random.nextBytes(noise);
+        byte[] same = new byte[2 * Chunker.MAX_CHUNK + 1];
+        Arrays.fill(same, (byte) 'z');
+        List<byte[]> files = List.of(
+            Arrays.copyOf(noise, threshold - 1),
+            Arrays.copyOf(noise, threshold), noise, same);
+        Path file = new File(dir, "file").toPath();
+        File target = new File(dir, "a/b/checkout");
+        List<String> ids = new ArrayList<>();
+        for (byte[] data : files) {
+            Files.write(file, data);
+            String id = store.put(file);
+            ids.add(id);
+            check(id.equals(Utils.sha1(data)),
+                  "chunked id of %d bytes", data.length);
+            check(Arrays.equals(store.read(id), data)
+                  && store.size(id) == data.length,
+                  "chunked store round trip of %d bytes", data.length);
+            List<String> chunks = store.chunks(id);
+            check(chunks.isEmpty() == (data.length < threshold),
+                  "%d bytes stored in %d chunks", data.length,
+                  chunks.size());
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            for (String chunk : chunks) {
+                byte[] piece = store.read(chunk);
+                check(chunk.equals(Utils.sha1(piece)),
+                      "chunk %s holds the wrong bytes", chunk);
+                joined.writeBytes(piece);
+            }
+            check(chunks.isEmpty()
+                  || Arrays.equals(joined.toByteArray(), data),
+                  "chunks of %d bytes do not join to give them",
+                  data.length);
+            store.checkout(id, target, false);
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), data),
+                  "checkout of %d bytes stored as chunks", data.length);
+        }
+        List<String> repeated = store.chunks(ids.get(3));
+        check(repeated.size() == 3
+              && repeated.get(0).equals(repeated.get(1)),
+              "repeated chunks are %s", repeated);
+
+        check(store.repack() != null && store.looseIds().isEmpty(),
+              "chunked objects not packed");
+        ObjectStore packed = new ObjectStore(store.directory());
+        for (int k = 0; k < files.size(); k += 1) {
+            byte[] data = files.get(k);
+            String id = ids.get(k);
+            check(Arrays.equals(packed.read(id), data)
+                  && packed.size(id) == data.length
+                  && packed.chunks(id).equals(store.chunks(id)),
+                  "packed chunked round trip of %d bytes", data.length);
+            packed.checkout(id, target, false);
+            check(Arrays.equals(Files.readAllBytes(target.toPath()), data),
+                  "checkout of %d packed bytes", data.length);
+        }
+        System.out.println("chunked store ok");
+    }
+
+    /** Check that packs, including chains of deltas longer than
+     *  PackFile.MAX_DEPTH, give back every object packed in them, that a
+     *  pack stream is received intact, and that a corrupt or truncated
+     *  one is rejected without leaving anything in the store. */
+    private static void packs(Random random) throws IOException {
+        ObjectStore store = new ObjectStore(new File("packed", "objects"));
+        TreeMap<String, byte[]> objects = new TreeMap<>();
+        List<byte[]> contents = samples(random);
+        byte[] version = text(random, 3 * Lz.BLOCK + 7);
+        for (int k = 0; k < 3 * PackFile.MAX_DEPTH; k += 1) {
+            contents.add(version);
+            version = edit(version, random);
+        }
+        for (byte[] data : contents) {
+            objects.put(store.put(data), data);
+        }
+        PackFile pack = store.repack();
+        check(pack != null && pack.size() == objects.size()
+              && store.looseIds().isEmpty(),
+              "repack did not pack every object");
+        File packs = new File(store.directory(), "pack");
+        long packBytes = 0;
+        for (File file : packs.listFiles()) {
+            packBytes += file.length();
+        }
+        check(packBytes < 3 * PackFile.MAX_DEPTH * version.length / 2,
+              "pack of successive versions takes %d bytes", packBytes);
+        checkObjects(new ObjectStore(store.directory()), objects,
+                     "repacked");
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        List<String> ids = new ArrayList<>(objects.keySet());
+        PackFile.send(ids, store, sent);
+        byte[] stream = sent.toByteArray();
+        ObjectStore received =
+            new ObjectStore(new File("received", "objects"));
+        check(PackFile.receive(received, new ByteArrayInputStream(stream))
+              != null, "pack stream not received");
+        checkObjects(received, objects, "received");
+
+        ObjectStore target = new ObjectStore(new File("corrupt", "objects"));
+        int header = 4 + 4 + 4;
+        for (int k = 0; k < 50; k += 1) {
+            byte[] corrupt = stream.clone();
+            int at = header + random.nextInt(stream.length - header);
+            corrupt[at] ^= (byte) (1 + random.nextInt(255));
+            checkRejected(target, corrupt,
+                          "pack stream corrupted at byte " + at);
+        }
+        for (int n : new int[] { 0, 4, header - 1, header, header + 1,
+                                 stream.length / 2, stream.length - 1 }) {
+            checkRejected(target, Arrays.copyOf(stream, n),
+                          "pack stream truncated to " + n + " bytes");
+        }
+
+        String[] chain = new String[PackFile.MAX_DEPTH + 2];
+        for (int k = 0; k < chain.length; k += 1) {
+            chain[k] = Utils.sha1("link " + k);
+        }
+        String[] next = Arrays.copyOfRange(chain, 1, chain.length + 1);
+        next[next.length - 1] = chain[0];
+        checkRejected(target, deltaStream(chain, next),
+                      "pack stream of cyclic deltas");
+        checkRejected(target, deltaStream(new String[] { chain[0] },
+                                          new String[] { chain[0] }),
+                      "pack stream of a delta against itself");
+        checkRejected(target, deltaStream(
+                          Arrays.copyOf(chain, chain.length - 1),
+                          Arrays.copyOfRange(chain, 1, chain.length)),
+                      "pack stream of a chain of deltas too long");
+        checkRejected(target, deltaStream(new String[] { chain[0] },
+                                          new String[] { chain[1] }),
+                      "pack stream of a delta against a missing base");
+        System.out.println("packs ok");
+    }
+
+    /** Return a pack stream of deltas, one for each of IDS, the K-th
+     *  against BASES[K], each turning a byte into another. */
+    private static byte[] deltaStream(String[] ids, String[] bases)
+        throws IOException {
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(packed)) {
+            out.write(Delta.encode(new byte[] { 'x' }, new byte[] { 'y' }));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("GPAK");
+        out.writeInt(1);
+        out.writeInt(ids.length);
+        for (int k = 0; k < ids.length; k += 1) {
+            out.write(PackFile.fromHex(ids[k]));
+            out.writeByte(DELTA_ENTRY);
+            out.write(PackFile.fromHex(bases[k]));
+            out.writeLong(1);
+            out.writeLong(packed.size());
+            packed.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Check that STORE gives back every one of OBJECTS, a map from ids
+     *  to contents, described as WHAT. */
+    private static void checkObjects(ObjectStore store,
+                                     Map<String, byte[]> objects,
+                                     String what) {
+        for (Map.Entry<String, byte[]> e : objects.entrySet()) {
+            check(Arrays.equals(store.read(e.getKey()), e.getValue())
+                  && store.size(e.getKey()) == e.getValue().length,
+                  "%s round trip of %d bytes", what, e.getValue().length);
+        }
+    }
+
+    /** Check that receiving STREAM into STORE fails, describing STREAM
+     *  as WHAT, and leaves no pack nor temporary file behind. */
+    private static void checkRejected(ObjectStore store, byte[] stream,
+                                      String what) {
+        boolean rejected = false;
+        try {
+            PackFile.receive(store, new ByteArrayInputStream(stream));
+        } catch (IOException | IllegalArgumentException
+                 | GitletException excp) {
+            rejected = true;
+        }
+        check(rejected, "%s accepted", what);
+        String[] left = new File(store.directory(), "pack").list();
+        check(left == null || left.length == 0, "%s left %s", what,
+              Arrays.toString(left));
+    }
+
+    /** Check that trees give back the files written into them, however
+     *  nested, and compare correctly. */
+    private static void tree() {
+        TreeMap<String, String> none = new TreeMap<>();
+        String empty = Tree.write(none, true);
+        check(Tree.flatten(empty).isEmpty(), "empty tree is not empty");
+        check(Tree.lookup(empty, "a") == null, "empty tree has a file");
+
+        TreeMap<String, String> files = new TreeMap<>();
+        files.put("top", Utils.sha1("top"));
+        files.put("a/b", Utils.sha1("b"));
+        files.put("a/c/d", Utils.sha1("d"));
+        files.put("a/c/e", Utils.sha1("e"));
+        files.put("z/y/x/w", Utils.sha1("w"));
+        String root = Tree.write(files, true);
+        check(Tree.flatten(root).equals(files), "tree flattens differently");
+        check(Tree.write(files, false).equals(root),
+              "tree id depends on storing it");
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            check(e.getValue().equals(Tree.lookup(root, e.getKey())),
+                  "tree lookup of %s", e.getKey());
+        }
+        check(Tree.lookup(root, "a/c/f") == null
+              && Tree.lookup(root, "nothing") == null
+              && Tree.lookup(root, "top/inside") == null,
+              "tree finds a file it does not hold");
+
+        TreeMap<String, String> changed = new TreeMap<>(files);
+        changed.remove("a/c/d");
+        changed.put("a/c/e", Utils.sha1("e2"));
+        changed.put("new/f", Utils.sha1("f"));
+        String other = Tree.write(changed, true);
+        TreeMap<String, String[]> diff = Tree.diff(root, other);
+        check(diff.keySet().equals(
+                  new TreeSet<>(List.of("a/c/d", "a/c/e", "new/f"))),
+              "tree diff finds %s", diff.keySet());
+        check(diff.get("a/c/d")[1] == null && diff.get("new/f")[0] == null,
+              "tree diff of added and removed files");
+        check(Tree.diff(root, root).isEmpty(), "tree differs from itself");
+        check(Tree.diff(null, root).size() == files.size(),
+              "tree diff with the empty tree");
+        System.out.println("tree ok");
+    }
+
+    /** Check that the edit scripts of Diff turn each text into the other,
+     *  and that its unified output is as expected. */
+    private static void diff(Random random) {
+        String[] texts = {
+            "", "x\n", "a\nb\nc\n", "a\nB\nc\n", "b\nc\nd\ne\n",
+            "a\na\na\na\n", new String(text(random, 2000),
+                                       StandardCharsets.UTF_8),
+        };
+        List<String> cases = new ArrayList<>(Arrays.asList(texts));
+        String big = new String(text(random, 40000), StandardCharsets.UTF_8);
+        cases.add(big);
+        cases.add(new String(edit(big.getBytes(StandardCharsets.UTF_8),
+                                  random), StandardCharsets.UTF_8));
+        for (String a : cases) {
+            for (String b : cases) {
+                Diff.Interner lines = new Diff.Interner();
+                int[] x = lines.read(stream(a));
+                int[] y = lines.read(stream(b));
+                List<Diff.Edit> edits = Diff.diff(x, y);
+                check(Arrays.equals(patch(x, y, edits), y),
+                      "diff of %d and %d lines does not rebuild the second",
+                      x.length, y.length);
+                check(!a.equals(b) || edits.isEmpty(),
+                      "equal texts differ");
+            }
+        }
+
+        Diff.Interner lines = new Diff.Interner();
+        int[] a = lines.read(stream("a\nb\nc\n"));
+        int[] b = lines.read(stream("a\nB\nc\n"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          StandardCharsets.UTF_8);
+        Diff.writeUnified(a, b, lines, "x", "y", out);
+        String unified = bytes.toString(StandardCharsets.UTF_8);
+        check(unified.equals(String.format("--- x%n+++ y%n@@ -1,3 +1,3 @@%n"
+                                           + " a%n-b%n+B%n c%n")),
+              "unified diff is%n%s", unified);
+        System.out.println("diff ok");
+    }
+
+    /** Return the lines of X patched by EDITS, an edit script turning X
+     *  into Y, with lines of Y, checking that the edits are in order. */
+    static int[] patch(int[] x, int[] y, List<Diff.Edit> edits) {
+        int[] result = new int[y.length];
+        int n = 0, i = 0;
+        for (Diff.Edit e : edits) {
+            check(e.aStart >= i && e.aEnd >= e.aStart && e.bEnd >= e.bStart,
+                  "edits out of order: %s", edits);
+            check(e.bStart - n == e.aStart - i, "edit %s misplaced", e);
+            while (i < e.aStart) {
+                result[n++] = x[i++];
+            }
+            for (int k = e.bStart; k < e.bEnd; k += 1) {
+                result[n++] = y[k];
+            }
+            i = e.aEnd;
+        }
+        check(x.length - i == y.length - n, "edits leave a wrong tail");
+        while (i < x.length) {
+            result[n++] = x[i++];
+        }
+        return result;
+    }
+
+    /** Check three-way merges that are clean, that agree, and that
+     *  conflict. */
+    private static void merge3() {
+        checkMerge("", "", "", "", false);
+        checkMerge("", "a\n", "", "a\n", false);
+        checkMerge("a\nb\nc\nd\ne\n", "A\nb\nc\nd\ne\n", "a\nb\nc\nd\nE\n",
+                   "A\nb\nc\nd\nE\n", false);
+        checkMerge("a\nb\nc\n", "a\nX\nc\n", "a\nX\nc\n", "a\nX\nc\n",
+                   false);
+        checkMerge("a\nb\nc\n", "a\nc\n", "a\nb\nc\nd\n", "a\nc\nd\n",
+                   false);
+        checkMerge("a\nb\nc\n", "a\nX\nc\n", "a\nY\nc\n",
+                   "a\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\nc\n", true);
+        checkMerge("", "x\n", "y\n",
+                   "<<<<<<< HEAD\nx\n=======\ny\n>>>>>>>\n", true);
+        System.out.println("merge3 ok");
+    }
+
+    /** Check that merging OURS and THEIRS, descended from BASE, gives
+     *  EXPECTED, and conflicts iff CONFLICT. */
+    private static void checkMerge(String base, String ours, String theirs,
+                                   String expected, boolean conflict) {
+        Diff.Interner lines = new Diff.Interner();
+        int[] b = lines.read(stream(base));
+        int[] o = lines.read(stream(ours));
+        int[] t = lines.read(stream(theirs));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          StandardCharsets.UTF_8);
+        boolean conflicted = Merge3.merge(b, o, t, lines, out);
+        String merged = bytes.toString(StandardCharsets.UTF_8)
+            .replace(System.lineSeparator(), "\n");
+        check(merged.equals(expected) && conflicted == conflict,
+              "merge of %s and %s from %s gave %s", ours.trim(),
+              theirs.trim(), base.trim(), merged);
+    }
+
+    /** Return sample contents drawn from RANDOM: empty, a single byte,
+     *  bytes that look like a stored object's header, and text, random
+     *  and repetitive data just below, at and just above Lz's block
+     *  size and spanning several blocks. */
+    private static List<byte[]> samples(Random random) {
+        List<byte[]> result = new ArrayList<>();
+        result.add(new byte[0]);
+        result.add(new byte[] { 'x' });
+        result.add((Compressor.MAGIC + "\u0001 not really a header")
+                   .getBytes(StandardCharsets.US_ASCII));
+        for (int n : new int[] { Compressor.MIN_COMPRESSED - 1,
+                                 Compressor.MIN_COMPRESSED, Lz.BLOCK - 1,
+                                 Lz.BLOCK, Lz.BLOCK + 1,
+                                 3 * Lz.BLOCK + 7 }) {
+            result.add(text(random, n));
+            byte[] noise = new byte[n];
+            random.nextBytes(noise);
+            result.add(noise);
+            byte[] same = new byte[n];
+            Arrays.fill(same, (byte) 'z');
+            result.add(same);
+        }
+        return result;
+    }
+
+    /** Return N bytes of text drawn from RANDOM. */
+    static byte[] text(Random random, int n) {
+        byte[] result = new byte[n];
+        for (int k = 0; k < n; ) {
+            byte[] file = SyntheticRepo.contents(random);
+            int len = Math.min(file.length, n - k);
+            System.arraycopy(file, 0, result, k, len);
+            k += len;
+        }
+        return result;
+    }
+
+    /** Return DATA with a few bytes inserted, deleted and overwritten at
+     *  places drawn from RANDOM. */
+    static byte[] edit(byte[] data, Random random) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int at = 0;
+        for (int e = 0; e < 3 && data.length > 0; e += 1) {
+            int next = at + random.nextInt(Math.max(1, data.length / 3));
+            next = Math.min(next, data.length);
+            result.write(data, at, next - at);
+            byte[] patch = new byte[1 + random.nextInt(20)];
+            random.nextBytes(patch);
+            result.writeBytes(patch);
+            at = Math.min(data.length, next + random.nextInt(20));
+        }
+        result.write(data, at, data.length - at);
+        return result.toByteArray();
+    }
+
+    /** Return a stream reading TEXT as UTF-8. */
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Return true iff OP throws an IllegalArgumentException or a
+     *  GitletException, as the readers of corrupt data do. */
+    static boolean rejects(Runnable op) {
+        try {
+            op.run();
+            return false;
+        } catch (IllegalArgumentException | GitletException excp) {
+            return true;
+        }
+    }
+
+    /** Type byte of a delta entry in a pack stream. */
+    private static final int DELTA_ENTRY = 2;
+}
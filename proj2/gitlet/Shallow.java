@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The shallow boundary of a repository whose older history has been
+ *  pruned: the commits whose parents are no longer kept.  Each boundary
+ *  commit is grafted onto nothing, so that every walk over the history,
+ *  through the CommitGraph or otherwise, treats it as an initial commit
+ *  and never asks for the missing parents.  As in Git, the boundary is
+ *  kept in a text file holding one commit id per line; a repository with
+ *  no such file has its full history.
+ *
+ *  @author SuuTou
+ */
+class Shallow {
+
+    /** The boundary recorded in FILE, which need not exist. */
+    Shallow(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            for (String line : readContentsAsString(file).split("\n")) {
+                if (!line.isEmpty()) {
+                    boundary.add(line);
+                }
+            }
+        }
+    }
+
+    /** Return true iff the history is complete. */
+    boolean isEmpty() {
+        return boundary.isEmpty();
+    }
+
+    /** Return true iff commit ID is on the boundary. */
+    boolean contains(String id) {
+        return boundary.contains(id);
+    }
+
+    /** Return the ids of the commits on the boundary. */
+    Set<String> ids() {
+        return Collections.unmodifiableSet(boundary);
+    }
+
+    /** Return the parents of COMMIT, whose id is ID, as far as the kept
+     *  history goes: none if it is on the boundary. */
+    List<String> parents(String id, Commit commit) {
+        return contains(id) ? List.of() : commit.parents();
+    }
+
+    /** Make IDS the boundary, replacing the file atomically. */
+    void set(Set<String> ids) {
+        boundary.clear();
+        boundary.addAll(ids);
+        StringBuilder text = new StringBuilder();
+        for (String id : boundary) {
+            text.append(id).append('\n');
+        }
+        writeContentsAtomically(file, text.toString());
+    }
+
+    /** File holding the boundary. */
+    private final File file;
+    /** Ids of the boundary commits. */
+    private final TreeSet<String> boundary = new TreeSet<>();
+}
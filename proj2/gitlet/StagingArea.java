@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The gitlet staging area: the files staged for addition, each with the
+ *  id of the blob holding its staged contents, and the files staged for
+ *  removal.  It is kept in a single file, in the binary form defined by
+ *  Codec, and rewritten whole, by an atomic rename, every time it
+ *  changes.
+ *
+ *  @author SuuTou
+ */
+class StagingArea implements Dumpable {
+
+    /** Return the staging area saved in FILE, or an empty one if FILE does
+     *  not exist. */
+    static StagingArea load(File file) {
+        if (!file.isFile()) {
+            return new StagingArea();
+        }
+        return Codec.decodeStagingArea(readContents(file));
+    }
+
+    /** Return the staging area saved in FILE, as for load(FILE), reading
+     *  it through TXN, which then commits only if FILE is unchanged. */
+    static StagingArea load(File file, Transaction txn) {
+        byte[] contents = txn.read(file);
+        return contents == null
+            ? new StagingArea() : Codec.decodeStagingArea(contents);
+    }
+
+    /** Write this staging area to FILE.  FILE is replaced atomically, so
+     *  it always holds either the old or the new staging area. */
+    void save(File file) {
+        writeContentsAtomically(file, Codec.encode(this));
+    }
+
+    /** Stage the file NAME for addition with the contents of blob ID. */
+    void add(String name, String id) {
+        added.put(name, id);
+        removed.remove(name);
+    }
+
+    /** Stage the file NAME for removal. */
+    void remove(String name) {
+        added.remove(name);
+        removed.add(name);
+    }
+
+    /** Remove any staged addition or removal of NAME. */
+    void unstage(String name) {
+        added.remove(name);
+        removed.remove(name);
+    }
+
+    /** Return the files staged for addition, mapped to their blob ids. */
+    Map<String, String> added() {
+        return added;
+    }
+
+    /** Return the files staged for removal. */
+    Set<String> removed() {
+        return removed;
+    }
+
+    /** Return true iff nothing is staged. */
+    boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /** Unstage everything. */
+    void clear() {
+        added.clear();
+        removed.clear();
+    }
+
+    @Override
+    public void dump() {
+        System.out.printf("added: %s%nremoved: %s%n", added, removed);
+    }
+
+    /** Version of the serialized form, which only DumpObj and the
+     *  serialization baseline of CodecSpeedTest still use. */
+    private static final long serialVersionUID = 1L;
+
+    /** Files staged for addition, mapped to their blob ids. */
+    private final TreeMap<String, String> added = new TreeMap<>();
+    /** Files staged for removal. */
+    private final TreeSet<String> removed = new TreeSet<>();
+}
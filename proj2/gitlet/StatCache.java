@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of the blob ids of working files, keyed by the files' stat
+ *  data, in the manner of Git's index.  For each file it records the
+ *  size, modification time and inode the file had when it was last
+ *  hashed, along with the resulting id.  As long as a file's stat data
+ *  still matches, its id is taken from the cache instead of re-reading
+ *  and re-hashing the file.
+ *
+ *  A file modified within the timestamp granularity of the moment the
+ *  cache was saved could change again without its stat data changing, so
+ *  entries whose modification time is not strictly earlier than the
+ *  cache file's own are "racily clean" and are always rehashed.
+ *
+ *  Entries are keyed by the path of each file relative to the working
+ *  directory, with '/' separating its components, so that files of the
+ *  same name in different directories never share an entry.
+ *
+ *  The cache is kept in a binary file:
+ *      "GSTC" <version> <count> <entry>*
+ *  where each entry is the file's path (in modified UTF-8), its size,
+ *  modification time in nanoseconds, inode (0 if unknown), and the 20-byte
+ *  blob id.
+ *
+ *  @author SuuTou
+ */
+class StatCache {
+
+    /** Format version written in the header. */
+    private static final int VERSION = 2;
+
+    /** Return the cache of the files under the working directory ROOT
+     *  saved in FILE, or an empty one if FILE does not exist or cannot be
+     *  read. */
+    static StatCache load(File file, File root) {
+        StatCache cache = new StatCache(root);
+        if (!file.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!"GSTC".equals(new String(magic, StandardCharsets.US_ASCII))
+                || in.readInt() != VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            byte[] raw = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < count; i += 1) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(raw);
+                cache.entries.put(name, new Entry(size, mtime, inode,
+                                                  PackFile.toHex(raw)));
+            }
+            cache.savedAt =
+                toNanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /** A cache, as yet empty, of the files under ROOT. */
+    private StatCache(File root) {
+        this.root = root.getAbsoluteFile().toPath();
+    }
+
+    /** Write this cache to FILE, if it has changed since it was loaded,
+     *  replacing FILE by an atomic rename. */
+    void save(File file) {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes("GSTC");
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(PackFile.fromHex(entry.id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContentsAtomically(file, bytes.toByteArray());
+        dirty = false;
+    }
+
+    /** Return the blob id of the current contents of FILE, which must be a
+     *  plain file, rehashing it only if its stat data differ from those
+     *  cached for it or its entry is racily clean.  Rehashing marks the
+     *  cache for saving, so that a racily clean entry is trusted once the
+     *  cache has been rewritten after it. */
+    String id(File file) {
+        Entry now = stat(file);
+        Entry cached = entries.get(key(file));
+        if (cached != null && cached.sameStat(now)
+            && cached.mtime < savedAt) {
+            return cached.id;
+        }
+        rehashed += 1;
+        String id = sha1(file.toPath());
+        record(key(file), now, id);
+        dirty = true;
+        return id;
+    }
+
+    /** Return true iff FILE is known, from its stat data alone, to hold
+     *  blob ID: it has an entry with that id whose stat data it still has
+     *  and which is not racily clean.  FILE is never read. */
+    boolean matches(File file, String id) {
+        Entry cached = entries.get(key(file));
+        if (cached == null || !cached.id.equals(id) || !file.isFile()
+            || cached.mtime >= savedAt) {
+            return false;
+        }
+        return cached.sameStat(stat(file));
+    }
+
+    /** Return the blob id cached for FILE if its entry has the stat data
+     *  STAT and is not racily clean, and otherwise null.  FILE is never
+     *  read. */
+    String knownId(File file, Entry stat) {
+        Entry cached = entries.get(key(file));
+        if (cached == null || cached.mtime >= savedAt
+            || !cached.sameStat(stat)) {
+            return null;
+        }
+        return cached.id;
+    }
+
+    /** Record that FILE, as it is now, has blob id ID. */
+    void record(File file, String id) {
+        record(file, stat(file), id);
+    }
+
+    /** Record that FILE had blob id ID when it had the stat data STAT,
+     *  taken by stat before it was hashed.  Should the file have changed
+     *  while it was being hashed, its stat data no longer match STAT, so
+     *  it is rehashed next time rather than trusted with a stale id. */
+    void record(File file, Entry stat, String id) {
+        record(key(file), stat, id);
+    }
+
+    /** Drop any entry for the file at PATH, relative to the working
+     *  directory. */
+    void forget(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Return the number of files rehashed by id since this cache was
+     *  loaded. */
+    int rehashed() {
+        return rehashed;
+    }
+
+    /** Set the entry for NAME to the stat data of STAT with id ID. */
+    private void record(String name, Entry stat, String id) {
+        Entry entry = new Entry(stat.size, stat.mtime, stat.inode, id);
+        Entry old = entries.put(name, entry);
+        if (old == null || !old.sameStat(entry) || !old.id.equals(id)) {
+            dirty = true;
+        }
+    }
+
+    /** Return the key of FILE: its path relative to the working
+     *  directory. */
+    private String key(File file) {
+        String result =
+            root.relativize(file.getAbsoluteFile().toPath()).toString();
+        return File.separatorChar == '/' ? result
+            : result.replace(File.separatorChar, '/');
+    }
+
+    /** Return an entry holding the current stat data of FILE and no
+     *  id. */
+    static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(attrs.size(),
+                             toNanos(attrs.lastModifiedTime()),
+                             inode(path), null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the inode number of the file at PATH, or 0 where the file
+     *  system does not report one. */
+    private static long inode(Path path) {
+        try {
+            Object ino = Files.getAttribute(path, "unix:ino");
+            return ino instanceof Number ? ((Number) ino).longValue() : 0;
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return 0;
+        }
+    }
+
+    /** Return TIME in nanoseconds since the epoch. */
+    private static long toNanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** The cached stat data and id of one file. */
+    static class Entry {
+        /** An entry for a file of SIZE bytes last modified at MTIME
+         *  nanoseconds, with inode INODE and blob id ID. */
+        Entry(long size, long mtime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        /** Return true iff OTHER has the same stat data as this entry. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                && inode == other.inode;
+        }
+
+        /** Size of the file in bytes. */
+        private final long size;
+        /** Modification time of the file in nanoseconds. */
+        private final long mtime;
+        /** Inode number of the file, or 0. */
+        private final long inode;
+        /** Blob id of the file's contents. */
+        private final String id;
+    }
+
+    /** The working directory, as an absolute path. */
+    private final Path root;
+    /** Cached entries, keyed by path relative to ROOT. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** Modification time, in nanoseconds, of the cache file when loaded;
+     *  only entries older than this can be trusted. */
+    private long savedAt = Long.MIN_VALUE;
+    /** True iff ENTRIES has changed since loading. */
+    private boolean dirty;
+    /** Number of files rehashed by id. */
+    private int rehashed;
+}
@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Builds synthetic repositories for benchmarks, in the repository of the
+ *  current directory.  A repository built by generate starts with a
+ *  commit of FILES text files, followed by a main line of COMMITS
+ *  commits on branch "master", each rewriting a few files.  Every
+ *  BRANCHEVERY commits, a topic branch forks from the main line, gets a
+ *  few commits of its own on files the main line leaves alone, and is
+ *  merged back by a commit with two parents.  The last topic branch is
+ *  left unmerged as branch "topic", and branch "old" points at a commit
+ *  halfway down the main line.  Commit K of the main line has message
+ *  "commit K", unless it merges a topic branch.  The working directory
+ *  holds the files of "master", which is checked out, and the staging
+ *  area is empty.
+ *
+ *  Commits are built directly, a Tree at a time, so that building a
+ *  large history takes seconds; everything is deterministic given the
+ *  seed.
+ *
+ *  @author SuuTou
+ */
+class SyntheticRepo {
+
+    /** Lines in each generated file. */
+    static final int LINES = 40;
+    /** Files rewritten by each commit. */
+    private static final int CHANGES = 3;
+    /** Commits on each topic branch. */
+    private static final int TOPIC_COMMITS = 3;
+
+    /** Build the repository described in the class comment from random
+     *  numbers seeded with SEED. */
+    static void generate(int files, int commits, int branchEvery,
+                         long seed) {
+        SyntheticRepo repo = new SyntheticRepo(files, seed);
+        repo.build(commits, branchEvery);
+    }
+
+    /** Return the name of generated file K. */
+    static String fileName(int k) {
+        return String.format("file%05d.txt", k);
+    }
+
+    /** Return a new version of a generated file, drawn from RANDOM. */
+    static byte[] contents(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i += 1) {
+            text.append("line ").append(i).append(": ")
+                .append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A generator of repositories with FILES files, seeded with SEED. */
+    private SyntheticRepo(int files, long seed) {
+        this.files = files;
+        random = new Random(seed);
+    }
+
+    /** Build a main line of COMMITS commits, with a topic branch every
+     *  BRANCHEVERY commits. */
+    private void build(int commits, int branchEvery) {
+        Repository.OBJECTS_DIR.mkdirs();
+        Repository.BRANCHES_DIR.mkdirs();
+        Map<String, String> initial = new HashMap<>();
+        for (int k = 0; k < files; k += 1) {
+            initial.put(fileName(k),
+                        Repository.OBJECTS.put(contents(random)));
+        }
+        String head = commit("initial commit", List.of(), null, initial);
+        String topic = head;
+        String old = head;
+        for (int n = 1; n <= commits; n += 1) {
+            Map<String, String> merged = new HashMap<>();
+            if (branchEvery > 0 && n % branchEvery == 0) {
+                topic = head;
+                for (int t = 0; t < TOPIC_COMMITS; t += 1) {
+                    Map<String, String> changes = changes(files / 2, files);
+                    merged.putAll(changes);
+                    topic = commit("topic " + n + "." + t, List.of(topic),
+                                   Commit.load(topic).tree(), changes);
+                }
+            }
+            if (!merged.isEmpty() && n + branchEvery <= commits) {
+                head = commit("merge topic " + n, List.of(head, topic),
+                              Commit.load(head).tree(), merged);
+            } else {
+                head = commit("commit " + n, List.of(head),
+                              Commit.load(head).tree(),
+                              changes(0, files / 2));
+            }
+            if (n == commits / 2) {
+                old = head;
+            }
+        }
+        writeContents(join(Repository.BRANCHES_DIR, "master"), head);
+        writeContents(join(Repository.BRANCHES_DIR, "topic"), topic);
+        writeContents(join(Repository.BRANCHES_DIR, "old"), old);
+        writeContents(Repository.HEAD_FILE, "master");
+        StatCache cache = StatCache.load(Repository.INDEX_FILE,
+                                         Repository.CWD);
+        for (Map.Entry<String, String> e
+                 : Commit.load(head).blobs().entrySet()) {
+            Repository.writeWorkingFile(e.getKey(), e.getValue(), cache,
+                                        false);
+        }
+        cache.save(Repository.INDEX_FILE);
+        Repository.STAGING_FILE.delete();
+    }
+
+    /** Return new versions, already stored, of CHANGES random files among
+     *  files FROM to TO - 1. */
+    private Map<String, String> changes(int from, int to) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < CHANGES && to > from; i += 1) {
+            String name = fileName(from + random.nextInt(to - from));
+            result.put(name, Repository.OBJECTS.put(contents(random)));
+        }
+        return result;
+    }
+
+    /** Save and return the id of a commit with MESSAGE and PARENTS whose
+     *  tree is that with id BASE (null for none) with CHANGES made. */
+    private String commit(String message, List<String> parents, String base,
+                          Map<String, String> changes) {
+        time += 1000;
+        return new Commit(message, new Date(time), parents,
+                          Tree.update(base, changes)).save();
+    }
+
+    /** Number of files in the repository. */
+    private final int files;
+    /** Source of the file contents and of the choice of files to change. */
+    private final Random random;
+    /** Time of the last commit made, in milliseconds. */
+    private long time;
+}
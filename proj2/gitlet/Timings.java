@@ -0,0 +1,221 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts, bytes and time spent per phase of a gitlet command, gathered
+ *  when the command is given the --timings option, and otherwise not at
+ *  all: while disabled, each instrumented operation costs one test of a
+ *  static flag.  The phases are the whole command, the I/O and hashing
+ *  primitives of Utils, and the object store's streaming of working
+ *  files in and out, which bypasses those primitives.  Operations may
+ *  nest, as when a checkout reads a file or writeContentsAtomically calls
+ *  writeContents; each phase is charged only the time not spent in the
+ *  operations nested within it on the same thread, so that no time is
+ *  counted twice.  The command's own share of its time, outside every
+ *  other phase, is reported as "other".  The counters may be updated
+ *  from several threads at once, as parallel checkout does, in which case
+ *  the times of the phases add up to more than that of the command.
+ *  The report ends with the hits, misses, evictions and bypasses of
+ *  the object caches during the command.  It is written to the standard
+ *  error, so that it never mixes with the command's own output; that of
+ *  a command run by a Daemon goes to the daemon's standard error.
+ *
+ *  An instrumented operation is bracketed as
+ *      long start = Timings.start();
+ *      ...
+ *      Timings.record(Timings.Phase.READ, start, bytes);
+ *
+ *  @author SuuTou
+ */
+class Timings {
+
+    /** Command-line option enabling the report in readable form. */
+    static final String OPTION = "--timings";
+    /** Command-line option enabling the report in JSON. */
+    static final String JSON_OPTION = "--timings=json";
+
+    /** The phases timed. */
+    enum Phase {
+        /** The whole command. */
+        COMMAND("command"),
+        /** Utils.readContents. */
+        READ("read"),
+        /** Utils.writeContents. */
+        WRITE("write"),
+        /** Utils.readObject. */
+        READ_OBJECT("readObject"),
+        /** Utils.sha1 in all its forms. */
+        SHA1("sha1"),
+        /** Utils.plainFilenamesIn. */
+        LIST("list"),
+        /** ObjectStore.put of a working file, which hashes and copies it
+         *  in one pass. */
+        STORE("store"),
+        /** ObjectStore.checkout of a working file. */
+        CHECKOUT("checkout");
+
+        /** A phase reported as NAME. */
+        Phase(String name) {
+            this.name = name;
+        }
+
+        /** Name of this phase in reports. */
+        private final String name;
+        /** Number of operations. */
+        private final LongAdder count = new LongAdder();
+        /** Bytes they read, wrote or hashed. */
+        private final LongAdder bytes = new LongAdder();
+        /** Nanoseconds they took. */
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    /** Zero every counter and start gathering timings. */
+    static void enable() {
+        for (Phase phase : Phase.values()) {
+            phase.count.reset();
+            phase.bytes.reset();
+            phase.nanos.reset();
+        }
+        OTHER.reset();
+        enabled = true;
+    }
+
+    /** Stop gathering timings. */
+    static void disable() {
+        enabled = false;
+    }
+
+    /** Return the time at which an operation starts, or 0 if timings are
+     *  not being gathered. */
+    static long start() {
+        if (!enabled) {
+            return 0;
+        }
+        long result = System.nanoTime();
+        OPEN.get().push(new long[] { result, 0 });
+        return result;
+    }
+
+    /** Record an operation of PHASE that began at START, as returned by
+     *  start(), and handled BYTES bytes.  Operations started on this
+     *  thread since START and never recorded, as when they failed, are
+     *  forgotten. */
+    static void record(Phase phase, long start, long bytes) {
+        if (!enabled || start == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        ArrayDeque<long[]> open = OPEN.get();
+        long nested = 0;
+        while (!open.isEmpty()) {
+            long[] op = open.pop();
+            if (op[0] == start) {
+                nested = op[1];
+                break;
+            }
+        }
+        if (!open.isEmpty()) {
+            open.peek()[1] += elapsed;
+        }
+        if (phase == Phase.COMMAND) {
+            phase.nanos.add(elapsed);
+            OTHER.add(elapsed - nested);
+        } else {
+            phase.nanos.add(elapsed - nested);
+        }
+        phase.count.increment();
+        phase.bytes.add(bytes);
+    }
+
+    /** Print the counters to the standard error, one phase to a line,
+     *  with the command's time not accounted for by the other phases
+     *  last, followed by the use of each of CACHES, keyed by name. */
+    static void report(Map<String, ObjectCache<?>> caches) {
+        for (Phase phase : Phase.values()) {
+            line("%-10s %8d calls %12d bytes %10.3f ms", phase.name,
+                 phase.count.sum(), phase.bytes.sum(),
+                 phase.nanos.sum() / 1e6);
+        }
+        line("%-10s %44.3f ms", "other", OTHER.sum() / 1e6);
+        for (Map.Entry<String, ObjectCache<?>> e : caches.entrySet()) {
+            ObjectCache<?> cache = e.getValue();
+            line("%-10s cache %8d hits %8d misses %8d evicted "
+                 + "%8d bypassed", e.getKey(), cache.hits(),
+                 cache.misses(), cache.evictions(), cache.bypassed());
+        }
+    }
+
+    /** Print the counters to the standard error as a single-line JSON
+     *  object, mapping each phase's name to an object with its "count",
+     *  "bytes" and "nanos", under the name of the command run, COMMAND,
+     *  the command's time outside every other phase as "other", and the
+     *  "hits", "misses", "evictions" and "bypassed" of each of CACHES
+     *  under its name in "caches". */
+    static void reportJson(String command,
+                           Map<String, ObjectCache<?>> caches) {
+        StringBuilder json = new StringBuilder("{\"command\":");
+        appendJsonString(json, command);
+        json.append(",\"phases\":{");
+        for (Phase phase : Phase.values()) {
+            if (phase != Phase.COMMAND) {
+                json.append(',');
+            }
+            json.append(String.format("\"%s\":{\"count\":%d,\"bytes\":%d,"
+                                      + "\"nanos\":%d}", phase.name,
+                                      phase.count.sum(), phase.bytes.sum(),
+                                      phase.nanos.sum()));
+        }
+        json.append(String.format("},\"other\":%d,\"caches\":{",
+                                  OTHER.sum()));
+        String sep = "";
+        for (Map.Entry<String, ObjectCache<?>> e : caches.entrySet()) {
+            ObjectCache<?> cache = e.getValue();
+            json.append(sep);
+            appendJsonString(json, e.getKey());
+            json.append(String.format(":{\"hits\":%d,\"misses\":%d,"
+                                      + "\"evictions\":%d,"
+                                      + "\"bypassed\":%d}",
+                                      cache.hits(), cache.misses(),
+                                      cache.evictions(), cache.bypassed()));
+            sep = ",";
+        }
+        json.append("}}");
+        System.err.println(json);
+    }
+
+    /** Print FORMAT, formatted with ARGS, as a line of the standard
+     *  error. */
+    private static void line(String format, Object... args) {
+        System.err.printf(format + "%n", args);
+    }
+
+    /** Append S to JSON as a JSON string, escaping quotes, backslashes
+     *  and control characters. */
+    private static void appendJsonString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /** Nanoseconds of the command spent outside every other phase. */
+    private static final LongAdder OTHER = new LongAdder();
+    /** The operations started and not yet recorded on each thread,
+     *  innermost first, each as its start time and the nanoseconds spent
+     *  so far in the operations nested within it. */
+    private static final ThreadLocal<ArrayDeque<long[]>> OPEN =
+        ThreadLocal.withInitial(ArrayDeque::new);
+
+    /** True iff timings are being gathered. */
+    private static volatile boolean enabled;
+}
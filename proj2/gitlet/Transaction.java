@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** A group of file replacements inside a repository that take effect
+ *  together or not at all, such as clearing the staging area, moving a
+ *  branch and updating HEAD at the end of a commit.
+ *
+ *  commit() first writes every new file's contents to a temporary file
+ *  beside its target and syncs it.  It then writes and syncs a journal
+ *  listing the (temporary, target) pairs, followed by a checksum, and
+ *  only then renames each temporary over its target and deletes the
+ *  journal.  If a crash interrupts this, recover() finds the journal on
+ *  the next run: a complete journal is rolled forward by finishing the
+ *  renames, and an incomplete one is rolled back by deleting the
+ *  temporaries.  Temporaries left by a crash before any journal was
+ *  written are found and deleted the same way.  A transaction costs one
+ *  sync per file written, plus one for the journal and one per directory
+ *  touched, however many objects were written before it; one replacing a
+ *  single file needs no journal, its rename being atomic by itself.
+ *
+ *  Transactions are also optimistic with respect to other processes.
+ *  Files read through read() are remembered, and commit() installs the
+ *  writes, under the repository's RefLock, only if every one of them
+ *  still holds what was read (a compare-and-swap); otherwise it changes
+ *  nothing and returns false, and the writer, typically through retry(),
+ *  reads the new state and tries again.  Nothing blocks readers, who see
+ *  each file before or after a transaction but never in between.
+ *
+ *  @author SuuTou
+ */
+class Transaction {
+
+    /** Name of the journal within the repository directory. */
+    static final String JOURNAL = "journal";
+    /** Magic number starting a journal. */
+    private static final String MAGIC = "GJNL";
+    /** Suffix of the temporary files written by transactions. */
+    private static final String TMP_SUFFIX = ".txn";
+
+    /** A transaction over files in repository directory DIR. */
+    Transaction(File dir) {
+        this.dir = dir;
+    }
+
+    /** Run ATTEMPT, which reads the repository's current state through a
+     *  new Transaction and returns the result of committing it, until it
+     *  commits, waiting a short random time between attempts so that
+     *  competing writers spread out.  Throws a GitletException if it has
+     *  conflicted with other writers MAX_ATTEMPTS times. */
+    static void retry(BooleanSupplier attempt) {
+        for (int i = 0; i < MAX_ATTEMPTS; i += 1) {
+            if (attempt.getAsBoolean()) {
+                return;
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current()
+                             .nextLong(1, 2 + Math.min(i, MAX_BACKOFF)));
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("Interrupted.");
+            }
+        }
+        throw error("Another gitlet command keeps changing the repository;"
+                    + " try again.");
+    }
+
+    /** Return the contents of FILE, or null if it does not exist, and
+     *  make this transaction commit only if FILE still holds them (or
+     *  still does not exist) when it does. */
+    byte[] read(File file) {
+        byte[] contents = file.isFile() ? readContents(file) : null;
+        reads.put(file, contents);
+        return contents;
+    }
+
+    /** As for read(FILE), but return the contents as a string. */
+    String readString(File file) {
+        byte[] contents = read(file);
+        return contents == null
+            ? null : new String(contents, StandardCharsets.UTF_8);
+    }
+
+    /** Arrange for FILE to be replaced by CONTENTS, each of which is a
+     *  String or byte array, when this transaction commits. */
+    void write(File file, Object... contents) {
+        writes.put(file, contents);
+    }
+
+    /** Make every write of this transaction take effect, atomically with
+     *  respect to crashes, and return true, unless some file it read has
+     *  changed since, in which case change nothing and return false. */
+    boolean commit() {
+        RefLock lock = RefLock.acquire(dir);
+        try {
+            for (Map.Entry<File, byte[]> e : reads.entrySet()) {
+                File file = e.getKey();
+                byte[] now = file.isFile() ? readContents(file) : null;
+                if (!Arrays.equals(now, e.getValue())) {
+                    return false;
+                }
+            }
+            install();
+            return true;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /** Perform the writes of this transaction, holding the lock. */
+    private void install() {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<File[]> pairs = new ArrayList<>();
+        for (Map.Entry<File, Object[]> e : writes.entrySet()) {
+            File target = e.getKey();
+            File tmp = new File(target.getPath() + TMP_SUFFIX);
+            target.getParentFile().mkdirs();
+            writeContents(tmp, e.getValue());
+            fsync(tmp);
+            pairs.add(new File[] { tmp, target });
+        }
+        if (pairs.size() == 1) {
+            apply(pairs);
+            writes.clear();
+            return;
+        }
+
+        File journal = join(dir, JOURNAL);
+        writeContents(journal, encodeJournal(pairs));
+        fsync(journal);
+        fsync(dir);
+
+        apply(pairs);
+        journal.delete();
+        writes.clear();
+    }
+
+    /** Finish or undo any transaction in repository directory DIR that was
+     *  interrupted by a crash, and delete the temporaries of any that
+     *  crashed before writing its journal.  Directory SKIP, which no
+     *  transaction writes to, is not searched for them.  A journal or
+     *  temporary whose writer still holds the lock belongs to a
+     *  transaction in progress, which is left alone. */
+    static void recover(File dir, File skip) {
+        File journal = join(dir, JOURNAL);
+        if (!journal.isFile() && !hasTemporaries(dir, skip)) {
+            return;
+        }
+        try (RefLock lock = RefLock.tryAcquire(dir)) {
+            if (lock == null) {
+                return;
+            }
+            if (journal.isFile()) {
+                List<File[]> pairs = decodeJournal(readContents(journal));
+                if (pairs != null) {
+                    apply(pairs);
+                }
+                journal.delete();
+            }
+            deleteTemporaries(dir, skip);
+        }
+    }
+
+    /** Rename each temporary of PAIRS that still exists over its target,
+     *  then sync the directories involved. */
+    private static void apply(List<File[]> pairs) {
+        List<File> dirs = new ArrayList<>();
+        for (File[] pair : pairs) {
+            if (pair[0].isFile()) {
+                pair[1].getParentFile().mkdirs();
+                replaceAtomically(pair[0], pair[1]);
+            }
+            File parent = pair[1].getAbsoluteFile().getParentFile();
+            if (!dirs.contains(parent)) {
+                dirs.add(parent);
+            }
+        }
+        for (File parent : dirs) {
+            fsync(parent);
+        }
+    }
+
+    /** Return true iff there are temporary files under DIR, outside
+     *  directory SKIP. */
+    private static boolean hasTemporaries(File dir, File skip) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return false;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.equals(skip) && hasTemporaries(file, skip)) {
+                    return true;
+                }
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Delete any leftover temporary files under DIR, outside directory
+     *  SKIP. */
+    private static void deleteTemporaries(File dir, File skip) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.equals(skip)) {
+                    deleteTemporaries(file, skip);
+                }
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Return the journal recording PAIRS. */
+    private static byte[] encodeJournal(List<File[]> pairs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes(MAGIC);
+            out.writeInt(pairs.size());
+            for (File[] pair : pairs) {
+                Codec.writeString(out, pair[0].getPath());
+                Codec.writeString(out, pair[1].getPath());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw error("Internal error writing journal.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the (temporary, target) pairs recorded in the journal
+     *  JOURNAL, or null if it was not completely written. */
+    private static List<File[]> decodeJournal(byte[] journal) {
+        if (journal.length < MAGIC.length() + 4 + 8) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(journal, 0, journal.length - 8);
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(journal))) {
+            in.skipBytes(journal.length - 8);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(journal))) {
+            in.skipBytes(MAGIC.length());
+            int count = in.readInt();
+            List<File[]> pairs = new ArrayList<>();
+            for (int i = 0; i < count; i += 1) {
+                File tmp = new File(Codec.readString(in));
+                File target = new File(Codec.readString(in));
+                pairs.add(new File[] { tmp, target });
+            }
+            return pairs;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Most times retry() attempts a transaction. */
+    private static final int MAX_ATTEMPTS = 1000;
+    /** Bound, in milliseconds, on the wait between attempts. */
+    private static final int MAX_BACKOFF = 20;
+
+    /** Repository directory holding the journal. */
+    private final File dir;
+    /** Contents of the files read, null for those that did not exist. */
+    private final LinkedHashMap<File, byte[]> reads = new LinkedHashMap<>();
+    /** Pending writes, in order, keyed by target file. */
+    private final LinkedHashMap<File, Object[]> writes =
+        new LinkedHashMap<>();
+}
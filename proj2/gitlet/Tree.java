@@ -0,0 +1,372 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** A snapshot of one directory: its files, each with the id of its blob,
+ *  and its subdirectories, each with the id of its own Tree.  A commit
+ *  names only the tree of the top directory, so a commit that changes a
+ *  few files writes new trees only for the directories on their paths,
+ *  and shares every other subtree, by id, with its parent.  For the same
+ *  reason, two snapshots can be compared without looking inside any
+ *  subtree whose id they share.
+ *
+ *  A tree is encoded as
+ *      "GTRE" <version> <count> <offset>* <entry>*
+ *  where each entry is a type byte (blob or tree), a 20-byte id and a
+ *  name, as written by Codec.writeString, and the entries are sorted by
+ *  name, with the int <offset>s giving the position of each in the
+ *  encoding.  A Tree is a view of these bytes, as kept in the object
+ *  cache: looking up a name is a binary search over the offsets that
+ *  decodes only the names it probes, and nothing is copied out until
+ *  asked for.  Paths within trees use "/" as separator.
+ *
+ *  @author SuuTou
+ */
+class Tree implements Dumpable {
+
+    /** Magic number of an encoded Tree. */
+    static final String MAGIC = "GTRE";
+    /** Format version written in the header. */
+    private static final int VERSION = 1;
+    /** Type of an entry naming a file. */
+    private static final int BLOB = 0;
+    /** Type of an entry naming a subdirectory. */
+    private static final int TREE = 1;
+    /** Length in bytes of a binary id. */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    /** Offset of the first entry offset. */
+    private static final int HEADER = 4 + 1 + 4;
+    /** Version of the serialized form, which Dumpable requires though
+     *  trees are only ever stored in their encoding. */
+    private static final long serialVersionUID = 1L;
+
+    /** A view of the tree encoded in BYTES. */
+    Tree(byte[] bytes) {
+        data = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER
+            || !MAGIC.equals(new String(bytes, 0, 4,
+                                        StandardCharsets.US_ASCII))
+            || bytes[4] != VERSION) {
+            throw new IllegalArgumentException("not a gitlet tree");
+        }
+        count = data.getInt(5);
+    }
+
+    /** Return the tree with id ID from the repository's object store. */
+    static Tree load(String id) {
+        return new Tree(Repository.OBJECTS.get(id));
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return count;
+    }
+
+    /** Return the name of entry K. */
+    String name(int k) {
+        int at = entry(k) + 1 + ID_BYTES;
+        return new String(data.array(), at + 4, data.getInt(at),
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Return the id of entry K. */
+    String id(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        data.get(entry(k) + 1, raw);
+        return PackFile.toHex(raw);
+    }
+
+    /** Return true iff entry K names a subdirectory. */
+    boolean isTree(int k) {
+        return data.get(entry(k)) == TREE;
+    }
+
+    /** Return the index of the entry named NAME, or -1 if there is
+     *  none. */
+    int find(String name) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = name(mid).compareTo(name);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the id of the blob of file PATH in the tree with id ROOT, or
+     *  null if there is no such file.  Only the trees of the directories
+     *  on PATH are read. */
+    static String lookup(String root, String path) {
+        String[] parts = path.split("/");
+        String id = root;
+        for (int i = 0; i < parts.length; i += 1) {
+            Tree tree = load(id);
+            int k = tree.find(parts[i]);
+            if (k < 0 || tree.isTree(k) != (i < parts.length - 1)) {
+                return null;
+            }
+            id = tree.id(k);
+        }
+        return id;
+    }
+
+    /** Return the id of the tree holding FILES, a map from paths to blob
+     *  ids, storing it and its subtrees if STORE. */
+    static String write(Map<String, String> files, boolean store) {
+        return encode(updated(null, files, store), store);
+    }
+
+    /** Return the id of the tree that is the tree with id ROOT (null for
+     *  an empty one) with CHANGES made to it, storing it.  CHANGES maps
+     *  paths to their new blob ids, or to null for files to remove.  Only
+     *  the trees of directories holding changed paths are rewritten, and
+     *  directories left empty disappear. */
+    static String update(String root, Map<String, String> changes) {
+        return encode(updated(root, changes, true), true);
+    }
+
+    /** Return the paths of the files in the tree with id ROOT, mapped to
+     *  their blob ids. */
+    static TreeMap<String, String> flatten(String root) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(root, "", result);
+        return result;
+    }
+
+    /** Return the paths whose blobs differ between the trees with ids A
+     *  and B (either null for an empty tree), each mapped to its blob ids
+     *  in A and in B, null where it is absent.  Subtrees with the same id
+     *  in both are skipped unread. */
+    static TreeMap<String, String[]> diff(String a, String b) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    /** Add to SEEN the ids of the tree with id ROOT, of its subtrees, of
+     *  their blobs and of the chunks of blobs stored as chunks, adding
+     *  those not already in SEEN to FOUND too, if it is not null.
+     *  Subtrees already in SEEN are not read again, and each blob's
+     *  header is read once to find its chunks. */
+    static void walk(String root, Set<String> seen, Collection<String> found) {
+        if (!seen.add(root)) {
+            return;
+        }
+        if (found != null) {
+            found.add(root);
+        }
+        Tree tree = load(root);
+        for (int k = 0; k < tree.count; k += 1) {
+            String id = tree.id(k);
+            if (tree.isTree(k)) {
+                walk(id, seen, found);
+            } else if (seen.add(id)) {
+                if (found != null) {
+                    found.add(id);
+                }
+                for (String chunk : Repository.OBJECTS.chunks(id)) {
+                    if (seen.add(chunk) && found != null) {
+                        found.add(chunk);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void dump() {
+        for (int k = 0; k < count; k += 1) {
+            System.out.printf("%s %s %s%n", isTree(k) ? "tree" : "blob",
+                              id(k), name(k));
+        }
+    }
+
+    /** One entry of a tree under construction. */
+    private static class Entry {
+        /** An entry for the blob or (if ISTREE) tree with id ID. */
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+
+        /** True iff this entry names a subdirectory. */
+        private final boolean isTree;
+        /** Id of the blob or tree. */
+        private final String id;
+    }
+
+    /** Return the entries, by name, of the tree with id ROOT (null for an
+     *  empty one) with CHANGES, as for update, made to it, encoding the
+     *  changed subtrees and storing them if STORE. */
+    private static TreeMap<String, Entry> updated(String root,
+                                                  Map<String, String> changes,
+                                                  boolean store) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        if (root != null) {
+            Tree tree = load(root);
+            for (int k = 0; k < tree.count; k += 1) {
+                entries.put(tree.name(k),
+                            new Entry(tree.isTree(k), tree.id(k)));
+            }
+        }
+        HashMap<String, Map<String, String>> below = new HashMap<>();
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            String path = c.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                                      d -> new HashMap<>())
+                    .put(path.substring(slash + 1), c.getValue());
+            } else if (c.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, new Entry(false, c.getValue()));
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> d : below.entrySet()) {
+            Entry old = entries.get(d.getKey());
+            TreeMap<String, Entry> sub =
+                updated(old != null && old.isTree ? old.id : null,
+                        d.getValue(), store);
+            if (sub.isEmpty()) {
+                entries.remove(d.getKey());
+            } else {
+                entries.put(d.getKey(), new Entry(true, encode(sub, store)));
+            }
+        }
+        return entries;
+    }
+
+    /** Return the id of the tree with ENTRIES, storing it if STORE. */
+    private static String encode(TreeMap<String, Entry> entries,
+                                 boolean store) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int[] offsets = new int[entries.size()];
+        int start = HEADER + 4 * entries.size();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            int k = 0;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                offsets[k] = start + out.size();
+                k += 1;
+                out.writeByte(e.getValue().isTree ? TREE : BLOB);
+                Codec.writeId(out, e.getValue().id);
+                Codec.writeString(out, e.getKey());
+            }
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(start + body.size());
+        bytes.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+        bytes.put((byte) VERSION).putInt(offsets.length);
+        for (int offset : offsets) {
+            bytes.putInt(offset);
+        }
+        bytes.put(body.toByteArray());
+        return store ? Repository.OBJECTS.put(bytes.array())
+            : sha1((Object) bytes.array());
+    }
+
+    /** Add the files of the tree with id ROOT to RESULT, their paths
+     *  prefixed by PREFIX. */
+    private static void flatten(String root, String prefix,
+                                Map<String, String> result) {
+        Tree tree = load(root);
+        for (int k = 0; k < tree.count; k += 1) {
+            if (tree.isTree(k)) {
+                flatten(tree.id(k), prefix + tree.name(k) + "/", result);
+            } else {
+                result.put(prefix + tree.name(k), tree.id(k));
+            }
+        }
+    }
+
+    /** Add the differences between the trees with ids A and B to RESULT,
+     *  as for diff, with paths prefixed by PREFIX.  The sorted entries of
+     *  the two trees are merged in a single pass. */
+    private static void diff(String a, String b, String prefix,
+                             Map<String, String[]> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree x = a == null ? EMPTY : load(a);
+        Tree y = b == null ? EMPTY : load(b);
+        int i = 0;
+        int j = 0;
+        while (i < x.count || j < y.count) {
+            int c = i == x.count ? 1 : j == y.count ? -1
+                : x.name(i).compareTo(y.name(j));
+            if (c < 0) {
+                side(x, i, prefix, result, 0);
+                i += 1;
+            } else if (c > 0) {
+                side(y, j, prefix, result, 1);
+                j += 1;
+            } else {
+                if (!x.id(i).equals(y.id(j))) {
+                    if (x.isTree(i) && y.isTree(j)) {
+                        diff(x.id(i), y.id(j),
+                             prefix + x.name(i) + "/", result);
+                    } else if (!x.isTree(i) && !y.isTree(j)) {
+                        result.put(prefix + x.name(i),
+                                   new String[] { x.id(i), y.id(j) });
+                    } else {
+                        side(x, i, prefix, result, 0);
+                        side(y, j, prefix, result, 1);
+                    }
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Record in RESULT, as for diff, that entry K of TREE, with paths
+     *  prefixed by PREFIX, is present only on side SIDE (0 for the first
+     *  tree, 1 for the second). */
+    private static void side(Tree tree, int k, String prefix,
+                             Map<String, String[]> result, int side) {
+        Map<String, String> files = new TreeMap<>();
+        if (tree.isTree(k)) {
+            flatten(tree.id(k), prefix + tree.name(k) + "/", files);
+        } else {
+            files.put(prefix + tree.name(k), tree.id(k));
+        }
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            String[] ids = result.computeIfAbsent(e.getKey(),
+                                                  p -> new String[2]);
+            ids[side] = e.getValue();
+        }
+    }
+
+    /** Return the offset of entry K. */
+    private int entry(int k) {
+        return data.getInt(HEADER + 4 * k);
+    }
+
+    /** The empty tree. */
+    private static final Tree EMPTY =
+        new Tree(new byte[] { 'G', 'T', 'R', 'E', VERSION, 0, 0, 0, 0 });
+
+    /** The encoded tree. */
+    private final ByteBuffer data;
+    /** Number of entries. */
+    private final int count;
+}
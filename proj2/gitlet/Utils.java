@@ -1,16 +1,23 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,22 +43,26 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Timings.start();
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] utf8 =
+                        ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(utf8);
+                    bytes += utf8.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            String result = hexDigest(md);
+            Timings.record(Timings.Phase.SHA1, start, bytes);
+            return result;
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -63,6 +74,98 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the per-thread buffer used to hash streams. */
+    private static final int HASH_BUFFER_SIZE = 1 << 16;
+
+    /** Files at least this long are hashed through memory-mapped windows
+     *  rather than read through the hash buffer. */
+    static final long MAP_THRESHOLD = 1L << 20;
+
+    /** Length of each memory-mapped window used to hash large files. */
+    private static final long MAP_WINDOW = 1L << 26;
+
+    /** Per-thread buffer reused by every streaming hash. */
+    private static final ThreadLocal<byte[]> HASH_BUFFER =
+        ThreadLocal.withInitial(() -> new byte[HASH_BUFFER_SIZE]);
+
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the remaining contents of IN, read through
+     *  a fixed reusable buffer, so that memory use does not depend on the
+     *  length of the stream.  Does not close IN. */
+    static String sha1(InputStream in) {
+        long start = Timings.start();
+        MessageDigest md = sha1Digest();
+        long bytes = digest(md, in);
+        String result = hexDigest(md);
+        Timings.record(Timings.Phase.SHA1, start, bytes);
+        return result;
+    }
+
+    /** Add the remaining contents of IN to MD, read through the hash
+     *  buffer, and return their length.  Does not close IN. */
+    private static long digest(MessageDigest md, InputStream in) {
+        byte[] buffer = HASH_BUFFER.get();
+        long bytes = 0;
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+                bytes += n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes;
+    }
+
+    /** Returns the SHA-1 hash of the contents of the file at PATH, equal to
+     *  sha1(readContents(PATH)) but computed in constant memory.  Large
+     *  files are hashed through memory-mapped windows of the file. */
+    static String sha1(Path path) {
+        long start = Timings.start();
+        try (FileChannel channel = FileChannel.open(path)) {
+            long size = channel.size();
+            MessageDigest md = sha1Digest();
+            if (size < MAP_THRESHOLD) {
+                size = digest(md, Channels.newInputStream(channel));
+            } else {
+                for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                    long len = Math.min(MAP_WINDOW, size - pos);
+                    md.update(channel.map(FileChannel.MapMode.READ_ONLY,
+                                          pos, len));
+                }
+            }
+            String result = hexDigest(md);
+            Timings.record(Timings.Phase.SHA1, start, size);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE. */
+    static String sha1(File file) {
+        return sha1(file.toPath());
+    }
+
+    /** Returns the digest computed so far by MD as a lower-case hex
+     *  numeral. */
+    static String hexDigest(MessageDigest md) {
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -88,6 +191,34 @@ class Utils {
         return restrictedDelete(new File(file));
     }
 
+    /** Deletes the file NAME, a path relative to DIR that may name a file
+     *  in a subdirectory, if it exists and is not a directory, and then
+     *  deletes the directories between it and DIR that this leaves empty.
+     *  Returns true if the file was deleted, and false otherwise.  Refuses
+     *  to delete it and throws IllegalArgumentException unless DIR
+     *  contains a directory named .gitlet and NAME stays within DIR. */
+    static boolean restrictedDelete(File dir, String name) {
+        if (!(new File(dir, ".gitlet")).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        Path root = dir.toPath().toAbsolutePath().normalize();
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IllegalArgumentException("not in working directory");
+        }
+        File file = path.toFile();
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        for (Path parent = path.getParent(); !parent.equals(root);
+             parent = parent.getParent()) {
+            if (!parent.toFile().delete()) {
+                break;
+            }
+        }
+        return true;
+    }
+
     /* READING AND WRITING FILE CONTENTS */
 
     /** Return the entire contents of FILE as a byte array.  FILE must
@@ -97,8 +228,11 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Timings.start();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Timings.record(Timings.Phase.READ, start, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -116,6 +250,8 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        long start = Timings.start();
+        long bytes = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -124,27 +260,85 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] data = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(data);
+                bytes += data.length;
             }
             str.close();
+            Timings.record(Timings.Phase.WRITE, start, bytes);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Write the result of concatenating the bytes in CONTENTS to FILE, as
+     *  for writeContents, but so that FILE never holds partial contents,
+     *  even after a crash: the bytes are written to a temporary file,
+     *  which is synced to disk and then renamed over FILE.  Each call has
+     *  a temporary file of its own, so concurrent writers of FILE never
+     *  install one another's partial contents, and deletes it should
+     *  anything fail before the rename. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        File tmp;
+        try {
+            tmp = Files.createTempFile(
+                file.getAbsoluteFile().getParentFile().toPath(),
+                "." + file.getName() + ".", ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        boolean renamed = false;
+        try {
+            writeContents(tmp, contents);
+            fsync(tmp);
+            replaceAtomically(tmp, file);
+            renamed = true;
+        } finally {
+            if (!renamed) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Flush the contents and metadata of FILE, which may be a directory,
+     *  to stable storage.  File systems that cannot sync directories are
+     *  left alone.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static void fsync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Replace TARGET by SOURCE in a single rename.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void replaceAtomically(File source, File target) {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Timings.start();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Timings.record(Timings.Phase.READ_OBJECT, start, file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -172,11 +366,13 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
+        long start = Timings.start();
         String[] files = dir.list(PLAIN_FILES);
         if (files == null) {
             return null;
         } else {
             Arrays.sort(files);
+            Timings.record(Timings.Phase.LIST, start, 0);
             return Arrays.asList(files);
         }
     }
@@ -220,6 +416,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */